@@ -0,0 +1,17 @@
+#!/usr/bin/env bash
+# Compares the list-based damage correction with the single-pass column counting, without and with base quality
+# weighting (BaseCountsBenchmark), at 10, 100 and 1000 reads per column with JMH. Prints the mean time per column
+# in ns.
+#
+# Usage: scripts/benchmark_basecounts.sh [JMH options...]
+# e.g. scripts/benchmark_basecounts.sh -p depth=1000 -f 3
+
+set -euo pipefail
+
+ROOT=$(cd "$(dirname "$0")/.." && pwd)
+cd "$ROOT"
+
+# Compile the benchmark and collect its class path
+mvn -q test-compile dependency:build-classpath -Dmdep.includeScope=test -Dmdep.outputFile=target/test.classpath
+
+java -cp "target/test-classes:target/classes:$(cat target/test.classpath)" org.openjdk.jmh.Main BaseCountsBenchmark "$@"
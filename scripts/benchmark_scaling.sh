@@ -0,0 +1,71 @@
+#!/usr/bin/env bash
+# Measures how DORIAN scales with genome size and depth on synthetic data. For every combination of genome size
+# and depth, a reference and BAM file are simulated with the test damage profiles and every correction mode is
+# timed. Wall time, peak RSS and called positions per second are written as CSV.
+# Build the jar first: mvn clean package
+#
+# Usage: scripts/benchmark_scaling.sh [sizes] [depths] [csv] [DORIAN options...]
+#   sizes   Comma-separated genome sizes (default: 100000,1000000)
+#   depths  Comma-separated mean depths (default: 10,50)
+#   csv     Output file (default: benchmark_scaling.csv)
+# Further arguments are passed to every run, e.g. -s or -t 4.
+
+set -euo pipefail
+
+SIZES=${1:-100000,1000000}
+DEPTHS=${2:-10,50}
+CSV=${3:-benchmark_scaling.csv}
+shift $(( $# < 3 ? $# : 3 ))
+EXTRA=("$@")
+ROOT=$(cd "$(dirname "$0")/.." && pwd)
+JAR="$ROOT/target/DORIAN.jar"
+DP5="$ROOT/data/5p_freq_misincorporations.txt"
+DP3="$ROOT/data/3p_freq_misincorporations.txt"
+MODES=(no-cor ref-based_sil ref-free_sil ref-free_weighting)
+WORK=$(mktemp -d)
+trap 'rm -rf "$WORK"' EXIT
+
+if [[ ! -f "$JAR" ]]; then
+    echo "Missing $JAR, run 'mvn clean package' first." >&2
+    exit 1
+fi
+
+# Runs a command, prints its wall time in ms and its peak RSS in kB (VmHWM, sampled every 50 ms)
+measure() {
+    local start end pid hwm peak=0
+    start=$(date +%s%N)
+    "$@" > /dev/null 2>&1 &
+    pid=$!
+    while kill -0 "$pid" 2> /dev/null; do
+        hwm=$(awk '/^VmHWM/ {print $2}' "/proc/$pid/status" 2> /dev/null || true)
+        [[ -n "$hwm" ]] && peak=$hwm
+        sleep 0.05
+    done
+    if ! wait "$pid"; then
+        echo "Failed: $*" >&2
+        exit 1
+    fi
+    end=$(date +%s%N)
+    echo "$(( (end - start) / 1000000 )) $peak"
+}
+
+echo "genome_size,depth,mode,wall_ms,peak_rss_kb,loci_per_sec" > "$CSV"
+for size in ${SIZES//,/ }; do
+    for depth in ${DEPTHS//,/ }; do
+        DATA="$WORK/g${size}_d${depth}"
+        java -jar "$JAR" simulate -o "$DATA" -g "$size" -d "$depth" -dp5 "$DP5" -dp3 "$DP3" > /dev/null 2>&1
+
+        for mode in 1 2 3 4; do
+            OUT="$WORK/out"
+            mkdir -p "$OUT"
+            result=$(measure java -jar "$JAR" -b "$DATA/synthetic.bam" -r "$DATA/synthetic.fasta" \
+                -c 1 -f 0.5 -m "$mode" -dp5 "$DP5" -dp3 "$DP3" -o "$OUT" ${EXTRA[@]+"${EXTRA[@]}"})
+            read -r wall rss <<< "$result"
+            loci=$(awk -v n="$size" -v ms="$wall" 'BEGIN {printf "%.0f", (ms > 0 ? n * 1000 / ms : 0)}')
+            echo "$size,$depth,${MODES[mode - 1]},$wall,$rss,$loci" | tee -a "$CSV"
+            rm -rf "$OUT"
+        done
+        rm -rf "$DATA"
+    done
+done
+echo "Results written to $CSV"
@@ -0,0 +1,43 @@
+#!/usr/bin/env bash
+# Compares the wall time of DORIAN runs on the test data with and without the AppCDS archive.
+# Build the jar and the archive first: mvn clean package -Pappcds
+#
+# Usage: scripts/benchmark_startup.sh [runs]
+
+set -euo pipefail
+
+RUNS=${1:-10}
+ROOT=$(cd "$(dirname "$0")/.." && pwd)
+JAR="$ROOT/target/DORIAN.jar"
+JSA="$ROOT/target/DORIAN.jsa"
+OUT=$(mktemp -d)
+trap 'rm -rf "$OUT"' EXIT
+
+if [[ ! -f "$JAR" || ! -f "$JSA" ]]; then
+    echo "Missing $JAR or $JSA, run 'mvn clean package -Pappcds' first." >&2
+    exit 1
+fi
+
+ARGS=(-b "$ROOT/data/test.bam" -r "$ROOT/data/mini.fasta" -c 1 -f 0.5 -m 4
+      -dp5 "$ROOT/data/5p_freq_misincorporations.txt" -dp3 "$ROOT/data/3p_freq_misincorporations.txt"
+      -o "$OUT")
+
+# Runs DORIAN RUNS times with the given JVM options, prints the mean wall time in ms
+benchmark() {
+    local start end
+    start=$(date +%s%N)
+    for ((i = 0; i < RUNS; i++)); do
+        java "$@" -jar "$JAR" "${ARGS[@]}" > /dev/null 2>&1
+    done
+    end=$(date +%s%N)
+    echo $(( (end - start) / RUNS / 1000000 ))
+}
+
+# Warm the file system cache
+java -jar "$JAR" "${ARGS[@]}" > /dev/null 2>&1
+
+DEFAULT=$(benchmark -Xshare:auto)
+APPCDS=$(benchmark -XX:SharedArchiveFile="$JSA")
+echo -e "MODE\tMEAN_MS\tRUNS"
+echo -e "default CDS\t$DEFAULT\t$RUNS"
+echo -e "AppCDS\t$APPCDS\t$RUNS"
@@ -2,19 +2,25 @@ package cli;
 
 import com.univocity.parsers.tsv.TsvParser;
 import com.univocity.parsers.tsv.TsvParserSettings;
+import datastructure.ConsensusStorage;
 import datastructure.CorrectionMode;
 import datastructure.Fasta;
+import utils.AlignmentIO;
 import utils.FastaIO;
 import org.apache.commons.cli.*;
 import org.apache.commons.io.FilenameUtils;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import static dorian.dorian.file_logger;
 import static dorian.dorian.logger;
@@ -34,13 +40,28 @@ public class CLIParser {
      * Description for each command line argument
      */
     private final static String[] HELP_FLAG = new String[]{"h", "help", "Print help message"};
-    private final static String[] BAM_INPUT = new String[]{"b", "bam", "BAM file of mapped reads"};
+    private final static String[] BAM_INPUT = new String[]{"b", "bam", "BAM or CRAM files of mapped reads, merged while they are read, or lists of them (.list or .txt, one path per line)"};
     private final static String[] DP5_INPUT = new String[]{"dp5", "damageprofile5", "Path to DamageProfile of 5' end"};
     private final static String[] DP3_INPUT = new String[]{"dp3", "damageprofile3", "Path to DamageProfile of 3' end"};
+    private final static String[] RG_DP_INPUT = new String[]{"rgdp", "readgroup-dp", "TSV of read group ID, 5' and 3' DamageProfile per line; reads of other read groups use -dp5/-dp3"};
+    private final static String[] BASE_QUALITY_FLAG = new String[]{"bq", "base-quality", "Weight bases with the probability that they are correct (1 - 10^(-Q/10)) in addition to their damage"};
+    private final static String[] DP_ESTIMATE = new String[]{"edp", "estimate-dp", "Estimate damage profiles from the BAM file instead of -dp5/-dp3"};
     private final static String[] OUT_PATH = new String[]{"o", "out", "Path to output directory"};
     private final static String[] COV = new String[]{"c", "coverage", "Minimum coverage for consensus calling"};
     private final static String[] FREQ = new String[]{"f", "minfreq", "Minimum frequency for consensus calling (excluding N's)"};
     private final static String[] REF_FILE = new String[]{"r", "ref-file", "Reference genome"};
+    private final static String[] THREADS_NUM = new String[]{"t", "threads", "Number of threads for BAM decompression and decoding (default: 1)"};
+    private final static String[] STREAMING_FLAG = new String[]{"s", "streaming", "Stream reads once into per-position counts instead of building pileups"};
+    private final static String[] MAX_DEPTH_NUM = new String[]{"md", "max-depth", "Downsample positions to at most INT reads, keeping the strand ratio (default: no downsampling)"};
+    private final static String[] MERGE_OVERLAPS_FLAG = new String[]{"mo", "merge-overlaps", "Count overlapping mates of a pair once, keeping the base of higher quality (not available with -s)"};
+    private final static String[] SAVE_COUNTS_FLAG = new String[]{"sc", "save-counts", "Save the corrected base counts of all positions to <out>/<sample>_<mode>.counts for 'recall'"};
+    private final static String[] COUNT_MATRIX = new String[]{"cm", "count-matrix", "Append the corrected base counts of all positions to the count matrix in DIR, created if missing (not available with -cp or -sh)"};
+    private final static String[] LIKELIHOODS = new String[]{"gl", "genotype-likelihoods", "Add haploid GL, PL and GQ to the VCF, assuming a base error rate of phred PHRED (e.g. 30)"};
+    private final static String[] CONSENSUS_STORAGE = new String[]{"cs", "consensus-storage", "Keep the consensus sequence on the 'heap', 'off-heap' or in a file 'mapped' to memory (default: heap); off-heap is limited by -XX:MaxDirectMemorySize (default: -Xmx), use mapped for large genomes"};
+    private final static String[] CHECKPOINT_SIZE = new String[]{"cp", "checkpoint", "Write a checkpoint to the output directory every INT positions"};
+    private final static String[] RESUME_FLAG = new String[]{"rs", "resume", "Resume from the checkpoint in the output directory (requires -cp)"};
+    private final static String[] SHARD_INDEX = new String[]{"sh", "shard", "Only call shard INT of the plan written by 'scatter' to the output directory (not available with -cp or -sc)"};
+    private final static String[] MAX_MEMORY = new String[]{"mm", "max-memory", "Keep at most about MB megabytes of variant calls in memory and spill the rest to the output directory (default: no limit)"};
     private final static String[] COR = new String[]{"m", "mode", """
                                                                         Correction modes:
                                                                         1=no correction
@@ -50,15 +71,31 @@ public class CLIParser {
 
 
     public CommandLine cmd;
-    public File BAM;
+    public List<File> BAMS;
     public String SAMPLE_NAME;
     public CorrectionMode COR_MODE;
     public List<Double> DP5;
     public List<Double> DP3;
+    public boolean BASE_QUALITY = false;
+    public Map<String, List<Double>> RG_DP5 = new LinkedHashMap<>();
+    public Map<String, List<Double>> RG_DP3 = new LinkedHashMap<>();
+    public boolean ESTIMATE_DP = false;
     public Path OUT;
     public int MIN_COV;
     public double MIN_FREQ;
     public Fasta REF;
+    public int THREADS = 1;
+    public boolean STREAMING = false;
+    public int MAX_DEPTH = 0;
+    public boolean MERGE_OVERLAPS = false;
+    public boolean SAVE_COUNTS = false;
+    public Path COUNT_MATRIX_DIR = null;
+    public int LIKELIHOOD_PHRED = 0;
+    public ConsensusStorage CONSENSUS_STORAGE_TYPE = ConsensusStorage.HEAP;
+    public int CHECKPOINT = 0;
+    public boolean RESUME = false;
+    public int SHARD = 0;
+    public long MAX_MEMORY_BYTES = 0;
 
     public CLIParser(String[] args) {
 
@@ -87,12 +124,19 @@ public class CLIParser {
         // PARSING CLI //
         // BAM file
         try {
-            File bam_file = new File(cmd.getOptionValue("bam"));
-            logger.info("BAM file:\t\t " + bam_file);
-            file_logger.info("BAM file:\t\t\t" + bam_file);
-            checkExistence(bam_file);
-            SAMPLE_NAME = FilenameUtils.removeExtension(bam_file.getName());
-            BAM = bam_file;
+            String[] bam_files = cmd.getOptionValues("bam");
+            BAMS = AlignmentIO.resolveFiles(bam_files);
+            if (BAMS.size() == 1) {
+                logger.info("BAM file:\t\t " + BAMS.get(0));
+                file_logger.info("BAM file:\t\t\t" + BAMS.get(0));
+            } else {
+                List<String> paths = new ArrayList<>();
+                BAMS.forEach(bam_file -> paths.add(bam_file.toString()));
+                logger.info("BAM files:\t\t " + String.join("\n\t\t\t\t\t\t\t\t\t\t\t ", paths));
+                file_logger.info("BAM files:\t\t" + String.join("\n\t\t\t\t\t", paths));
+            }
+            // Sample is named after the first BAM file or list
+            SAMPLE_NAME = FilenameUtils.removeExtension(new File(bam_files[0]).getName());
         } catch (Exception e) {
             logger.error(e.getMessage());
             file_logger.error(e.getMessage());
@@ -135,7 +179,11 @@ public class CLIParser {
         }
 
         // Damage profiles
-        if (COR_MODE.needsDP()) {
+        if (COR_MODE.needsDP() && cmd.hasOption(DP_ESTIMATE[1])) {
+            ESTIMATE_DP = true;
+            logger.info("Damage profiles:  estimated from BAM file");
+            file_logger.info("Damage profiles:\testimated from BAM file");
+        } else if (COR_MODE.needsDP()) {
             try {
                 Path dp5_file = Paths.get(cmd.getOptionValue("dp5"));
                 Path dp3_file = Paths.get(cmd.getOptionValue("dp3"));
@@ -143,27 +191,46 @@ public class CLIParser {
                 file_logger.info("Damage profiles:\t" + dp5_file + "\n\t\t\t\t\t" + dp3_file);
                 checkExistence(dp5_file.toFile());
                 checkExistence(dp3_file.toFile());
+                DP5 = readDamageProfile(dp5_file);
+                DP3 = readDamageProfile(dp3_file);
 
-                // Configure the TsvParser settings
-                TsvParserSettings settings = new TsvParserSettings();
-                settings.getFormat().setLineSeparator("\n");
-                settings.setHeaderExtractionEnabled(false);
-
-                // Create a TsvParser instance with the configured settings
-                TsvParser parser = new TsvParser(settings);
-
-                // Parse the TSV file and get the list of records
-                List<String[]> dp5_list = parser.parseAll(Files.newBufferedReader(dp5_file, StandardCharsets.UTF_8));
-                List<String[]> dp3_list = parser.parseAll(Files.newBufferedReader(dp3_file, StandardCharsets.UTF_8));
-                DP5 = parseDamageProfile(dp5_list);
-                DP3 = parseDamageProfile(dp3_list);
-
             } catch (Exception e) {
                 logger.error(e.getMessage());
                 file_logger.error(e.getMessage());
                 System.exit(-1);
             }
         }
+        if (COR_MODE.needsDP() && cmd.hasOption(RG_DP_INPUT[1])) {
+            try {
+                Path rg_file = Paths.get(cmd.getOptionValue(RG_DP_INPUT[1]));
+                checkExistence(rg_file.toFile());
+                for (Map.Entry<String, Path[]> rg : readReadGroupProfiles(rg_file).entrySet()) {
+                    Path[] files = rg.getValue();
+                    logger.info("Read group " + rg.getKey() + ": " + files[0] + "\n\t\t\t\t\t\t\t\t\t\t\t " + files[1]);
+                    file_logger.info("Read group " + rg.getKey() + ":\t" + files[0] + "\n\t\t\t\t\t" + files[1]);
+                    checkExistence(files[0].toFile());
+                    checkExistence(files[1].toFile());
+                    RG_DP5.put(rg.getKey(), readDamageProfile(files[0]));
+                    RG_DP3.put(rg.getKey(), readDamageProfile(files[1]));
+                }
+            } catch (Exception e) {
+                logger.error(e.getMessage());
+                file_logger.error(e.getMessage());
+                System.exit(-1);
+            }
+        }
+
+        // Base quality weighting
+        if (cmd.hasOption(BASE_QUALITY_FLAG[1])) {
+            if (!COR_MODE.needsDP()) {
+                logger.error("Base quality weighting (-bq) is only available for polarization-free damage weighting (-m 4).");
+                file_logger.error("Base quality weighting (-bq) is only available for polarization-free damage weighting (-m 4).");
+                System.exit(-1);
+            }
+            BASE_QUALITY = true;
+            logger.info("Base quality:     true");
+            file_logger.info("Base quality:\t\ttrue");
+        }
 
         // Minimum coverage
         try {
@@ -192,6 +259,182 @@ public class CLIParser {
             System.exit(-1);
         }
 
+        // Threads
+        if (cmd.hasOption(THREADS_NUM[1])) {
+            try {
+                THREADS = Integer.parseInt(cmd.getOptionValue(THREADS_NUM[1]));
+                if (THREADS < 1) {
+                    throw new Exception();
+                }
+                logger.info("Threads:          " + THREADS);
+                file_logger.info("Threads:\t\t\t" + THREADS);
+            } catch (Exception e) {
+                logger.error("Threads parameter must be a positive integer. Given: " + cmd.getOptionValue(THREADS_NUM[1]));
+                file_logger.error("Threads parameter must be a positive integer. Given: " + cmd.getOptionValue(THREADS_NUM[1]));
+                System.exit(-1);
+            }
+        }
+
+        // Reconstruction engine
+        if (cmd.hasOption(STREAMING_FLAG[1])) {
+            STREAMING = true;
+            logger.info("Engine:           streaming");
+            file_logger.info("Engine:\t\t\t\tstreaming");
+        }
+
+        // Downsampling
+        if (cmd.hasOption(MAX_DEPTH_NUM[1])) {
+            try {
+                MAX_DEPTH = Integer.parseInt(cmd.getOptionValue(MAX_DEPTH_NUM[1]));
+                if (MAX_DEPTH < 1) {
+                    throw new Exception();
+                }
+                logger.info("Maximal depth:    " + MAX_DEPTH);
+                file_logger.info("Maximal depth:\t\t" + MAX_DEPTH);
+            } catch (Exception e) {
+                logger.error("Maximal depth parameter must be a positive integer. Given: " + cmd.getOptionValue(MAX_DEPTH_NUM[1]));
+                file_logger.error("Maximal depth parameter must be a positive integer. Given: " + cmd.getOptionValue(MAX_DEPTH_NUM[1]));
+                System.exit(-1);
+            }
+            if (STREAMING) {
+                logger.error("Downsampling (-md) is not available with the streaming engine (-s), whose memory does not depend on the depth.");
+                file_logger.error("Downsampling (-md) is not available with the streaming engine (-s), whose memory does not depend on the depth.");
+                System.exit(-1);
+            }
+        }
+
+        // Overlapping mates
+        if (cmd.hasOption(MERGE_OVERLAPS_FLAG[1])) {
+            if (STREAMING) {
+                logger.error("Merging overlapping mates (-mo) is not available with the streaming engine (-s), which does not see both mates at a position.");
+                file_logger.error("Merging overlapping mates (-mo) is not available with the streaming engine (-s), which does not see both mates at a position.");
+                System.exit(-1);
+            }
+            MERGE_OVERLAPS = true;
+            logger.info("Merge overlaps:   true");
+            file_logger.info("Merge overlaps:\t\ttrue");
+        }
+
+        // Genotype likelihoods
+        if (cmd.hasOption(LIKELIHOODS[1])) {
+            try {
+                LIKELIHOOD_PHRED = Integer.parseInt(cmd.getOptionValue(LIKELIHOODS[1]));
+                if (LIKELIHOOD_PHRED < 1 || LIKELIHOOD_PHRED > 93) {
+                    throw new Exception();
+                }
+                logger.info("Likelihoods for:  phred " + LIKELIHOOD_PHRED);
+                file_logger.info("Likelihoods for:\tphred " + LIKELIHOOD_PHRED);
+            } catch (Exception e) {
+                logger.error("Phred score of genotype likelihoods must be an integer between 1 and 93. Given: " + cmd.getOptionValue(LIKELIHOODS[1]));
+                file_logger.error("Phred score of genotype likelihoods must be an integer between 1 and 93. Given: " + cmd.getOptionValue(LIKELIHOODS[1]));
+                System.exit(-1);
+            }
+        }
+
+        // Consensus storage
+        if (cmd.hasOption(CONSENSUS_STORAGE[1])) {
+            try {
+                CONSENSUS_STORAGE_TYPE = ConsensusStorage.fromName(cmd.getOptionValue(CONSENSUS_STORAGE[1]));
+                logger.info("Consensus storage: " + CONSENSUS_STORAGE_TYPE.getName());
+                file_logger.info("Consensus storage:\t" + CONSENSUS_STORAGE_TYPE.getName());
+            } catch (IllegalArgumentException e) {
+                logger.error(e.getMessage());
+                file_logger.error(e.getMessage());
+                System.exit(-1);
+            }
+        }
+
+        // Checkpoints
+        if (cmd.hasOption(CHECKPOINT_SIZE[1])) {
+            try {
+                CHECKPOINT = Integer.parseInt(cmd.getOptionValue(CHECKPOINT_SIZE[1]));
+                if (CHECKPOINT < 1) {
+                    throw new Exception();
+                }
+                logger.info("Checkpoint every: " + CHECKPOINT + " positions");
+                file_logger.info("Checkpoint every:\t" + CHECKPOINT + " positions");
+            } catch (Exception e) {
+                logger.error("Checkpoint parameter must be a positive integer. Given: " + cmd.getOptionValue(CHECKPOINT_SIZE[1]));
+                file_logger.error("Checkpoint parameter must be a positive integer. Given: " + cmd.getOptionValue(CHECKPOINT_SIZE[1]));
+                System.exit(-1);
+            }
+        }
+        if (cmd.hasOption(SAVE_COUNTS_FLAG[1])) {
+            if (CHECKPOINT > 0) {
+                logger.error("Saving counts (-sc) is not available with checkpoints (-cp).");
+                file_logger.error("Saving counts (-sc) is not available with checkpoints (-cp).");
+                System.exit(-1);
+            }
+            SAVE_COUNTS = true;
+            logger.info("Save counts:      true");
+            file_logger.info("Save counts:\t\ttrue");
+        }
+        if (cmd.hasOption(RESUME_FLAG[1])) {
+            if (CHECKPOINT == 0) {
+                logger.error("Resuming (-rs) requires the checkpoint interval (-cp) of the interrupted run.");
+                file_logger.error("Resuming (-rs) requires the checkpoint interval (-cp) of the interrupted run.");
+                System.exit(-1);
+            }
+            RESUME = true;
+            logger.info("Resume:           true");
+            file_logger.info("Resume:\t\t\t\ttrue");
+        }
+
+        // Shards
+        if (cmd.hasOption(SHARD_INDEX[1])) {
+            try {
+                SHARD = Integer.parseInt(cmd.getOptionValue(SHARD_INDEX[1]));
+                if (SHARD < 1) {
+                    throw new Exception();
+                }
+            } catch (Exception e) {
+                logger.error("Shard parameter must be a positive integer. Given: " + cmd.getOptionValue(SHARD_INDEX[1]));
+                file_logger.error("Shard parameter must be a positive integer. Given: " + cmd.getOptionValue(SHARD_INDEX[1]));
+                System.exit(-1);
+            }
+            if (CHECKPOINT > 0 || SAVE_COUNTS) {
+                logger.error("Shards (-sh) are not available with checkpoints (-cp) or saved counts (-sc).");
+                file_logger.error("Shards (-sh) are not available with checkpoints (-cp) or saved counts (-sc).");
+                System.exit(-1);
+            }
+            logger.info("Shard:            " + SHARD);
+            file_logger.info("Shard:\t\t\t\t" + SHARD);
+        }
+
+        // Count matrix
+        if (cmd.hasOption(COUNT_MATRIX[1])) {
+            if (CHECKPOINT > 0 || SHARD > 0) {
+                logger.error("Count matrices (-cm) are not available with checkpoints (-cp) or shards (-sh).");
+                file_logger.error("Count matrices (-cm) are not available with checkpoints (-cp) or shards (-sh).");
+                System.exit(-1);
+            }
+            COUNT_MATRIX_DIR = Path.of(cmd.getOptionValue(COUNT_MATRIX[1]));
+            logger.info("Count matrix:     " + COUNT_MATRIX_DIR);
+            file_logger.info("Count matrix:\t\t" + COUNT_MATRIX_DIR);
+        }
+
+        // Memory budget
+        if (cmd.hasOption(MAX_MEMORY[1])) {
+            try {
+                long megabytes = Long.parseLong(cmd.getOptionValue(MAX_MEMORY[1]));
+                if (megabytes < 1) {
+                    throw new Exception();
+                }
+                MAX_MEMORY_BYTES = megabytes * 1024 * 1024;
+            } catch (Exception e) {
+                logger.error("Memory budget must be a positive number of megabytes. Given: " + cmd.getOptionValue(MAX_MEMORY[1]));
+                file_logger.error("Memory budget must be a positive number of megabytes. Given: " + cmd.getOptionValue(MAX_MEMORY[1]));
+                System.exit(-1);
+            }
+            logger.info("Memory budget:    " + cmd.getOptionValue(MAX_MEMORY[1]) + " MB");
+            file_logger.info("Memory budget:\t\t" + cmd.getOptionValue(MAX_MEMORY[1]) + " MB");
+            // The budget only bounds the variant calls; the heap itself is still limited by -Xmx
+            if (MAX_MEMORY_BYTES > Runtime.getRuntime().maxMemory()) {
+                logger.warn("Memory budget exceeds the maximal heap of " + Runtime.getRuntime().maxMemory() / (1024 * 1024) + " MB, raise it with -Xmx.");
+                file_logger.warn("Memory budget exceeds the maximal heap of " + Runtime.getRuntime().maxMemory() / (1024 * 1024) + " MB, raise it with -Xmx.");
+            }
+        }
+
 
         logger.info("Parsing of input files completed.\n");
     }
@@ -218,7 +461,7 @@ public class CLIParser {
                 .argName("FILE")
                 .option(BAM_INPUT[0])
                 .longOpt(BAM_INPUT[1])
-                .hasArg()
+                .hasArgs()
                 .required(false)
                 .desc(BAM_INPUT[2])
                 .build());
@@ -238,6 +481,26 @@ public class CLIParser {
                 .required(false)
                 .desc(DP3_INPUT[2])
                 .build());
+        op.addOption(Option.builder()
+                .argName("FILE")
+                .option(RG_DP_INPUT[0])
+                .longOpt(RG_DP_INPUT[1])
+                .hasArg()
+                .required(false)
+                .desc(RG_DP_INPUT[2])
+                .build());
+        op.addOption(Option.builder()
+                .option(BASE_QUALITY_FLAG[0])
+                .longOpt(BASE_QUALITY_FLAG[1])
+                .required(false)
+                .desc(BASE_QUALITY_FLAG[2])
+                .build());
+        op.addOption(Option.builder()
+                .option(DP_ESTIMATE[0])
+                .longOpt(DP_ESTIMATE[1])
+                .required(false)
+                .desc(DP_ESTIMATE[2])
+                .build());
         op.addOption(Option.builder()
                 .argName("PATH")
                 .option(OUT_PATH[0])
@@ -279,6 +542,94 @@ public class CLIParser {
                 .required(false)
                 .desc(REF_FILE[2])
                 .build());
+        op.addOption(Option.builder()
+                .argName("INT")
+                .option(THREADS_NUM[0])
+                .longOpt(THREADS_NUM[1])
+                .hasArg()
+                .required(false)
+                .desc(THREADS_NUM[2])
+                .build());
+        op.addOption(Option.builder()
+                .option(STREAMING_FLAG[0])
+                .longOpt(STREAMING_FLAG[1])
+                .required(false)
+                .desc(STREAMING_FLAG[2])
+                .build());
+        op.addOption(Option.builder()
+                .argName("INT")
+                .option(MAX_DEPTH_NUM[0])
+                .longOpt(MAX_DEPTH_NUM[1])
+                .hasArg()
+                .required(false)
+                .desc(MAX_DEPTH_NUM[2])
+                .build());
+        op.addOption(Option.builder()
+                .option(MERGE_OVERLAPS_FLAG[0])
+                .longOpt(MERGE_OVERLAPS_FLAG[1])
+                .required(false)
+                .desc(MERGE_OVERLAPS_FLAG[2])
+                .build());
+        op.addOption(Option.builder()
+                .option(SAVE_COUNTS_FLAG[0])
+                .longOpt(SAVE_COUNTS_FLAG[1])
+                .required(false)
+                .desc(SAVE_COUNTS_FLAG[2])
+                .build());
+        op.addOption(Option.builder()
+                .argName("DIR")
+                .option(COUNT_MATRIX[0])
+                .longOpt(COUNT_MATRIX[1])
+                .hasArg()
+                .required(false)
+                .desc(COUNT_MATRIX[2])
+                .build());
+        op.addOption(Option.builder()
+                .argName("PHRED")
+                .option(LIKELIHOODS[0])
+                .longOpt(LIKELIHOODS[1])
+                .hasArg()
+                .required(false)
+                .desc(LIKELIHOODS[2])
+                .build());
+        op.addOption(Option.builder()
+                .argName("STORAGE")
+                .option(CONSENSUS_STORAGE[0])
+                .longOpt(CONSENSUS_STORAGE[1])
+                .hasArg()
+                .required(false)
+                .desc(CONSENSUS_STORAGE[2])
+                .build());
+        op.addOption(Option.builder()
+                .argName("INT")
+                .option(CHECKPOINT_SIZE[0])
+                .longOpt(CHECKPOINT_SIZE[1])
+                .hasArg()
+                .required(false)
+                .desc(CHECKPOINT_SIZE[2])
+                .build());
+        op.addOption(Option.builder()
+                .option(RESUME_FLAG[0])
+                .longOpt(RESUME_FLAG[1])
+                .required(false)
+                .desc(RESUME_FLAG[2])
+                .build());
+        op.addOption(Option.builder()
+                .argName("INT")
+                .option(SHARD_INDEX[0])
+                .longOpt(SHARD_INDEX[1])
+                .hasArg()
+                .required(false)
+                .desc(SHARD_INDEX[2])
+                .build());
+        op.addOption(Option.builder()
+                .argName("MB")
+                .option(MAX_MEMORY[0])
+                .longOpt(MAX_MEMORY[1])
+                .hasArg()
+                .required(false)
+                .desc(MAX_MEMORY[2])
+                .build());
         op.addOption(Option.builder()
                 .option(HELP_FLAG[0])
                 .longOpt(HELP_FLAG[1])
@@ -299,6 +650,53 @@ public class CLIParser {
         }
     }
 
+    /**
+     * Reads the damage profile files of read groups. Each line holds a read group ID and the 5' and 3' damage
+     * profile of the read group, separated by tabs; empty lines and lines starting with # are skipped.
+     * Relative paths are resolved against the directory of the file.
+     *
+     * @param file Read group profile file
+     * @return 5' and 3' damage profile file by read group ID
+     * @throws IOException If the file cannot be read or a line has not three columns
+     */
+    public static Map<String, Path[]> readReadGroupProfiles(Path file) throws IOException {
+        Map<String, Path[]> profiles = new LinkedHashMap<>();
+        Path dir = file.toAbsolutePath().getParent();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (line.isBlank() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\t");
+            if (fields.length != 3) {
+                throw new IOException("Line of " + file + " does not consist of read group, 5' and 3' profile: " + line);
+            }
+            profiles.put(fields[0], new Path[]{dir.resolve(fields[1]), dir.resolve(fields[2])});
+        }
+        return profiles;
+    }
+
+    /**
+     * Reads the C>T column of a damage profile in mapDamage format
+     *
+     * @param file Damage profile file
+     * @return Damage profile as list of doubles
+     * @throws IOException If the file cannot be read
+     */
+    public static List<Double> readDamageProfile(Path file) throws IOException {
+        // Configure the TsvParser settings
+        TsvParserSettings settings = new TsvParserSettings();
+        settings.getFormat().setLineSeparator("\n");
+        settings.setHeaderExtractionEnabled(false);
+
+        // Create a TsvParser instance with the configured settings
+        TsvParser parser = new TsvParser(settings);
+
+        // Parse the TSV file and get the list of records
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return parseDamageProfile(parser.parseAll(reader));
+        }
+    }
+
     /**
      * Parses the tsv damage profile from the given file
      *
@@ -7,6 +7,9 @@ import java.util.List;
 public class AlleleCount {
     List<Allele> alleles;
     int[] counts;
+    // Haploid log10 likelihoods of the alleles and genotype quality, null if not computed
+    double[] likelihoods;
+    int quality;
 
     // Constructor
     public AlleleCount(List<Allele> alleles, int[] counts) {
@@ -23,6 +26,14 @@ public class AlleleCount {
         return this.counts;
     }
 
+    public double[] getLikelihoods() {
+        return this.likelihoods;
+    }
+
+    public int getQuality() {
+        return this.quality;
+    }
+
     // Setter
     public void setAlleles(List<Allele> alleles) {
         this.alleles = alleles;
@@ -32,4 +43,12 @@ public class AlleleCount {
         this.counts = counts;
     }
 
+    public void setLikelihoods(double[] likelihoods) {
+        this.likelihoods = likelihoods;
+    }
+
+    public void setQuality(int quality) {
+        this.quality = quality;
+    }
+
 }
@@ -0,0 +1,180 @@
+package datastructure;
+
+/**
+ * Aggregated reads of one position: read counts per base, the strand-specific damage candidates
+ * (forward mapping Ts, reverse mapping As), the damage-weighted sums of both damage patterns and,
+ * with base quality weighting, the counts weighted by the probability that the base is correct.
+ * These are all values the damage detection and every correction mode need, so a position can be
+ * corrected without creating an object per read.
+ *
+ * @author Meret Häusler
+ * @version 1.0
+ * @since 2024-09-30
+ */
+
+public class BaseCounts {
+    // Base codes
+    public static final int A = 0, C = 1, G = 2, T = 3, OTHER = 4;
+    private static final byte[] CODES = new byte[128];
+    // Probability that a base is correct (1 - 10^(-Q/10)) by phred score; unknown qualities (-1) weigh 1
+    public static final double[] QUALITY_WEIGHTS = new double[256];
+
+    static {
+        java.util.Arrays.fill(CODES, (byte) OTHER);
+        CODES['A'] = A;
+        CODES['C'] = C;
+        CODES['G'] = G;
+        CODES['T'] = T;
+        for (int q = 0; q < 255; q++) {
+            QUALITY_WEIGHTS[q] = 1 - Math.pow(10, -q / 10.0);
+        }
+        QUALITY_WEIGHTS[255] = 1.0;
+    }
+
+    public int depth;
+    public final int[] counts = new int[OTHER + 1];
+    public int forwardT;
+    public int reverseA;
+    // Weighted T (A) counts in read order if the position is CT (GA) damaged, and the damage moved to C (G)
+    public double weightT;
+    public double weightA;
+    public double upvoteC;
+    public double upvoteG;
+    // Quality-weighted counts of A, C, G and T, only filled with base quality weighting
+    public final double[] qualityCounts = new double[T + 1];
+
+
+    /**
+     * Counts all reads of a pileup column in one pass over its per-read arrays
+     * @param column    Pileup at the current reference position
+     * @param weighting If true, damage candidates are weighted with the damage of the reads in the column
+     * @param quality   If true, all weights are additionally multiplied with the quality weight of the base
+     */
+    public void count(PileupColumn column, boolean weighting, boolean quality) {
+        int n = column.depth;
+        byte[] bases = column.bases;
+        boolean[] isReverse = column.isReverse;
+        int[] readIdx = column.readIdx;
+        double[][] damage = column.damage;
+        byte[] quals = column.quals;
+        int cntA = 0, cntC = 0, cntG = 0, cntT = 0, fwdT = 0, revA = 0;
+        double wT = 0.0, wA = 0.0, upC = 0.0, upG = 0.0;
+
+        if (!weighting) {
+            // Counts and damage candidates only
+            for (int i = 0; i < n; i++) {
+                int code = CODES[bases[i] & 0x7f];
+                boolean rev = isReverse[i];
+                cntA += code == A ? 1 : 0;
+                cntC += code == C ? 1 : 0;
+                cntG += code == G ? 1 : 0;
+                cntT += code == T ? 1 : 0;
+                fwdT += code == T && !rev ? 1 : 0;
+                revA += code == A && rev ? 1 : 0;
+            }
+        } else if (quality) {
+            // Weight each base with its quality and damage candidates additionally with their damage
+            double qA = 0.0, qC = 0.0, qG = 0.0, qT = 0.0;
+            for (int i = 0; i < n; i++) {
+                int code = CODES[bases[i] & 0x7f];
+                boolean rev = isReverse[i];
+                double q = QUALITY_WEIGHTS[quals[i] & 0xff];
+                if (code == A) {
+                    cntA++;
+                    qA += q;
+                    if (rev) {
+                        revA++;
+                        double dam = damage[i][readIdx[i]];
+                        wA += (1 - dam) * q;
+                        upG += dam * q;
+                    } else {
+                        wA += q;
+                    }
+                } else if (code == T) {
+                    cntT++;
+                    qT += q;
+                    if (!rev) {
+                        fwdT++;
+                        double dam = damage[i][readIdx[i]];
+                        wT += (1 - dam) * q;
+                        upC += dam * q;
+                    } else {
+                        wT += q;
+                    }
+                } else if (code == C) {
+                    cntC++;
+                    qC += q;
+                } else if (code == G) {
+                    cntG++;
+                    qG += q;
+                }
+            }
+            qualityCounts[A] = qA;
+            qualityCounts[C] = qC;
+            qualityCounts[G] = qG;
+            qualityCounts[T] = qT;
+        } else {
+            // Additionally down-weight damage candidates; sums are built in read order
+            for (int i = 0; i < n; i++) {
+                int code = CODES[bases[i] & 0x7f];
+                boolean rev = isReverse[i];
+                if (code == A) {
+                    cntA++;
+                    if (rev) {
+                        revA++;
+                        double dam = damage[i][readIdx[i]];
+                        wA += 1 - dam;
+                        upG += dam;
+                    } else {
+                        wA += 1.0;
+                    }
+                } else if (code == T) {
+                    cntT++;
+                    if (!rev) {
+                        fwdT++;
+                        double dam = damage[i][readIdx[i]];
+                        wT += 1 - dam;
+                        upC += dam;
+                    } else {
+                        wT += 1.0;
+                    }
+                } else if (code == C) {
+                    cntC++;
+                } else if (code == G) {
+                    cntG++;
+                }
+            }
+        }
+
+        depth = n;
+        counts[A] = cntA;
+        counts[C] = cntC;
+        counts[G] = cntG;
+        counts[T] = cntT;
+        counts[OTHER] = n - cntA - cntC - cntG - cntT;
+        forwardT = fwdT;
+        reverseA = revA;
+        weightT = wT;
+        weightA = wA;
+        upvoteC = upC;
+        upvoteG = upG;
+    }
+
+
+    /**
+     * @param corMode   Correction mode
+     * @param refBase   Reference base at the position
+     * @return Damage type of the position
+     */
+    public DamageType getDamageType(CorrectionMode corMode, char refBase) {
+        boolean tForward = forwardT > 0;
+        boolean aReverse = reverseA > 0;
+        return switch (corMode) {
+            case NO_COR -> DamageType.NONE;
+            case REFBASED_SIL -> refBase == 'C' && tForward ? DamageType.CT
+                    : refBase == 'G' && aReverse ? DamageType.GA : DamageType.NONE;
+            case REFFREE_SIL, REFFREE_WEI -> counts[C] > 0 && tForward ? DamageType.CT
+                    : counts[G] > 0 && aReverse ? DamageType.GA : DamageType.NONE;
+        };
+    }
+}
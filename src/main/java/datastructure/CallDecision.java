@@ -0,0 +1,65 @@
+package datastructure;
+
+import java.util.Map;
+
+/**
+ * Outcome of calling one position from its base counts: damage type, corrected counts, base call and the
+ * alleles of the variant call. It does not depend on the reference position, so positions with the same
+ * counts and reference base share one decision.
+ *
+ * @author Meret Häusler
+ * @version 1.0
+ * @since 2024-10-01
+ */
+public class CallDecision {
+    private final Map<Character, Double> cntBases;
+    private final Map<Character, Double> cntBasesCor;
+    private final DamageType damPos;
+    private final char call;
+    private final double callFreq;
+    private final AlleleCount alleles;
+
+
+    /**
+     * @param cntBases      Base counts before correction
+     * @param cntBasesCor   Base counts after correction, null if the coverage is below minCov and counts are not saved
+     * @param damPos        Damage type detected at the position
+     * @param call          Final base call
+     * @param callFreq      Frequency of final base call (-1 if call is 'N')
+     * @param alleles       Alleles and allele counts of the variant call
+     */
+    public CallDecision(Map<Character, Double> cntBases, Map<Character, Double> cntBasesCor, DamageType damPos,
+                        char call, double callFreq, AlleleCount alleles) {
+        this.cntBases = cntBases;
+        this.cntBasesCor = cntBasesCor;
+        this.damPos = damPos;
+        this.call = call;
+        this.callFreq = callFreq;
+        this.alleles = alleles;
+    }
+
+    // Getter
+    public Map<Character, Double> getCntBases() {
+        return cntBases;
+    }
+
+    public Map<Character, Double> getCntBasesCor() {
+        return cntBasesCor;
+    }
+
+    public DamageType getDamPos() {
+        return damPos;
+    }
+
+    public char getCall() {
+        return call;
+    }
+
+    public double getCallFreq() {
+        return callFreq;
+    }
+
+    public AlleleCount getAlleles() {
+        return alleles;
+    }
+}
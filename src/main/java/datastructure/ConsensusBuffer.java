@@ -0,0 +1,225 @@
+package datastructure;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Growable one-byte-per-base store of a consensus sequence. Bases are kept in fixed-size chunks on the heap,
+ * in direct memory outside the heap, or in a memory-mapped file, so the sequence of large references does not
+ * have to be held and copied by the garbage collector. Mapped chunks are paged in and out by the operating
+ * system; the backing file is deleted on close. Direct memory is capped by -XX:MaxDirectMemorySize, which
+ * defaults to the maximum heap size (-Xmx), so off-heap storage is checked against that limit up front.
+ *
+ * @author Meret Häusler
+ * @version 1.0
+ * @since 2024-10-02
+ */
+public class ConsensusBuffer implements CharSequence, Closeable {
+    // 4 MiB chunks
+    private static final int CHUNK_SHIFT = 22;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final ConsensusStorage storage;
+    private final Path file;
+    private final FileChannel channel;
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+    private int length = 0;
+
+
+    /**
+     * @param storage           Where the bases are kept
+     * @param file              Backing file of mapped storage, ignored otherwise
+     * @param expectedLength    Expected length of the sequence, e.g. of the reference
+     * @throws IOException If the backing file cannot be created, or the expected length of off-heap storage
+     *                     exceeds the free direct memory
+     */
+    public ConsensusBuffer(ConsensusStorage storage, Path file, long expectedLength) throws IOException {
+        if (storage == ConsensusStorage.OFF_HEAP) {
+            long needed = (expectedLength + CHUNK_MASK) >>> CHUNK_SHIFT << CHUNK_SHIFT;
+            long free = maxDirectMemory() - usedDirectMemory();
+            if (needed > free) {
+                throw new IOException("Off-heap consensus storage needs " + (needed >> 20) + " MiB, but only "
+                        + (free >> 20) + " MiB of direct memory are free. Use '-cs mapped' or raise the limit "
+                        + "with -XX:MaxDirectMemorySize.");
+            }
+        }
+        this.storage = storage;
+        if (storage == ConsensusStorage.MAPPED) {
+            this.file = file;
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } else {
+            this.file = null;
+            this.channel = null;
+        }
+    }
+
+
+    /**
+     * Creates a buffer on the heap
+     */
+    public ConsensusBuffer() {
+        this.storage = ConsensusStorage.HEAP;
+        this.file = null;
+        this.channel = null;
+    }
+
+
+    /**
+     * Appends a base call
+     * @param base Base call
+     * @return This buffer
+     */
+    public ConsensusBuffer append(char base) {
+        if (length == chunks.size() << CHUNK_SHIFT) {
+            chunks.add(allocate(chunks.size()));
+        }
+        chunks.get(length >>> CHUNK_SHIFT).put(length & CHUNK_MASK, (byte) base);
+        length++;
+        return this;
+    }
+
+
+    /**
+     * Appends a sequence, e.g. a checkpointed interval
+     * @param seq Sequence to append
+     * @return This buffer
+     */
+    public ConsensusBuffer append(CharSequence seq) {
+        for (int i = 0; i < seq.length(); i++) {
+            append(seq.charAt(i));
+        }
+        return this;
+    }
+
+
+    /**
+     * Removes all bases; allocated chunks are reused
+     */
+    public void clear() {
+        length = 0;
+    }
+
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + length);
+        }
+        return (char) (chunks.get(index >>> CHUNK_SHIFT).get(index & CHUNK_MASK) & 0xff);
+    }
+
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("Range [" + start + ", " + end + ") out of bounds for length "
+                    + length);
+        }
+        byte[] bytes = new byte[end - start];
+        int pos = start;
+        while (pos < end) {
+            // Copy up to the end of the current chunk
+            int offset = pos & CHUNK_MASK;
+            int count = Math.min(end - pos, CHUNK_SIZE - offset);
+            chunks.get(pos >>> CHUNK_SHIFT).get(offset, bytes, pos - start, count);
+            pos += count;
+        }
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+
+    @Override
+    public String toString() {
+        return subSequence(0, length).toString();
+    }
+
+
+    /**
+     * Releases the backing file of mapped storage
+     * @throws IOException If the backing file cannot be deleted
+     */
+    @Override
+    public void close() throws IOException {
+        chunks.clear();
+        length = 0;
+        if (channel != null) {
+            channel.close();
+            Files.deleteIfExists(file);
+        }
+    }
+
+
+    /**
+     * @param index Index of the new chunk
+     * @return Empty chunk of the configured storage
+     */
+    private ByteBuffer allocate(int index) {
+        try {
+            return switch (storage) {
+                case HEAP -> ByteBuffer.allocate(CHUNK_SIZE);
+                case OFF_HEAP -> allocateDirect();
+                case MAPPED -> channel.map(FileChannel.MapMode.READ_WRITE, (long) index << CHUNK_SHIFT, CHUNK_SIZE);
+            };
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+
+    /**
+     * @return Chunk in direct memory
+     * @throws IllegalStateException If the direct memory limit is reached
+     */
+    private static ByteBuffer allocateDirect() {
+        try {
+            return ByteBuffer.allocateDirect(CHUNK_SIZE);
+        } catch (OutOfMemoryError e) {
+            throw new IllegalStateException("Direct memory limit of " + (maxDirectMemory() >> 20) + " MiB reached."
+                    + " Use '-cs mapped' or raise the limit with -XX:MaxDirectMemorySize.", e);
+        }
+    }
+
+
+    /**
+     * @return Maximum size of direct memory in bytes: -XX:MaxDirectMemorySize, or the maximum heap size if unset
+     */
+    static long maxDirectMemory() {
+        HotSpotDiagnosticMXBean hotspot = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+        long max = hotspot == null ? 0 : Long.parseLong(hotspot.getVMOption("MaxDirectMemorySize").getValue());
+        return max > 0 ? max : Runtime.getRuntime().maxMemory();
+    }
+
+
+    /**
+     * @return Direct memory in bytes currently used by all direct buffers of the JVM
+     */
+    private static long usedDirectMemory() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct")) {
+                return pool.getMemoryUsed();
+            }
+        }
+        return 0;
+    }
+}
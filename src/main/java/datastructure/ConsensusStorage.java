@@ -0,0 +1,33 @@
+package datastructure;
+
+public enum ConsensusStorage {
+    HEAP("heap"),
+    OFF_HEAP("off-heap"),
+    MAPPED("mapped")
+    ;
+
+    private final String name;
+
+    ConsensusStorage(String name){
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @param name Name of the storage as given on the command line
+     * @return Storage with the given name
+     * @throws IllegalArgumentException If there is no storage with the given name
+     */
+    public static ConsensusStorage fromName(String name) {
+        for (ConsensusStorage storage : values()) {
+            if (storage.name.equals(name)) {
+                return storage;
+            }
+        }
+        throw new IllegalArgumentException("Unknown consensus storage '" + name + "', use heap, off-heap or mapped.");
+    }
+
+}
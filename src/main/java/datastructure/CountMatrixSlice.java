@@ -0,0 +1,85 @@
+package datastructure;
+
+import java.util.List;
+
+/**
+ * Coverage and corrected base counts of some samples in a region, as read from a count matrix.
+ * Positions without reads in a sample have coverage and counts of 0.
+ *
+ * @author Meret Häusler
+ * @version 1.0
+ * @since 2024-10-14
+ */
+public class CountMatrixSlice {
+    public static final char[] BASES = {'A', 'C', 'G', 'T'};
+
+    private final String sequenceName;
+    private final int start;
+    private final int end;
+    private final List<String> samples;
+    // By sample and position in the region; counts by sample and position * 4 + base
+    private final int[][] coverage;
+    private final float[][] counts;
+
+
+    /**
+     * @param sequenceName  Name of the reference sequence
+     * @param start         First 1-based position of the region
+     * @param end           Last 1-based position of the region
+     * @param samples       Samples of the slice
+     */
+    public CountMatrixSlice(String sequenceName, int start, int end, List<String> samples) {
+        this.sequenceName = sequenceName;
+        this.start = start;
+        this.end = end;
+        this.samples = List.copyOf(samples);
+        this.coverage = new int[samples.size()][end - start + 1];
+        this.counts = new float[samples.size()][(end - start + 1) * BASES.length];
+    }
+
+
+    public void setCoverage(int sample, int pos, int cov) {
+        coverage[sample][pos - start] = cov;
+    }
+
+    public void setCount(int sample, int pos, int base, float count) {
+        counts[sample][(pos - start) * BASES.length + base] = count;
+    }
+
+
+    // Getters
+    public String getSequenceName() {
+        return sequenceName;
+    }
+
+    public int getStart() {
+        return start;
+    }
+
+    public int getEnd() {
+        return end;
+    }
+
+    public List<String> getSamples() {
+        return samples;
+    }
+
+    /**
+     * @param sample    Index of the sample in the slice
+     * @param pos       1-based position in the region
+     * @return Number of mapping reads of the sample at the position
+     */
+    public int getCoverage(int sample, int pos) {
+        return coverage[sample][pos - start];
+    }
+
+    /**
+     * @param sample    Index of the sample in the slice
+     * @param pos       1-based position in the region
+     * @param base      Index of the base in BASES
+     * @return Corrected count of the base of the sample at the position
+     */
+    public float getCount(int sample, int pos, int base) {
+        return counts[sample][(pos - start) * BASES.length + base];
+    }
+}
@@ -0,0 +1,62 @@
+package datastructure;
+
+import dorian.DamageCorrection;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Damage of every base of a read for one pair of damage profiles. The damage only depends on the read length,
+ * the index of the base and the strand, so it is computed once per read length and strand and a read looks up
+ * its bases in the row of its length.
+ *
+ * @author Meret Häusler
+ * @version 1.0
+ * @since 2024-10-07
+ */
+public class DamageTable {
+    private final double[] dp5;
+    private final double[] dp3;
+
+    // Rows indexed by read length, created on first use
+    private double[][] forward = new double[0][];
+    private double[][] reverse = new double[0][];
+
+
+    /**
+     * @param dp5   Damage profile of 5' end
+     * @param dp3   Damage profile of 3' end
+     */
+    public DamageTable(List<Double> dp5, List<Double> dp3) {
+        this.dp5 = DamageCorrection.toArray(dp5);
+        this.dp3 = DamageCorrection.toArray(dp3);
+    }
+
+
+    /**
+     * @param readLength    Read length
+     * @param isReverse     True if the read is reverse mapping
+     * @return Damage of each base of the read by its 0-based index
+     */
+    public double[] row(int readLength, boolean isReverse) {
+        double[][] rows = isReverse ? reverse : forward;
+        if (readLength < rows.length && rows[readLength] != null) {
+            return rows[readLength];
+        }
+
+        if (readLength >= rows.length) {
+            rows = Arrays.copyOf(rows, Math.max(readLength + 1, rows.length * 2));
+            if (isReverse) {
+                reverse = rows;
+            } else {
+                forward = rows;
+            }
+        }
+        double[] row = new double[readLength];
+        for (int i = 0; i < readLength; i++) {
+            row[i] = DamageCorrection.getDamage(readLength, i, isReverse, dp5, dp3);
+        }
+        rows[readLength] = row;
+        return row;
+    }
+}
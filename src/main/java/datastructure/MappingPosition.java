@@ -104,4 +104,19 @@ public class MappingPosition {
     }
 
 
+    /**
+     * Extracts information of a PileupColumn entry and creates MappingPosition
+     *
+     * @param column    Pileup at the current reference position
+     * @param i         Index of the read in the column
+     * @return  MappingPosition object
+     */
+    public static MappingPosition createMappingPosition(PileupColumn column, int i) {
+        return new MappingPosition((char) column.getBase(i),
+                column.getReadIdx(i),
+                column.getReadLength(i),
+                column.getIsReverse(i), 1.0);
+    }
+
+
 }
@@ -0,0 +1,84 @@
+package datastructure;
+
+/**
+ * Counts of reference bases and observed read bases by distance to the 5' and 3' read ends,
+ * as used for mapDamage-style misincorporation frequencies.
+ *
+ * @author Meret Häusler
+ * @version 1.0
+ * @since 2024-09-12
+ */
+
+public class MisincorporationCounts {
+    public static final int FIVE_PRIME = 0;
+    public static final int THREE_PRIME = 1;
+    public static final String BASES = "ACGT";
+
+    // [read end][distance to read end][reference base][read base]
+    final long[][][][] counts;
+    long reads;
+
+    // Constructor
+    public MisincorporationCounts(int length) {
+        this.counts = new long[2][length][4][4];
+    }
+
+
+    /**
+     * Adds one aligned base
+     * @param end       FIVE_PRIME or THREE_PRIME
+     * @param distance  Distance of the base to the read end (0-based)
+     * @param refBase   Index of the reference base in BASES
+     * @param readBase  Index of the read base in BASES
+     */
+    public void add(int end, int distance, int refBase, int readBase) {
+        counts[end][distance][refBase][readBase]++;
+    }
+
+
+    /**
+     * Adds all counts of another instance of the same length
+     * @param other Counts to add
+     */
+    public void merge(MisincorporationCounts other) {
+        for (int end = 0; end < 2; end++) {
+            for (int d = 0; d < counts[end].length; d++) {
+                for (int from = 0; from < 4; from++) {
+                    for (int to = 0; to < 4; to++) {
+                        counts[end][d][from][to] += other.counts[end][d][from][to];
+                    }
+                }
+            }
+        }
+        reads += other.reads;
+    }
+
+
+    /**
+     * Frequency of a substitution relative to all occurrences of the reference base
+     * @param end       FIVE_PRIME or THREE_PRIME
+     * @param distance  Distance to the read end (0-based)
+     * @param from      Reference base
+     * @param to        Read base
+     * @return  Substitution frequency, 0 if the reference base was not observed
+     */
+    public double getFrequency(int end, int distance, char from, char to) {
+        long[] observed = counts[end][distance][BASES.indexOf(from)];
+        long total = observed[0] + observed[1] + observed[2] + observed[3];
+        return total == 0 ? 0.0 : (double) observed[BASES.indexOf(to)] / total;
+    }
+
+
+    public void addRead() {
+        reads++;
+    }
+
+    // Getters
+    public int getLength() {
+        return counts[0].length;
+    }
+
+    public long getReads() {
+        return reads;
+    }
+}
@@ -0,0 +1,260 @@
+package datastructure;
+
+import java.util.Arrays;
+
+/**
+ * Compact representation of all read bases covering one reference position.
+ * A column is reused by the pileup walker for every locus, so consumers must copy
+ * whatever they need before returning.
+ *
+ * @author Meret Häusler
+ * @version 1.0
+ * @since 2024-09-02
+ */
+
+public class PileupColumn {
+    String sequenceName;
+    int sequenceIndex;
+    int position;
+    int depth;
+    int fullDepth;
+    // Number of reverse reads, kept up to date so that downsampling needs a single pass
+    int reverseDepth;
+    final int[] fullCounts = new int[4];
+    byte[] bases;
+    int[] readIdx;
+    int[] readLength;
+    boolean[] isReverse;
+    // Damage of all bases of each read, null without damage weighting
+    double[][] damage;
+    // Phred score of each base, -1 if unknown
+    byte[] quals;
+
+    // Constructor
+    public PileupColumn(int capacity) {
+        int initialCapacity = Math.max(capacity, 1);
+        this.bases = new byte[initialCapacity];
+        this.readIdx = new int[initialCapacity];
+        this.readLength = new int[initialCapacity];
+        this.isReverse = new boolean[initialCapacity];
+        this.damage = new double[initialCapacity][];
+        this.quals = new byte[initialCapacity];
+    }
+
+
+    /**
+     * Clears the column and moves it to a new reference position
+     * @param sequenceName  Name of the reference sequence
+     * @param sequenceIndex Index of the reference sequence in the sequence dictionary
+     * @param position      1-based reference position
+     */
+    public void reset(String sequenceName, int sequenceIndex, int position) {
+        this.sequenceName = sequenceName;
+        this.sequenceIndex = sequenceIndex;
+        this.position = position;
+        this.depth = 0;
+        this.fullDepth = 0;
+        this.reverseDepth = 0;
+    }
+
+
+    /**
+     * Adds the base of one read to the column
+     * @param base          Base at read_idx in read
+     * @param read_idx      Index of base in read (0-based)
+     * @param read_length   Length of read
+     * @param is_reverse    False if read is forward mapping; True if read is reverse mapping
+     */
+    public void add(byte base, int read_idx, int read_length, boolean is_reverse) {
+        add(base, read_idx, read_length, is_reverse, null, (byte) -1);
+    }
+
+
+    /**
+     * Adds the base of one read together with the damage of the read's bases and the base quality to the column
+     * @param base          Base at read_idx in read
+     * @param read_idx      Index of base in read (0-based)
+     * @param read_length   Length of read
+     * @param is_reverse    False if read is forward mapping; True if read is reverse mapping
+     * @param read_damage   Damage of each base of the read by its index, null without damage weighting
+     * @param quality       Phred score of the base, -1 if unknown
+     */
+    public void add(byte base, int read_idx, int read_length, boolean is_reverse, double[] read_damage,
+                    byte quality) {
+        if (depth == bases.length) {
+            grow();
+        }
+        bases[depth] = base;
+        readIdx[depth] = read_idx;
+        readLength[depth] = read_length;
+        isReverse[depth] = is_reverse;
+        damage[depth] = read_damage;
+        quals[depth] = quality;
+        depth++;
+        fullDepth++;
+        if (is_reverse) {
+            reverseDepth++;
+        }
+    }
+
+
+    /**
+     * Replaces the base of a read in the column by the base of another read of the same fragment
+     * @param i             Index of the read in the column
+     * @param base          Base at read_idx in read
+     * @param read_idx      Index of base in read (0-based)
+     * @param read_length   Length of read
+     * @param is_reverse    False if read is forward mapping; True if read is reverse mapping
+     * @param read_damage   Damage of each base of the read by its index, null without damage weighting
+     * @param quality       Phred score of the base, -1 if unknown
+     */
+    public void replace(int i, byte base, int read_idx, int read_length, boolean is_reverse, double[] read_damage,
+                        byte quality) {
+        if (isReverse[i] != is_reverse) {
+            reverseDepth += is_reverse ? 1 : -1;
+        }
+        bases[i] = base;
+        readIdx[i] = read_idx;
+        readLength[i] = read_length;
+        isReverse[i] = is_reverse;
+        damage[i] = read_damage;
+        quals[i] = quality;
+    }
+
+
+    /**
+     * Reduces the column to at most maxDepth reads. Forward and reverse reads are kept in proportion to their
+     * share of the column and are picked at even intervals in alignment start order, so the same input always
+     * keeps the same reads. Base counts of the full column are kept for reporting. The column is walked once.
+     * The reads were already gathered by the walker, so this bounds the cost of calling, not of the pileup.
+     * @param maxDepth  Maximal number of reads in the column
+     */
+    public void downsample(int maxDepth) {
+        if (depth <= maxDepth) {
+            return;
+        }
+
+        // Split the kept reads between the strands
+        int reverse = reverseDepth;
+        int forward = depth - reverse;
+        int keepForward = (int) Math.round((double) maxDepth * forward / depth);
+        int keepReverse = maxDepth - keepForward;
+
+        // Keep reads at even intervals on each strand, compacting them to the front of the column
+        Arrays.fill(fullCounts, 0);
+        int seenForward = 0, seenReverse = 0, kept = 0;
+        for (int i = 0; i < depth; i++) {
+            switch (bases[i]) {
+                case 'A' -> fullCounts[0]++;
+                case 'C' -> fullCounts[1]++;
+                case 'G' -> fullCounts[2]++;
+                case 'T' -> fullCounts[3]++;
+                default -> {
+                }
+            }
+            boolean keep = isReverse[i]
+                    ? isPicked(seenReverse++, keepReverse, reverse)
+                    : isPicked(seenForward++, keepForward, forward);
+            if (keep) {
+                bases[kept] = bases[i];
+                readIdx[kept] = readIdx[i];
+                readLength[kept] = readLength[i];
+                isReverse[kept] = isReverse[i];
+                damage[kept] = damage[i];
+                quals[kept] = quals[i];
+                kept++;
+            }
+        }
+        depth = kept;
+        reverseDepth = keepReverse;
+    }
+
+
+    /**
+     * @param idx   Index of the read among the n reads of its strand
+     * @param k     Number of reads to keep on the strand
+     * @param n     Number of reads on the strand
+     * @return True if the read is one of k reads spread evenly over n reads
+     */
+    private static boolean isPicked(int idx, int k, int n) {
+        return (long) (idx + 1) * k / n > (long) idx * k / n;
+    }
+
+
+    /**
+     * Doubles the capacity of all per-read arrays
+     */
+    private void grow() {
+        int capacity = bases.length * 2;
+        bases = Arrays.copyOf(bases, capacity);
+        readIdx = Arrays.copyOf(readIdx, capacity);
+        readLength = Arrays.copyOf(readLength, capacity);
+        isReverse = Arrays.copyOf(isReverse, capacity);
+        damage = Arrays.copyOf(damage, capacity);
+        quals = Arrays.copyOf(quals, capacity);
+    }
+
+
+    // Getters
+    public String getSequenceName() {
+        return sequenceName;
+    }
+
+    public int getSequenceIndex() {
+        return sequenceIndex;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return Number of reads covering the position before downsampling
+     */
+    public int getFullDepth() {
+        return fullDepth;
+    }
+
+    /**
+     * @return Counts of A, C, G and T before downsampling, only valid if the column was downsampled
+     */
+    public int[] getFullCounts() {
+        return fullCounts;
+    }
+
+    public byte getBase(int i) {
+        return bases[i];
+    }
+
+    public int getReadIdx(int i) {
+        return readIdx[i];
+    }
+
+    public int getReadLength(int i) {
+        return readLength[i];
+    }
+
+    public boolean getIsReverse(int i) {
+        return isReverse[i];
+    }
+
+    /**
+     * @param i Index of the read in the column
+     * @return Damage of the read's base in the column, only valid if the column was built with damage weighting
+     */
+    public double getDamage(int i) {
+        return damage[i][readIdx[i]];
+    }
+
+    /**
+     * @param i Index of the read in the column
+     * @return Phred score of the read's base in the column, -1 if unknown
+     */
+    public byte getQuality(int i) {
+        return quals[i];
+    }
+}
@@ -0,0 +1,428 @@
+package datastructure;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable parameters of a reconstruction. Instances are created with a Builder and can be shared
+ * between concurrently running reconstructions.
+ *
+ * @author Meret Häusler
+ * @version 1.0
+ * @since 2024-09-20
+ */
+public final class ReconstructionConfig {
+    private final CorrectionMode corMode;
+    private final int minCov;
+    private final double minFreq;
+    private final List<Double> dp5;
+    private final List<Double> dp3;
+    private final boolean baseQuality;
+    private final Map<String, List<Double>> readGroupDp5;
+    private final Map<String, List<Double>> readGroupDp3;
+    private final int threads;
+    private final boolean streaming;
+    private final int maxDepth;
+    private final boolean mergeOverlaps;
+    private final boolean saveCounts;
+    private final Path countMatrix;
+    private final ConsensusStorage consensusStorage;
+    private final int likelihoodPhred;
+    private final int shard;
+    private final int shardSize;
+    private final int checkpointInterval;
+    private final boolean resume;
+    private final long maxMemory;
+
+    private ReconstructionConfig(Builder builder) {
+        this.corMode = builder.corMode;
+        this.minCov = builder.minCov;
+        this.minFreq = builder.minFreq;
+        this.dp5 = builder.dp5;
+        this.dp3 = builder.dp3;
+        this.baseQuality = builder.baseQuality;
+        this.readGroupDp5 = Collections.unmodifiableMap(new LinkedHashMap<>(builder.readGroupDp5));
+        this.readGroupDp3 = Collections.unmodifiableMap(new LinkedHashMap<>(builder.readGroupDp3));
+        this.threads = builder.threads;
+        this.streaming = builder.streaming;
+        this.maxDepth = builder.maxDepth;
+        this.mergeOverlaps = builder.mergeOverlaps;
+        this.saveCounts = builder.saveCounts;
+        this.countMatrix = builder.countMatrix;
+        this.consensusStorage = builder.consensusStorage;
+        this.likelihoodPhred = builder.likelihoodPhred;
+        this.shard = builder.shard;
+        this.shardSize = builder.shardSize;
+        this.checkpointInterval = builder.checkpointInterval;
+        this.resume = builder.resume;
+        this.maxMemory = builder.maxMemory;
+    }
+
+    // Getters
+    public CorrectionMode getCorMode() {
+        return corMode;
+    }
+
+    public int getMinCov() {
+        return minCov;
+    }
+
+    public double getMinFreq() {
+        return minFreq;
+    }
+
+    /**
+     * @return Damage profile of the 5' end, null if the correction mode needs no damage profiles
+     */
+    public List<Double> getDp5() {
+        return dp5;
+    }
+
+    /**
+     * @return Damage profile of the 3' end, null if the correction mode needs no damage profiles
+     */
+    public List<Double> getDp3() {
+        return dp3;
+    }
+
+    /**
+     * @return True if bases are weighted with the probability that they are correct, in addition to the damage
+     */
+    public boolean isBaseQuality() {
+        return baseQuality;
+    }
+
+    /**
+     * @return Damage profiles of the 5' end by read group ID; reads of other read groups use getDp5()
+     */
+    public Map<String, List<Double>> getReadGroupDp5() {
+        return readGroupDp5;
+    }
+
+    /**
+     * @return Damage profiles of the 3' end by read group ID; reads of other read groups use getDp3()
+     */
+    public Map<String, List<Double>> getReadGroupDp3() {
+        return readGroupDp3;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * @return Maximal number of reads per position, 0 if pileups are not downsampled
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * @return True if overlapping mates of a pair are counted once, with the base of higher quality
+     */
+    public boolean isMergeOverlaps() {
+        return mergeOverlaps;
+    }
+
+    /**
+     * @return True if the base counts of all positions are saved to a pileup-count file
+     */
+    public boolean isSaveCounts() {
+        return saveCounts;
+    }
+
+    /**
+     * @return Directory of the count matrix the corrected counts are appended to, null if they are not appended
+     */
+    public Path getCountMatrix() {
+        return countMatrix;
+    }
+
+    /**
+     * @return Where the consensus sequence is kept while positions are called
+     */
+    public ConsensusStorage getConsensusStorage() {
+        return consensusStorage;
+    }
+
+    /**
+     * @return Phred score of the base error rate of the genotype likelihoods in the VCF, 0 if none are written
+     */
+    public int getLikelihoodPhred() {
+        return likelihoodPhred;
+    }
+
+    /**
+     * @return 1-based index of the shard to call, 0 if the whole reference sequence is called
+     */
+    public int getShard() {
+        return shard;
+    }
+
+    /**
+     * @return Number of positions per shard, 0 if the whole reference sequence is called
+     */
+    public int getShardSize() {
+        return shardSize;
+    }
+
+    /**
+     * @return First 1-based position to call
+     */
+    public int getRegionStart() {
+        return shard == 0 ? 1 : (shard - 1) * shardSize + 1;
+    }
+
+    /**
+     * @return Last 1-based position to call, Integer.MAX_VALUE if calling ends at the last covered position
+     */
+    public int getRegionEnd() {
+        return shard == 0 ? Integer.MAX_VALUE : (int) Math.min((long) shard * shardSize, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return Number of positions per checkpoint interval, 0 if checkpointing is disabled
+     */
+    public int getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    public boolean isResume() {
+        return resume;
+    }
+
+    /**
+     * @return Memory budget for the variant calls in bytes, 0 if all variant calls are kept in memory
+     */
+    public long getMaxMemory() {
+        return maxMemory;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+
+    /**
+     * Builder for ReconstructionConfig. Correction mode, minimal coverage and minimal frequency are required;
+     * the damage profiles are required for reference-free weighting.
+     */
+    public static final class Builder {
+        private CorrectionMode corMode;
+        private int minCov = -1;
+        private double minFreq = -1;
+        private List<Double> dp5;
+        private List<Double> dp3;
+        private boolean baseQuality = false;
+        private final Map<String, List<Double>> readGroupDp5 = new LinkedHashMap<>();
+        private final Map<String, List<Double>> readGroupDp3 = new LinkedHashMap<>();
+        private int threads = 1;
+        private boolean streaming = false;
+        private int maxDepth = 0;
+        private boolean mergeOverlaps = false;
+        private boolean saveCounts = false;
+        private Path countMatrix = null;
+        private ConsensusStorage consensusStorage = ConsensusStorage.HEAP;
+        private int likelihoodPhred = 0;
+        private int shard = 0;
+        private int shardSize = 0;
+        private int checkpointInterval = 0;
+        private boolean resume = false;
+        private long maxMemory = 0;
+
+        private Builder() {
+        }
+
+        public Builder corMode(CorrectionMode corMode) {
+            this.corMode = corMode;
+            return this;
+        }
+
+        public Builder minCov(int minCov) {
+            this.minCov = minCov;
+            return this;
+        }
+
+        public Builder minFreq(double minFreq) {
+            this.minFreq = minFreq;
+            return this;
+        }
+
+        public Builder damageProfiles(List<Double> dp5, List<Double> dp3) {
+            this.dp5 = dp5 == null ? null : List.copyOf(dp5);
+            this.dp3 = dp3 == null ? null : List.copyOf(dp3);
+            return this;
+        }
+
+        /**
+         * Weights every base with the probability that it is correct (1 - 10^(-Q/10)) in addition to the damage;
+         * only available for damage weighting
+         * @param baseQuality   True to weight bases with their base quality
+         */
+        public Builder baseQuality(boolean baseQuality) {
+            this.baseQuality = baseQuality;
+            return this;
+        }
+
+        /**
+         * Weights the reads of a read group with their own damage profiles instead of the default profiles
+         * @param readGroup Read group ID
+         * @param dp5       Damage profile of 5' end
+         * @param dp3       Damage profile of 3' end
+         */
+        public Builder readGroupProfiles(String readGroup, List<Double> dp5, List<Double> dp3) {
+            this.readGroupDp5.put(readGroup, dp5 == null ? null : List.copyOf(dp5));
+            this.readGroupDp3.put(readGroup, dp3 == null ? null : List.copyOf(dp3));
+            return this;
+        }
+
+        public Builder threads(int threads) {
+            this.threads = threads;
+            return this;
+        }
+
+        public Builder streaming(boolean streaming) {
+            this.streaming = streaming;
+            return this;
+        }
+
+        public Builder maxDepth(int maxDepth) {
+            this.maxDepth = maxDepth;
+            return this;
+        }
+
+        /**
+         * Counts the overlapping bases of the two mates of a pair once, keeping the base of higher quality;
+         * only available with the pileup engine
+         * @param mergeOverlaps True to count overlapping mates once
+         */
+        public Builder mergeOverlaps(boolean mergeOverlaps) {
+            this.mergeOverlaps = mergeOverlaps;
+            return this;
+        }
+
+        public Builder saveCounts(boolean saveCounts) {
+            this.saveCounts = saveCounts;
+            return this;
+        }
+
+        /**
+         * Appends the corrected base counts of all positions to a count matrix shared by many samples
+         * @param dir   Directory of the count matrix, created if missing; null to append no counts
+         */
+        public Builder countMatrix(Path dir) {
+            this.countMatrix = dir;
+            return this;
+        }
+
+        public Builder consensusStorage(ConsensusStorage consensusStorage) {
+            this.consensusStorage = consensusStorage;
+            return this;
+        }
+
+        /**
+         * Adds haploid genotype likelihoods (GL, PL, GQ) to the VCF
+         * @param phred Phred score of the base error rate, 0 to write no likelihoods
+         */
+        public Builder genotypeLikelihoods(int phred) {
+            this.likelihoodPhred = phred;
+            return this;
+        }
+
+        /**
+         * Restricts calling to the positions (index - 1) * size + 1 to index * size
+         * @param index 1-based index of the shard, 0 to call the whole reference sequence
+         * @param size  Number of positions per shard
+         */
+        public Builder shard(int index, int size) {
+            this.shard = index;
+            this.shardSize = size;
+            return this;
+        }
+
+        public Builder checkpoint(int interval, boolean resume) {
+            this.checkpointInterval = interval;
+            this.resume = resume;
+            return this;
+        }
+
+        /**
+         * Bounds the variant calls held in memory by reconstructions written to files; calls beyond the budget
+         * are spilled to disk and merged when the VCF is written
+         * @param bytes Memory budget in bytes, 0 to keep all variant calls in memory
+         */
+        public Builder maxMemory(long bytes) {
+            this.maxMemory = bytes;
+            return this;
+        }
+
+        /**
+         * @return Validated configuration
+         * @throws IllegalArgumentException If a required parameter is missing or out of range
+         */
+        public ReconstructionConfig build() {
+            if (corMode == null) {
+                throw new IllegalArgumentException("Correction mode is required.");
+            }
+            if (minCov < 0) {
+                throw new IllegalArgumentException("Minimum coverage must be a non-negative integer.");
+            }
+            if (minFreq < 0 || minFreq > 1) {
+                throw new IllegalArgumentException("Minimum frequency must be between 0 and 1.");
+            }
+            if (corMode.needsDP() && (dp5 == null || dp3 == null)) {
+                throw new IllegalArgumentException("Damage profiles are required for " + corMode.getModeName() + ".");
+            }
+            if (baseQuality && !corMode.needsDP()) {
+                throw new IllegalArgumentException("Base quality weighting is only available for damage weighting.");
+            }
+            if (readGroupDp5.containsValue(null) || readGroupDp3.containsValue(null)) {
+                throw new IllegalArgumentException("Damage profiles of read groups are required for both ends.");
+            }
+            if (threads < 1) {
+                throw new IllegalArgumentException("Threads must be a positive integer.");
+            }
+            if (maxDepth < 0) {
+                throw new IllegalArgumentException("Maximal depth must be a non-negative integer.");
+            }
+            if (maxDepth > 0 && streaming) {
+                throw new IllegalArgumentException("Downsampling is not available with the streaming engine.");
+            }
+            if (mergeOverlaps && streaming) {
+                throw new IllegalArgumentException("Merging overlapping mates is not available with the streaming engine.");
+            }
+            if (checkpointInterval < 0 || (resume && checkpointInterval == 0)) {
+                throw new IllegalArgumentException("Resuming requires a positive checkpoint interval.");
+            }
+            if (saveCounts && checkpointInterval > 0) {
+                throw new IllegalArgumentException("Saving counts is not available with checkpoints.");
+            }
+            if (likelihoodPhred < 0 || likelihoodPhred > 93) {
+                throw new IllegalArgumentException("Phred score of genotype likelihoods must be between 1 and 93.");
+            }
+            if (shard < 0 || (shard > 0 && shardSize < 1)) {
+                throw new IllegalArgumentException("Shards must have a positive index and size.");
+            }
+            if (shard > 0 && (checkpointInterval > 0 || saveCounts)) {
+                throw new IllegalArgumentException("Shards are not available with checkpoints or saved counts.");
+            }
+            if (countMatrix != null && (checkpointInterval > 0 || shard > 0)) {
+                throw new IllegalArgumentException("Count matrices are not available with checkpoints or shards.");
+            }
+            if (maxMemory < 0) {
+                throw new IllegalArgumentException("Memory budget must be a non-negative number of bytes.");
+            }
+            if (consensusStorage == null) {
+                throw new IllegalArgumentException("Consensus storage is required.");
+            }
+            return new ReconstructionConfig(this);
+        }
+    }
+}
@@ -6,16 +6,16 @@ import java.util.List;
 
 public class ReturnTuple {
 
-    private final StringBuilder seq;
+    private final ConsensusBuffer seq;
     private final List<VariantContext> variants;
 
-    public ReturnTuple(StringBuilder seq, List<VariantContext> variants) {
+    public ReturnTuple(ConsensusBuffer seq, List<VariantContext> variants) {
         this.seq = seq;
         this.variants = variants;
     }
 
     // Getter
-    public StringBuilder getSeq() {
+    public ConsensusBuffer getSeq() {
         return seq;
     }
 
@@ -1,20 +1,27 @@
 package dorian;
 
-import com.google.common.collect.HashMultimap;
-import com.google.common.collect.Multimap;
 import datastructure.*;
 import htsjdk.samtools.*;
-import htsjdk.samtools.util.SamLocusIterator;
+import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.variant.variantcontext.VariantContext;
-import utils.DamageTypeGetter;
-import utils.ListCloner;
+import utils.Checkpoint;
+import utils.CountMatrixWriter;
+import utils.SpillManager;
+import utils.DecisionCache;
+import utils.DownsamplingStats;
+import utils.LogWriter;
+import utils.MergedReader;
+import utils.PileupCountReader;
+import utils.PileupCountWriter;
+import utils.PileupWalker;
+import utils.QCStats;
+import utils.ReadGroupDamage;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.*;
 
-import static dorian.dorian.cor_mode;
-import static utils.LogWriter.addLog;
 
 /**
  * Determines a base call based on coverage and frequency of the bases at a given position.
@@ -24,118 +31,416 @@ import static utils.LogWriter.addLog;
  * @since 2024-02-15
  */
 public class BaseCalling {
+    private final ReconstructionConfig config;
+    private final CorrectionMode corMode;
+    private final Fasta ref;
+    private final String refSequence;
+    private final String refContig;
+    private final String sampleName;
+    private final LogWriter logWriter;
+    private final Checkpoint checkpoint;
+    private final SpillManager spill;
+    private final DownsamplingStats downsampling;
+    // Loci at which overlapping mates were counted once, and of these the loci that kept the base of the second mate
+    private long mergedBases = 0;
+    private long replacedBases = 0;
+    private final QCStats qc;
+    private final PileupCountWriter counts;
+    private final CountMatrixWriter matrix;
+    private final BaseCounts columnCounts = new BaseCounts();
+    // Decisions of known pileup signatures, null if the correction mode weights damage
+    private final DecisionCache decisions;
+    // Genotype likelihoods of the variant calls, null if none are written
+    private final GenotypeLikelihoods likelihoods;
+
+
+    /**
+     * Creates the base calling of one reconstruction
+     * @param config        Reconstruction parameters
+     * @param ref           Fasta record for reference file
+     * @param sampleName    Name of the sample in the variant calls
+     * @param logWriter     Log writer of the reconstruction
+     * @param checkpoint    Checkpoint of the reconstruction, null if checkpointing is disabled
+     * @param counts        Writer for the base counts of each position, null if counts are not saved
+     * @param spill         Spill manager bounding the variant calls in memory, null without memory budget
+     * @param matrix        Writer appending the corrected counts to a count matrix, null if they are not appended
+     */
+    BaseCalling(ReconstructionConfig config, Fasta ref, String sampleName, LogWriter logWriter, Checkpoint checkpoint,
+                PileupCountWriter counts, SpillManager spill, CountMatrixWriter matrix) {
+        this.config = config;
+        this.corMode = config.getCorMode();
+        this.ref = ref;
+        // Resolve the reference once; the hot loop only indexes into the sequence
+        this.refSequence = ref.getSequence();
+        this.refContig = ref.getHeader().split(" ")[0].replace(">", "");
+        this.sampleName = sampleName;
+        this.logWriter = logWriter;
+        this.checkpoint = checkpoint;
+        this.spill = spill;
+        this.downsampling = new DownsamplingStats(config.getMaxDepth());
+        this.qc = new QCStats(config.getMinCov());
+        this.counts = counts;
+        this.matrix = matrix;
+        this.decisions = corMode.needsDP() ? null : new DecisionCache();
+        this.likelihoods = config.getLikelihoodPhred() > 0 ? new GenotypeLikelihoods(config.getLikelihoodPhred()) : null;
+    }
 
 
     /**
      * Builds a consensus_sequence and makes variant calls of a set of reads
-     * @param reads      Bam file of reads
-     * @param minCov     Minimal coverage for consensus calling
-     * @param minFreq    Minimal frequency for consensus calling
-     * @param ref        Fasta record for reference file
-     * @param sampleName Name of sample
-     * @return StringBuilder with consensus sequence and List of VariantContext for variant calls
-     */
-    public static ReturnTuple consensusCalling(File reads, int minCov, double minFreq,
-                                               Fasta ref, String sampleName) throws IOException {
+     * @param reads               BAM or CRAM files of reads, merged while they are read
+     * @param consensusSequence   Empty buffer for the consensus sequence
+     * @return Consensus sequence and List of VariantContext for variant calls
+     */
+    ReturnTuple consensusCalling(List<File> reads, ConsensusBuffer consensusSequence) throws IOException {
         // Initialise output
-        StringBuilder consensusSequence = new StringBuilder();
         List<VariantContext> variantCalls = new ArrayList<>();
 
-        // Iterate over bam file
-        try (SamReader reader = SamReaderFactory.makeDefault().open(reads)) {
+        // Resumed runs start behind the last checkpointed interval
+        int start = getStart();
 
-            // Initialize SamLocusIterator
-            SamLocusIterator locusIterator = new SamLocusIterator(reader);
+        // Iterate over bam file
+        try (MergedReader reader = new MergedReader(reads, ref);
+             CloseableIterator<SAMRecord> records = reader.iterator(start, config.getThreads())) {
+
+            // Initialize pileup walker for the first reference sequence
+            // Damage of each read is looked up once in the table of its read group
+            ReadGroupDamage damage = corMode.needsDP() ? new ReadGroupDamage(config, reader.getFileHeader()) : null;
+            PileupWalker walker = new PileupWalker(records, reader.getFileHeader(), 0, config.getMaxDepth(),
+                    damage, config.isMergeOverlaps());
             // Iterate over each position
-            for (SamLocusIterator.LocusInfo locusInfo : locusIterator) {
-                // Check if bam file end is reached
-                if (!isEndBamFile(reads, locusInfo)) {break;}
+            walker.walk(start, config.getRegionEnd(), column -> {
+                // Count all reads of the position in one pass over the column
+                int referencePosition = column.getPosition();
+                downsampling.add(column);
+                columnCounts.count(column, damage != null, config.isBaseQuality());
+
+                // BASE CALLING //
+                consensusSequence.append(callCounts(column.getSequenceName(), referencePosition,
+                        getRefBase(referencePosition), columnCounts, variantCalls));
+                checkpoint(consensusSequence, variantCalls);
+            });
+            mergedBases += walker.getMergedBases();
+            replacedBases += walker.getReplacedBases();
+        }
 
-                // Get reference position and initialise list for mapping reads
-                int referencePosition = locusInfo.getPosition();
-                ArrayList<MappingPosition> mappingReads = new ArrayList<>();
+        return new ReturnTuple(consensusSequence, variantCalls);
+    }
 
-                // GET MAPPING READS //
-                for (SamLocusIterator.RecordAndOffset recordAndOffset : locusInfo.getRecordAndOffsets()) {
-                    SAMRecord record = recordAndOffset.getRecord();
-                    mappingReads.add(MappingPosition.createMappingPosition(record, referencePosition));
-                }
 
-                // BASE CALLING //
-                Character baseCall;
-                Map<Character, Double> cntBases = countBaseFrequencies(mappingReads);
-
-                // Check if coverage parameter is fulfilled
-                if (mappingReads.size() < minCov) {
-                    // Add variant object and make non-informative base call
-                    variantCalls.add(VariantCalling.makeVariantCall(cntBases, ref, referencePosition, sampleName));
-                    baseCall = 'N';
-                    // Create log entry if correction mode is 'no correction'
-                    if (cor_mode.equals(CorrectionMode.NO_COR)) {
-                        addLog(locusInfo, ref, mappingReads.size(), cntBases, cntBases, baseCall, -1.0);
-                    }
-                } else {
-                    // Determine if correction is necessary
-                    DamageType damPos = switch (cor_mode) {
-                        case NO_COR -> DamageType.NONE;
-                        case REFBASED_SIL ->
-                                DamageTypeGetter.getDamageTypeRefbased(mappingReads, ref.getSequence().charAt(referencePosition - 1));
-                        case REFFREE_SIL, REFFREE_WEI -> DamageTypeGetter.getDamageTypeReffree(mappingReads);
-                    };
-
-                    // Create new instance for corrected reads
-                    ArrayList<MappingPosition> mappingReadsCor;
-                    if (!damPos.needsCorrection()) {
-                        //If no correction is necessary, copy inital read set
-                        mappingReadsCor = ListCloner.cloneList(mappingReads);
-                    } else {
-                        if (!cor_mode.needsDP()) {
-                            //If correction mode is Refbased or Reffree Silencing, silence forward mapping Ts (reverse mapping As)
-                            mappingReadsCor = DamageCorrection.silenceDamage(mappingReads, damPos);
-                        } else {
-                            //If correction mode is Reffree Weighting, down-weight forward mapping Ts (reverse mapping As) / up-weight Cs (Gs)
-                            mappingReadsCor = DamageCorrection.weightDamage(mappingReads, damPos);
-                        }
-                    }
-
-                    // Count base occurrences after correction
-                    Map<Character, Double> cntBasesCor = countBaseFrequencies(mappingReadsCor);
-
-                    // Get base and count of most occurring base
-                    Character maxBase = getMostOccurringBase(cntBasesCor);
-                    Double maxCount = cntBasesCor.get(maxBase);
-
-                    // Determine frequency of most occurring base
-                    double weightSum = sumHashmapValues(cntBasesCor);
-                    double maxFreq = maxCount / weightSum;
-
-                    // Add variant object from corrected calls
-                    variantCalls.add(VariantCalling.makeVariantCall(cntBasesCor, ref, referencePosition, sampleName));
-
-                    // Check if minimal frequency parameter is fulfilled, if not put call to 'N'
-                    if (maxFreq < minFreq || weightSum < minCov) {
-                        maxBase = 'N';
-                        maxFreq = -1.0;
-                    }
-
-                    // If position was corrected, add info to log file
-                    if (damPos.needsCorrection() || cor_mode.equals(CorrectionMode.NO_COR)) {
-                        addLog(locusInfo, ref, mappingReads.size(), cntBases, cntBasesCor, maxBase, maxFreq);
-                    }
-
-                    // Add base call
-                    baseCall = maxBase;
-                }
-
-                // Add final base call to sequence
-                consensusSequence.append(baseCall);
+    /**
+     * Decides the damage type of a position, applies the correction to its counts and makes the base call.
+     * Silencing removes the forward mapping Ts (reverse mapping As), weighting replaces them by their
+     * damage-weighted sum and moves the damage to the Cs (Gs), exactly as on lists of MappingPositions.
+     * Without weighting, decisions are reused for positions with the same pileup signature.
+     * @param chrom         Name of the reference sequence
+     * @param refPos        1-based reference position
+     * @param refBase       Reference base at the position
+     * @param cnt           Aggregated reads of the position
+     * @param variantCalls  List the variant call is added to
+     * @return Final base call
+     */
+    Character callCounts(String chrom, int refPos, char refBase, BaseCounts cnt, List<VariantContext> variantCalls) {
+        if (decisions == null) {
+            return emitCall(chrom, refPos, refBase, cnt.depth, decideCounts(refBase, cnt), variantCalls);
+        }
+        long key = decisions.key(refBase, cnt);
+        CallDecision decision = key < 0 ? null : decisions.get(key);
+        if (decision == null) {
+            decision = decideCounts(refBase, cnt);
+            if (key >= 0) {
+                decisions.put(key, decision);
             }
         }
+        return emitCall(chrom, refPos, refBase, cnt.depth, decision, variantCalls);
+    }
 
+
+    /**
+     * Decides the damage type of a position from its aggregated reads and corrects its counts.
+     * Without base quality weighting, the result equals the list-based correction (getDamageTypeRefbased or
+     * getDamageTypeReffree, silenceDamage or weightDamage and countBaseFrequencies) on the reads of the position.
+     * @param refBase   Reference base at the position
+     * @param cnt       Aggregated reads of the position
+     * @return Decision for the position
+     */
+    CallDecision decideCounts(char refBase, BaseCounts cnt) {
+        int[] c = cnt.counts;
+        Map<Character, Double> cntBases = baseMap(c[BaseCounts.A], c[BaseCounts.C], c[BaseCounts.G], c[BaseCounts.T]);
+
+        // Skip the correction if the coverage parameter is not fulfilled
+        if (!needsCorrection(cnt.depth)) {
+            return decide(refBase, cnt.depth, cntBases, null, DamageType.NONE);
+        }
+
+        // Determine if correction is necessary
+        DamageType damPos = cnt.getDamageType(corMode, refBase);
+
+        // Count base occurrences after correction
+        Map<Character, Double> cntBasesCor;
+        double[] q = cnt.qualityCounts;
+        if (!damPos.needsCorrection()) {
+            cntBasesCor = config.isBaseQuality()
+                    ? baseMap(q[BaseCounts.A], q[BaseCounts.C], q[BaseCounts.G], q[BaseCounts.T])
+                    : new HashMap<>(cntBases);
+        } else if (config.isBaseQuality()) {
+            // Quality-weighted counts with down-weighted forward mapping Ts (reverse mapping As) and up-weighted Cs (Gs)
+            cntBasesCor = damPos.equals(DamageType.CT)
+                    ? baseMap(q[BaseCounts.A], q[BaseCounts.C] + cnt.upvoteC, q[BaseCounts.G], cnt.weightT)
+                    : baseMap(cnt.weightA, q[BaseCounts.C], q[BaseCounts.G] + cnt.upvoteG, q[BaseCounts.T]);
+        } else if (!corMode.needsDP()) {
+            // Silence forward mapping Ts (reverse mapping As)
+            cntBasesCor = damPos.equals(DamageType.CT)
+                    ? baseMap(c[BaseCounts.A], c[BaseCounts.C], c[BaseCounts.G], c[BaseCounts.T] - cnt.forwardT)
+                    : baseMap(c[BaseCounts.A] - cnt.reverseA, c[BaseCounts.C], c[BaseCounts.G], c[BaseCounts.T]);
+        } else {
+            // Down-weight forward mapping Ts (reverse mapping As) and up-weight Cs (Gs)
+            cntBasesCor = damPos.equals(DamageType.CT)
+                    ? baseMap(c[BaseCounts.A], c[BaseCounts.C] + cnt.upvoteC, c[BaseCounts.G], cnt.weightT)
+                    : baseMap(cnt.weightA, c[BaseCounts.C], c[BaseCounts.G] + cnt.upvoteG, c[BaseCounts.T]);
+        }
+
+        return decide(refBase, cnt.depth, cntBases, cntBasesCor, damPos);
+    }
+
+
+    /**
+     * Makes the base call for one position from its base counts and adds the variant call and log entry
+     * @param chrom         Name of the reference sequence
+     * @param refPos        1-based reference position
+     * @param refBase       Reference base at the position
+     * @param cov           Number of mapping reads at the position
+     * @param cntBases      Base counts before correction
+     * @param cntBasesCor   Base counts after correction, null if the coverage is below minCov and counts are not saved
+     * @param damPos        Damage type detected at the position
+     * @param variantCalls  List the variant call is added to
+     * @return Final base call
+     */
+    Character callBase(String chrom, int refPos, char refBase, int cov, Map<Character, Double> cntBases,
+                       Map<Character, Double> cntBasesCor, DamageType damPos, List<VariantContext> variantCalls) {
+        return emitCall(chrom, refPos, refBase, cov, decide(refBase, cov, cntBases, cntBasesCor, damPos),
+                variantCalls);
+    }
+
+
+    /**
+     * Makes the base call from the base counts of a position; the result does not depend on the position
+     * @param refBase       Reference base at the position
+     * @param cov           Number of mapping reads at the position
+     * @param cntBases      Base counts before correction
+     * @param cntBasesCor   Base counts after correction, null if the coverage is below minCov and counts are not saved
+     * @param damPos        Damage type detected at the position
+     * @return Decision for the position
+     */
+    private CallDecision decide(char refBase, int cov, Map<Character, Double> cntBases,
+                                Map<Character, Double> cntBasesCor, DamageType damPos) {
+        // Check if coverage parameter is fulfilled, if not make non-informative base call
+        if (cov < config.getMinCov()) {
+            return new CallDecision(cntBases, cntBasesCor, damPos, 'N', -1.0, alleles(cntBases, refBase));
+        }
+
+        // Get base and count of most occurring base
+        Character maxBase = getMostOccurringBase(cntBasesCor);
+        Double maxCount = cntBasesCor.get(maxBase);
+
+        // Determine frequency of most occurring base
+        double weightSum = sumHashmapValues(cntBasesCor);
+        double maxFreq = maxCount / weightSum;
+
+        // Quality weights only shift the frequencies, the coverage stays the number of A, C, G and T reads
+        double coverage = config.isBaseQuality() ? sumHashmapValues(cntBases) : weightSum;
+
+        // Check if minimal frequency parameter is fulfilled, if not put call to 'N'
+        if (maxFreq < config.getMinFreq() || coverage < config.getMinCov()) {
+            maxBase = 'N';
+            maxFreq = -1.0;
+        }
+
+        return new CallDecision(cntBases, cntBasesCor, damPos, maxBase, maxFreq, alleles(cntBasesCor, refBase));
+    }
+
+
+    /**
+     * @param counts    Base counts of the variant call
+     * @param refBase   Reference base at the position
+     * @return Alleles and allele counts of the variant call, with genotype likelihoods if configured
+     */
+    private AlleleCount alleles(Map<Character, Double> counts, char refBase) {
+        AlleleCount alleles = VariantCalling.getAlleleCounts(counts, refBase);
+        if (likelihoods != null) {
+            likelihoods.annotate(alleles, counts);
+        }
+        return alleles;
+    }
+
+
+    /**
+     * Adds the variant call, log entry, saved or appended counts and QC statistics of a decided position
+     * @param chrom         Name of the reference sequence
+     * @param refPos        1-based reference position
+     * @param refBase       Reference base at the position
+     * @param cov           Number of mapping reads at the position
+     * @param decision      Decision for the position
+     * @param variantCalls  List the variant call is added to
+     * @return Final base call
+     */
+    private Character emitCall(String chrom, int refPos, char refBase, int cov, CallDecision decision,
+                               List<VariantContext> variantCalls) {
+        Map<Character, Double> cntBases = decision.getCntBases();
+        Map<Character, Double> cntBasesCor = decision.getCntBasesCor();
+        DamageType damPos = decision.getDamPos();
+
+        // Save counts before applying any threshold
+        if (counts != null) {
+            try {
+                counts.add(refPos, cov, damPos, cntBases, cntBasesCor);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        if (matrix != null) {
+            try {
+                matrix.add(refPos, cov, cntBasesCor);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        // Add variant object from corrected calls
+        variantCalls.add(VariantCalling.makeVariantCall(decision.getAlleles(), refContig, refPos, sampleName));
+
+        // If position was corrected, add info to log file; below minCov only if correction mode is 'no correction'
+        if (cov < config.getMinCov()) {
+            if (corMode.equals(CorrectionMode.NO_COR)) {
+                logWriter.addLog(chrom, refPos, refBase, cov, cntBases, cntBases, 'N', -1.0);
+            }
+        } else if (damPos.needsCorrection() || corMode.equals(CorrectionMode.NO_COR)) {
+            logWriter.addLog(chrom, refPos, refBase, cov, cntBases, cntBasesCor, decision.getCall(),
+                    decision.getCallFreq());
+        }
+
+        qc.add(cov, cov < config.getMinCov() ? DamageType.NONE : damPos, decision.getCall());
+        return decision.getCall();
+    }
+
+
+    /**
+     * Makes the base calls of all positions of a pileup-count file
+     * @param reader              Pileup-count file written with the same correction mode
+     * @param consensusSequence   Empty buffer for the consensus sequence
+     * @return Consensus sequence and List of VariantContext for variant calls
+     * @throws IOException If the count file cannot be read
+     */
+    ReturnTuple recall(PileupCountReader reader, ConsensusBuffer consensusSequence) throws IOException {
+        List<VariantContext> variantCalls = new ArrayList<>();
+        while (reader.next()) {
+            int refPos = reader.getPosition();
+            consensusSequence.append(callBase(reader.getSequenceName(), refPos, getRefBase(refPos),
+                    reader.getCoverage(), reader.getCounts(), reader.getCorrectedCounts(), reader.getDamageType(),
+                    variantCalls));
+            spill(variantCalls);
+        }
         return new ReturnTuple(consensusSequence, variantCalls);
     }
 
 
+    /**
+     * @param cov   Number of mapping reads at a position
+     * @return True if the damage correction has to be applied at the position: if the coverage parameter is
+     * fulfilled or if the counts are saved for calling with other thresholds or appended to a count matrix
+     */
+    boolean needsCorrection(int cov) {
+        return cov >= config.getMinCov() || counts != null || matrix != null;
+    }
+
+
+    /**
+     * @return QC statistics of the positions called so far, of the current interval if checkpointing is enabled
+     */
+    QCStats getQC() {
+        return qc;
+    }
+
+
+    /**
+     * @return Decision cache of the positions called so far, null if the correction mode weights damage
+     */
+    DecisionCache getDecisions() {
+        return decisions;
+    }
+
+
+    /**
+     * @return Effect of downsampling on the base frequencies of the positions called so far
+     */
+    DownsamplingStats getDownsampling() {
+        return downsampling;
+    }
+
+
+    /**
+     * @return Lines summarising the merged overlaps of mates for the log file
+     */
+    List<String> overlapSummary() {
+        return List.of("\nOverlapping mates:",
+                "Merged bases:\t\t\t" + mergedBases,
+                "Second mate kept:\t\t" + replacedBases);
+    }
+
+
+    /**
+     * @param refPos    1-based reference position
+     * @return Reference base at the position
+     */
+    char getRefBase(int refPos) {
+        return refSequence.charAt(refPos - 1);
+    }
+
+
+    /**
+     * @return First 1-based position to call, the start of the shard or behind the last checkpointed interval
+     * of a resumed run
+     */
+    int getStart() {
+        return checkpoint == null ? config.getRegionStart() : checkpoint.getStart();
+    }
+
+
+    /**
+     * Passes the calls made so far to the spill manager and the checkpoint, if a memory budget or checkpointing
+     * is enabled
+     * @param consensusSequence Consensus sequence since the start of the current interval
+     * @param variantCalls      Variant calls since the start of the current interval
+     */
+    void checkpoint(ConsensusBuffer consensusSequence, List<VariantContext> variantCalls) {
+        spill(variantCalls);
+        if (checkpoint == null) {
+            return;
+        }
+        try {
+            checkpoint.positionCalled(consensusSequence, variantCalls, qc, downsampling);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+
+    /**
+     * Writes the variant calls in memory to disk once they reach the memory budget
+     * @param variantCalls  Variant calls held in memory
+     */
+    private void spill(List<VariantContext> variantCalls) {
+        if (spill == null) {
+            return;
+        }
+        try {
+            spill.positionCalled(variantCalls);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+
     /**
      * Counts the occurrence of each base in the mapping reads.
      *
@@ -162,6 +467,17 @@ public class BaseCalling {
     }
 
 
+    /**
+     * @return Base counts in the same map layout as countBaseFrequencies
+     */
+    static Map<Character, Double> baseMap(double a, double c, double g, double t) {
+        return new HashMap<>(Map.of('C', c,
+                'T', t,
+                'G', g,
+                'A', a));
+    }
+
+
     /**
      * Sums the values in a Hashmap
      *
@@ -184,45 +500,24 @@ public class BaseCalling {
      * @return Most occurring base in Map
      */
     public static Character getMostOccurringBase(Map<Character, Double> base_count_map) {
-        // Create reverse representation of base_count-map – excl. N
-        // Count as key; Base as value
-        Multimap<Double, Character> rev_map = HashMultimap.create();
+        // Get max count – excl. N
+        double max_count = Double.NEGATIVE_INFINITY;
         for (var entry : base_count_map.entrySet()) {
             if (entry.getKey() != 'N') {
-                rev_map.put(entry.getValue(), entry.getKey());
+                max_count = Math.max(max_count, entry.getValue());
             }
         }
 
-        // Get max count and all bases with max count
-        Double max_count = Collections.max(rev_map.entries(), Map.Entry.comparingByKey()).getKey();
-        Collection<Character> max_base = rev_map.get(max_count);
+        // Get all bases with max count
+        Set<Character> max_base = new HashSet<>(3);
+        for (var entry : base_count_map.entrySet()) {
+            if (entry.getKey() != 'N' && entry.getValue() == max_count) {
+                max_base.add(entry.getKey());
+            }
+        }
 
         // Return most occurring base
         return max_base.iterator().next();
     }
 
-
-    /**
-     * Checks for a given bam file and reference position if last BAM record is reached
-     * @param bamFile   File path to bam file
-     * @param refInfo   Current reference position
-     * @return  Boolean if last BAM record is reached
-     */
-    private static Boolean isEndBamFile(File bamFile, SamLocusIterator.LocusInfo refInfo) {
-        // Create reader for bam file
-        try (SamReader reader = SamReaderFactory.makeDefault().open(bamFile)) {
-            // Define interval that should be checked for mapping reads
-            QueryInterval queryInterval = new QueryInterval(refInfo.getSequenceIndex(),
-                    refInfo.getPosition(), refInfo.getSequenceLength());
-            QueryInterval[] queryIntervalArr = {queryInterval};
-            SAMRecordIterator iterator = reader.queryOverlapping(queryIntervalArr);
-
-            // Return whether there are mapping reads in interval
-            return iterator.hasNext();
-
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-    }
-
 }
\ No newline at end of file
@@ -4,7 +4,6 @@ import datastructure.DamageType;
 import datastructure.MappingPosition;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 import static utils.ListCloner.cloneList;
@@ -49,34 +48,31 @@ public class DamageCorrection {
      * and Cs are up-weight, or reverse mapping As are down-weight and Gs are up-weight.
      * @param mappingReads  List of mapping reads
      * @param damType       Specification of damage type (CT or AG)
+     * @param dp5           Damage profile of 5' end
+     * @param dp3           Damage profile of 3' end
      * @return  List of reads with down-weighted forward mapping Ts (reverse mapping As) and up-voted Cs (Gs)
      */
-    public static ArrayList<MappingPosition> weightDamage(ArrayList<MappingPosition> mappingReads, DamageType damType) {
+    public static ArrayList<MappingPosition> weightDamage(ArrayList<MappingPosition> mappingReads, DamageType damType,
+                                                          List<Double> dp5, List<Double> dp3) {
         // Initialise output list
         ArrayList<MappingPosition> weightedReads = cloneList(mappingReads);
 
         // Initialise counter for REF upvote
         Character compl_nuc = (damType.equals(DamageType.CT)) ? 'C' : 'G';
         MappingPosition upvote_counter = new MappingPosition(compl_nuc, 0.0);
+        double[] dp5Values = toArray(dp5);
+        double[] dp3Values = toArray(dp3);
 
         // Iterate over mapping positions
         for (MappingPosition mp : weightedReads) {
             if (damType.equals(DamageType.CT) && mp.base == 'T' && !mp.is_reverse) {
-                List<Double> dp = mapDamageToRead(mp.read_length, dorian.dp5, dorian.dp3);
-                double dam = dp.get(mp.read_idx);
+                double dam = getDamage(mp.read_length, mp.read_idx, false, dp5Values, dp3Values);
                 double cor_weight = 1 - dam;
                 mp.setWeight(cor_weight);
                 upvote_counter.addWeight(dam);
 
             } else if (damType.equals(DamageType.GA) && mp.base == 'A' && mp.is_reverse) {
-                // Reverse damage profiles to match reverse reads
-                List<Double> rev_dp5 = new ArrayList<>(List.copyOf(dorian.dp5));
-                Collections.reverse(rev_dp5);
-                List<Double> rev_dp3 = new ArrayList<>(List.copyOf(dorian.dp3));
-                Collections.reverse(rev_dp3);
-
-                List<Double> dp = mapDamageToRead(mp.read_length, rev_dp3, rev_dp5);
-                double dam = dp.get(mp.read_idx);
+                double dam = getDamage(mp.read_length, mp.read_idx, true, dp5Values, dp3Values);
                 double cor_weight = 1 - dam;
                 mp.setWeight(cor_weight);
                 upvote_counter.addWeight(dam);
@@ -92,31 +88,103 @@ public class DamageCorrection {
 
 
     /**
-     * Maps the given damage profiles to the read characters
+     * Looks up the damage of a read base in the damage profiles. Forward mapping reads get the 5' profile at
+     * their start and the 3' profile at their end, reverse mapping reads the reversed profiles in swapped order.
+     * Bases not covered by either profile have damage 0; if the profiles overlap in a short read,
+     * the 3' profile is truncated at its start.
      *
-     * @param read_length Read length
-     * @param dp5  Damage profile of 5' end
-     * @param dp3  Damage profile of 3' end
-     * @return Tuple with read string and mapped damage profile as list
+     * @param read_length   Read length
+     * @param read_idx      Index of base in read (0-based)
+     * @param is_reverse    True if read is reverse mapping
+     * @param dp5           Damage profile of 5' end
+     * @param dp3           Damage profile of 3' end
+     * @return Damage of the base
      */
-    private static List<Double> mapDamageToRead(int read_length, List<Double> dp5, List<Double> dp3) {
-        // Initialise damage list
-        List<Double> dam_list = new ArrayList<>(List.copyOf(dp5));
+    public static double getDamage(int read_length, int read_idx, boolean is_reverse,
+                                   List<Double> dp5, List<Double> dp3) {
+        return getDamage(read_length, read_idx, is_reverse, toArray(dp5), toArray(dp3));
+    }
+
+
+    /**
+     * Looks up the damage of a read base in damage profiles given as arrays, see above.
+     * Callers looking up many bases convert the profiles once with toArray.
+     *
+     * @param read_length   Read length
+     * @param read_idx      Index of base in read (0-based)
+     * @param is_reverse    True if read is reverse mapping
+     * @param dp5           Damage profile of 5' end
+     * @param dp3           Damage profile of 3' end
+     * @return Damage of the base
+     */
+    public static double getDamage(int read_length, int read_idx, boolean is_reverse, double[] dp5, double[] dp3) {
+        if (!is_reverse) {
+            return getDamage(read_length, read_idx, dp5, dp3, false);
+        }
+        // Reverse damage profiles to match reverse reads
+        return getDamage(read_length, read_idx, dp3, dp5, true);
+    }
+
+
+    /**
+     * @param profile   Damage profile
+     * @return Values of the profile as array, null if there is no profile
+     */
+    public static double[] toArray(List<Double> profile) {
+        if (profile == null) {
+            return null;
+        }
+        double[] values = new double[profile.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = profile.get(i);
+        }
+        return values;
+    }
+
+
+    /**
+     * Maps the given damage profiles to a read position
+     *
+     * @param read_length   Read length
+     * @param read_idx      Index of base in read (0-based)
+     * @param startProfile  Profile at the read start
+     * @param endProfile    Profile at the read end
+     * @param reversed      If true, both profiles are read from their end
+     * @return Damage of the base
+     */
+    private static double getDamage(int read_length, int read_idx, double[] startProfile,
+                                    double[] endProfile, boolean reversed) {
+        int startSize = startProfile.length;
+        int endSize = endProfile.length;
+
+        // Base is covered by the profile at the read start
+        if (read_idx < startSize) {
+            return profileAt(startProfile, read_idx, reversed);
+        }
 
         // Check if damage profiles overlap in read
-        int overlap = read_length - (dp5.size() + dp3.size());
+        int overlap = read_length - (startSize + endSize);
+        int end_idx = read_idx - startSize;
 
-        // If damage profiles overlap --> Merge damage profiles to read length
         if (overlap <= 0) {
-            dam_list.addAll(dp3.subList(Math.abs(overlap), dp3.size()));
-
-        } else {
-            // Else --> Fill uncovered nucleotides with damage = 0
-            dam_list.addAll(Collections.nCopies(Math.abs(overlap), 0.0));
-            dam_list.addAll(dp3);
+            // If damage profiles overlap --> Profile at read end starts after the overlapping entries
+            return profileAt(endProfile, end_idx - overlap, reversed);
+        } else if (end_idx < overlap) {
+            // Else --> Uncovered nucleotides have damage = 0
+            return 0.0;
         }
+        return profileAt(endProfile, end_idx - overlap, reversed);
+    }
 
-        return dam_list;
+
+    /**
+     * @param profile   Damage profile
+     * @param idx       Index in the (possibly reversed) profile
+     * @param reversed  If true, the profile is read from its end
+     * @return Damage at the index
+     */
+    private static double profileAt(double[] profile, int idx, boolean reversed) {
+        return reversed ? profile[profile.length - 1 - idx] : profile[idx];
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,232 @@
+package dorian;
+
+import datastructure.Fasta;
+import datastructure.MisincorporationCounts;
+import htsjdk.samtools.AlignmentBlock;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.util.CloseableIterator;
+import utils.MergedReader;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static datastructure.MisincorporationCounts.FIVE_PRIME;
+import static datastructure.MisincorporationCounts.THREE_PRIME;
+
+/**
+ * Estimates damage profiles of the 5' and 3' ends from a sample of mapped reads, replacing a separate
+ * mapDamage run. Profiles are written in the layout of mapDamage's misincorporation files.
+ *
+ * @author Meret Häusler
+ * @version 1.0
+ * @since 2024-09-12
+ */
+public class DamageEstimation {
+    public static final int PROFILE_LENGTH = 25;
+    public static final int SAMPLE_SIZE = 100000;
+    private static final int BATCH_SIZE = 4096;
+    private static final String[] SUBSTITUTIONS = {"C>T", "G>A", "A>C", "A>G", "A>T", "C>A",
+            "C>G", "G>C", "G>T", "T>A", "T>C", "T>G"};
+
+
+    /**
+     * Counts reference and read bases by distance to the read ends for the first reads mapping to the reference.
+     * Reads are processed in batches on a thread pool and the counts of all batches are merged.
+     * @param reads         BAM or CRAM files of reads, merged while they are read
+     * @param ref           Fasta record for reference file
+     * @param sampleSize    Maximal number of reads to count
+     * @param threads       Number of threads
+     * @return  Misincorporation counts of the sampled reads
+     */
+    public static MisincorporationCounts countMisincorporations(List<File> reads, Fasta ref, int sampleSize, int threads)
+            throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<MisincorporationCounts>> tasks = new ArrayList<>();
+
+        try (MergedReader reader = new MergedReader(reads, ref);
+             CloseableIterator<SAMRecord> records = reader.iterator()) {
+            String refSeq = ref.getSequence();
+            List<SAMRecord> batch = new ArrayList<>(BATCH_SIZE);
+            int sampled = 0;
+
+            // Collect reads of the first reference sequence in batches
+            while (records.hasNext() && sampled < sampleSize) {
+                SAMRecord record = records.next();
+                if (record.getReadUnmappedFlag() || record.getReferenceIndex() != 0
+                        || record.isSecondaryOrSupplementary() || record.getDuplicateReadFlag()) {
+                    continue;
+                }
+                batch.add(record);
+                sampled++;
+                if (batch.size() == BATCH_SIZE) {
+                    tasks.add(submitBatch(pool, batch, refSeq));
+                    batch = new ArrayList<>(BATCH_SIZE);
+                }
+            }
+            if (!batch.isEmpty()) {
+                tasks.add(submitBatch(pool, batch, refSeq));
+            }
+
+            // Merge counts of all batches
+            MisincorporationCounts counts = new MisincorporationCounts(PROFILE_LENGTH);
+            for (Future<MisincorporationCounts> task : tasks) {
+                counts.merge(task.get());
+            }
+            return counts;
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IOException("Damage profile estimation failed: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+
+    /**
+     * @param pool      Thread pool
+     * @param batch     Batch of reads
+     * @param refSeq    Reference sequence
+     * @return  Future of the counts of the batch
+     */
+    private static Future<MisincorporationCounts> submitBatch(ExecutorService pool, List<SAMRecord> batch, String refSeq) {
+        return pool.submit(() -> {
+            MisincorporationCounts counts = new MisincorporationCounts(PROFILE_LENGTH);
+            for (SAMRecord record : batch) {
+                countRead(record, refSeq, counts);
+            }
+            return counts;
+        });
+    }
+
+
+    /**
+     * Counts all aligned bases of a read in the orientation of the sequenced molecule. Reverse mapping reads
+     * are complemented and their distances counted from the other end. Distances refer to the full read
+     * including soft clips, matching the read indices used by DamageCorrection.
+     * @param record    Mapped read
+     * @param refSeq    Reference sequence
+     * @param counts    Counts to update
+     */
+    private static void countRead(SAMRecord record, String refSeq, MisincorporationCounts counts) {
+        byte[] bases = record.getReadBases();
+        int readLength = bases.length;
+        boolean reverse = record.getReadNegativeStrandFlag();
+        int length = counts.getLength();
+
+        for (AlignmentBlock block : record.getAlignmentBlocks()) {
+            for (int i = 0; i < block.getLength(); i++) {
+                int readIdx = block.getReadStart() - 1 + i;
+                int refPos = block.getReferenceStart() + i;
+                if (refPos > refSeq.length()) {
+                    break;
+                }
+                int refBase = baseIndex(refSeq.charAt(refPos - 1), reverse);
+                int readBase = baseIndex((char) bases[readIdx], reverse);
+                if (refBase < 0 || readBase < 0) {
+                    continue;
+                }
+
+                // Distances to the 5' and 3' ends of the molecule
+                int fromFivePrime = reverse ? readLength - 1 - readIdx : readIdx;
+                int fromThreePrime = readLength - 1 - fromFivePrime;
+                if (fromFivePrime < length) {
+                    counts.add(FIVE_PRIME, fromFivePrime, refBase, readBase);
+                }
+                if (fromThreePrime < length) {
+                    counts.add(THREE_PRIME, fromThreePrime, refBase, readBase);
+                }
+            }
+        }
+        counts.addRead();
+    }
+
+
+    /**
+     * @param base          Nucleotide
+     * @param complement    If true, the index of the complementary base is returned
+     * @return  Index of the base in MisincorporationCounts.BASES, -1 for other characters
+     */
+    private static int baseIndex(char base, boolean complement) {
+        int idx = MisincorporationCounts.BASES.indexOf(Character.toUpperCase(base));
+        if (idx < 0) {
+            return -1;
+        }
+        // A<->T and C<->G are at mirrored indices
+        return complement ? 3 - idx : idx;
+    }
+
+
+    /**
+     * Writes a damage profile in the tab-separated layout of mapDamage's misincorporation files.
+     * The 5' profile is listed from the read end inwards, the 3' profile towards the read end.
+     * Indel columns are not estimated and written as 0.
+     * @param counts    Misincorporation counts
+     * @param end       FIVE_PRIME or THREE_PRIME
+     * @param file      Output file
+     */
+    public static void writeProfile(MisincorporationCounts counts, int end, Path file) throws IOException {
+        try (BufferedWriter bw = Files.newBufferedWriter(file)) {
+            bw.write("Pos\t" + String.join("\t", SUBSTITUTIONS) + "\t->ACGT\tACGT>-");
+            bw.newLine();
+            for (int row = 0; row < counts.getLength(); row++) {
+                int distance = distanceAtRow(counts, end, row);
+                StringBuilder line = new StringBuilder(Integer.toString(distance));
+                for (String substitution : SUBSTITUTIONS) {
+                    line.append('\t').append(format(counts.getFrequency(end, distance,
+                            substitution.charAt(0), substitution.charAt(2))));
+                }
+                line.append('\t').append(format(0.0)).append('\t').append(format(0.0));
+                bw.write(line.toString());
+                bw.newLine();
+            }
+        }
+    }
+
+
+    /**
+     * Returns the C>T column of a damage profile in file order, rounded as written by writeProfile,
+     * so that estimated profiles give the same results as reading the written files with -dp5/-dp3
+     * @param counts    Misincorporation counts
+     * @param end       FIVE_PRIME or THREE_PRIME
+     * @return  Damage profile as list of doubles
+     */
+    public static List<Double> getProfile(MisincorporationCounts counts, int end) {
+        List<Double> profile = new ArrayList<>();
+        for (int row = 0; row < counts.getLength(); row++) {
+            int distance = distanceAtRow(counts, end, row);
+            profile.add(Double.valueOf(format(counts.getFrequency(end, distance, 'C', 'T'))));
+        }
+        return profile;
+    }
+
+
+    /**
+     * @return  Distance to the read end listed in the given row of a profile file
+     */
+    private static int distanceAtRow(MisincorporationCounts counts, int end, int row) {
+        return end == FIVE_PRIME ? row : counts.getLength() - 1 - row;
+    }
+
+
+    /**
+     * @param value Frequency
+     * @return  Frequency with six decimals
+     */
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.6f", value);
+    }
+
+}
@@ -0,0 +1,453 @@
+package dorian;
+
+import cli.CLIParser;
+import datastructure.ConsensusStorage;
+import datastructure.CorrectionMode;
+import datastructure.Fasta;
+import datastructure.MisincorporationCounts;
+import datastructure.ReconstructionConfig;
+import org.apache.commons.cli.*;
+import org.apache.commons.io.FilenameUtils;
+import utils.AlignmentIO;
+import utils.FastaIO;
+import utils.FileCache;
+import utils.LogWriter;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static dorian.dorian.logger;
+
+/**
+ * Long-running server mode. The JVM stays warm between samples, references and damage profiles are parsed
+ * once per path and checksum (the most recently used ones are kept), and jobs are taken from a spool directory
+ * and run on a bounded pool.
+ * <p>
+ * A job is a file &lt;name&gt;.job with one option per line in the form &lt;long option&gt;=&lt;value&gt;
+ * (bam, ref-file, out, mode, coverage, minfreq, damageprofile5, damageprofile3, estimate-dp, base-quality,
+ * readgroup-dp, threads, streaming, max-depth, merge-overlaps, save-counts, count-matrix, genotype-likelihoods,
+ * consensus-storage, max-memory in MB); several BAM files are given as comma-separated bam.
+ * While it runs, the job file is renamed to &lt;name&gt;.running, afterwards to &lt;name&gt;.done or
+ * &lt;name&gt;.failed. &lt;name&gt;.status holds the state of the job and the server running it (host:pid).
+ * Several servers may share a spool directory; on startup, a server only queues the running jobs of servers on
+ * its host that are no longer alive again. Creating a file named STOP in the spool directory shuts the server
+ * down after the running jobs have finished.
+ *
+ * @author Meret Häusler
+ * @version 1.0
+ * @since 2024-09-23
+ */
+public class DorianServer {
+    private static final String JOB = ".job";
+    private static final String RUNNING = ".running";
+    private static final String DONE = ".done";
+    private static final String FAILED = ".failed";
+    private static final String STATUS = ".status";
+    private static final String STOP = "STOP";
+    private static final long POLL_INTERVAL = 500;
+
+    private final static String[] HELP_FLAG = new String[]{"h", "help", "Print help message"};
+    private final static String[] SPOOL_DIR = new String[]{"d", "spool", "Spool directory that is polled for *.job files"};
+    private final static String[] JOBS_NUM = new String[]{"j", "jobs", "Number of jobs run at the same time (default: 1)"};
+    private final static String[] CACHED_FILES = new String[]{"cf", "cached-files", "Number of references and of damage profiles kept parsed in memory (default: 16)"};
+
+    private final Path spool;
+    private final String host;
+    private final String server;
+    private final ExecutorService pool;
+    private final Semaphore slots;
+    private final FileCache<Fasta> references;
+    private final FileCache<List<Double>> profiles;
+
+
+    /**
+     * @param spool         Spool directory
+     * @param jobs          Number of jobs run at the same time
+     * @param cachedFiles   Number of references and of damage profiles kept parsed in memory
+     */
+    public DorianServer(Path spool, int jobs, int cachedFiles) {
+        this.spool = spool;
+        this.host = hostName();
+        this.server = host + ":" + ProcessHandle.current().pid();
+        this.pool = Executors.newFixedThreadPool(jobs);
+        this.slots = new Semaphore(jobs);
+        this.references = new FileCache<>(file -> FastaIO.readFasta(file.toString()).get(0), cachedFiles);
+        this.profiles = new FileCache<>(CLIParser::readDamageProfile, cachedFiles);
+    }
+
+
+    /**
+     * Starts the server
+     * @param args Server options
+     */
+    public static void main(String[] args) throws Exception {
+        Options options = new Options();
+        options.addOption(Option.builder().argName("DIR").option(SPOOL_DIR[0]).longOpt(SPOOL_DIR[1])
+                .hasArg().required(false).desc(SPOOL_DIR[2]).build());
+        options.addOption(Option.builder().argName("INT").option(JOBS_NUM[0]).longOpt(JOBS_NUM[1])
+                .hasArg().required(false).desc(JOBS_NUM[2]).build());
+        options.addOption(Option.builder().argName("INT").option(CACHED_FILES[0]).longOpt(CACHED_FILES[1])
+                .hasArg().required(false).desc(CACHED_FILES[2]).build());
+        options.addOption(Option.builder().option(HELP_FLAG[0]).longOpt(HELP_FLAG[1]).desc(HELP_FLAG[2]).build());
+
+        Path spool = null;
+        int jobs = 1;
+        int cachedFiles = 16;
+        try {
+            CommandLine cmd = new DefaultParser().parse(options, args);
+            if (cmd.hasOption(HELP_FLAG[0]) || !cmd.hasOption(SPOOL_DIR[1])) {
+                new HelpFormatter().printHelp("java -jar dorian.jar serve [options]\n", options);
+                System.exit(cmd.hasOption(HELP_FLAG[0]) ? 0 : -1);
+            }
+            spool = Path.of(cmd.getOptionValue(SPOOL_DIR[1]));
+            if (cmd.hasOption(JOBS_NUM[1])) {
+                jobs = Integer.parseInt(cmd.getOptionValue(JOBS_NUM[1]));
+                if (jobs < 1) {
+                    throw new Exception("Jobs parameter must be a positive integer. Given: " + jobs);
+                }
+            }
+            if (cmd.hasOption(CACHED_FILES[1])) {
+                cachedFiles = Integer.parseInt(cmd.getOptionValue(CACHED_FILES[1]));
+                if (cachedFiles < 1) {
+                    throw new Exception("Cached files parameter must be a positive integer. Given: " + cachedFiles);
+                }
+            }
+        } catch (Exception e) {
+            logger.error("Parsing failed. Reason: " + e.getMessage());
+            System.exit(-1);
+        }
+
+        Files.createDirectories(spool);
+        logger.info("DORIAN server polling " + spool + " (" + jobs + " parallel jobs)");
+        new DorianServer(spool, jobs, cachedFiles).serve();
+        logger.info("DORIAN server stopped.");
+    }
+
+
+    /**
+     * Polls the spool directory and runs jobs until a STOP file appears
+     * @throws IOException          If the spool directory cannot be read
+     * @throws InterruptedException If the server is interrupted
+     */
+    public void serve() throws IOException, InterruptedException {
+        // Jobs that were running when a previous server on this host stopped are queued again
+        for (Path running : list(RUNNING)) {
+            String name = jobName(running, RUNNING);
+            String owner = readStatus(name).getProperty("server");
+            if (owner != null && owner.startsWith(host + ":") && !isAlive(owner)) {
+                Files.move(running, withExtension(running, RUNNING, JOB), StandardCopyOption.ATOMIC_MOVE);
+                logger.info("Job " + name + " of stopped server " + owner + " queued again");
+            } else if (owner == null || !owner.startsWith(host + ":")) {
+                logger.warn("Job " + name + " is running on " + (owner == null ? "an unknown server" : owner)
+                        + "; rename it to " + name + JOB + " to run it again if that server stopped.");
+            }
+        }
+
+        try {
+            while (!Files.exists(spool.resolve(STOP))) {
+                for (Path job : list(JOB)) {
+                    String name = jobName(job, JOB);
+                    if (!slots.tryAcquire()) {
+                        // Report waiting jobs once
+                        if (!Files.exists(spool.resolve(name + STATUS))) {
+                            writeStatus(name, "state=QUEUED");
+                        }
+                        continue;
+                    }
+
+                    // Claim job, another server on the same spool directory may have been faster
+                    Path running = withExtension(job, JOB, RUNNING);
+                    try {
+                        Files.move(job, running, StandardCopyOption.ATOMIC_MOVE);
+                    } catch (IOException e) {
+                        slots.release();
+                        continue;
+                    }
+                    // Record this server as owner right away, so a starting server does not queue the job again
+                    Instant start = Instant.now();
+                    try {
+                        writeStatus(name, "state=RUNNING\nstarted=" + start);
+                    } catch (IOException e) {
+                        logger.error("Status of job " + name + " could not be written: " + e.getMessage());
+                    }
+                    pool.submit(() -> {
+                        try {
+                            runJob(name, running, start);
+                        } finally {
+                            slots.release();
+                        }
+                    });
+                }
+                Thread.sleep(POLL_INTERVAL);
+            }
+        } finally {
+            // Let running jobs finish
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        }
+        Files.deleteIfExists(spool.resolve(STOP));
+    }
+
+
+    /**
+     * Runs a claimed job and reports its status. Errors such as an OutOfMemoryError fail the job as well, so it
+     * does not stay running.
+     * @param name      Job name
+     * @param jobFile   Claimed job file
+     * @param start     Start of the job
+     */
+    private void runJob(String name, Path jobFile, Instant start) {
+        try {
+            String fasta = reconstruct(jobFile);
+            Files.move(jobFile, withExtension(jobFile, RUNNING, DONE), StandardCopyOption.REPLACE_EXISTING);
+            String seconds = seconds(start);
+            writeStatus(name, "state=DONE\nstarted=" + start + "\nseconds=" + seconds + "\nfasta=" + fasta);
+            logger.info("Job " + name + " finished in " + seconds + " s");
+        } catch (Throwable e) {
+            String message = e.getMessage() == null ? e.toString() : e.getMessage();
+            try {
+                Files.move(jobFile, withExtension(jobFile, RUNNING, FAILED), StandardCopyOption.REPLACE_EXISTING);
+                writeStatus(name, "state=FAILED\nstarted=" + start + "\nseconds=" + seconds(start)
+                        + "\nmessage=" + message.replace('\n', ' '));
+            } catch (IOException statusError) {
+                logger.error("Status of job " + name + " could not be written: " + statusError.getMessage());
+            }
+            logger.error("Job " + name + " failed: " + message);
+        }
+    }
+
+
+    /**
+     * Parses a job file and runs the reconstruction. Log and ROI files are written next to the results.
+     * @param jobFile Job file
+     * @return Path of the reconstructed Fasta file
+     * @throws Exception If the job is invalid or the reconstruction fails
+     */
+    private String reconstruct(Path jobFile) throws Exception {
+        Properties job = new Properties();
+        try (Reader reader = Files.newBufferedReader(jobFile)) {
+            job.load(reader);
+        }
+
+        // Input files, cached references and profiles
+        // Several BAM files are separated by commas and merged while they are read
+        String[] bamFiles = required(job, "bam").split(",");
+        List<File> reads = AlignmentIO.resolveFiles(bamFiles);
+        Fasta ref = references.get(Path.of(required(job, "ref-file")));
+        Path outPath = Path.of(required(job, "out"));
+        Files.createDirectories(outPath);
+        String sampleName = FilenameUtils.removeExtension(new File(bamFiles[0]).getName());
+
+        // Parameters
+        int mode = Integer.parseInt(required(job, "mode"));
+        if (mode < 1 || mode > CorrectionMode.values().length) {
+            throw new IllegalArgumentException("Specification for correction mode not available. Given: " + mode);
+        }
+        CorrectionMode corMode = CorrectionMode.values()[mode - 1];
+        int threads = Integer.parseInt(job.getProperty("threads", "1"));
+        List<Double> dp5 = null;
+        List<Double> dp3 = null;
+        if (corMode.needsDP() && Boolean.parseBoolean(job.getProperty("estimate-dp", "false"))) {
+            MisincorporationCounts misincorporations = DamageEstimation.countMisincorporations(reads, ref,
+                    DamageEstimation.SAMPLE_SIZE, threads);
+            DamageEstimation.writeProfile(misincorporations, MisincorporationCounts.FIVE_PRIME,
+                    outPath.resolve(sampleName + "_5p_freq_misincorporations.txt"));
+            DamageEstimation.writeProfile(misincorporations, MisincorporationCounts.THREE_PRIME,
+                    outPath.resolve(sampleName + "_3p_freq_misincorporations.txt"));
+            dp5 = DamageEstimation.getProfile(misincorporations, MisincorporationCounts.FIVE_PRIME);
+            dp3 = DamageEstimation.getProfile(misincorporations, MisincorporationCounts.THREE_PRIME);
+        } else if (corMode.needsDP()) {
+            dp5 = profiles.get(Path.of(required(job, "damageprofile5")));
+            dp3 = profiles.get(Path.of(required(job, "damageprofile3")));
+        }
+
+        ReconstructionConfig.Builder config = ReconstructionConfig.builder()
+                .corMode(corMode)
+                .minCov(Integer.parseInt(required(job, "coverage")))
+                .minFreq(Double.parseDouble(required(job, "minfreq")))
+                .damageProfiles(dp5, dp3)
+                .baseQuality(Boolean.parseBoolean(job.getProperty("base-quality", "false")))
+                .threads(threads)
+                .streaming(Boolean.parseBoolean(job.getProperty("streaming", "false")))
+                .maxDepth(Integer.parseInt(job.getProperty("max-depth", "0")))
+                .mergeOverlaps(Boolean.parseBoolean(job.getProperty("merge-overlaps", "false")))
+                .saveCounts(Boolean.parseBoolean(job.getProperty("save-counts", "false")))
+                .countMatrix(job.getProperty("count-matrix") == null ? null : Path.of(job.getProperty("count-matrix")))
+                .genotypeLikelihoods(Integer.parseInt(job.getProperty("genotype-likelihoods", "0")))
+                .consensusStorage(ConsensusStorage.fromName(job.getProperty("consensus-storage", "heap")))
+                .maxMemory(Long.parseLong(job.getProperty("max-memory", "0")) * 1024 * 1024);
+        if (corMode.needsDP() && job.getProperty("readgroup-dp") != null) {
+            for (Map.Entry<String, Path[]> rg
+                    : CLIParser.readReadGroupProfiles(Path.of(job.getProperty("readgroup-dp"))).entrySet()) {
+                config.readGroupProfiles(rg.getKey(), profiles.get(rg.getValue()[0]), profiles.get(rg.getValue()[1]));
+            }
+        }
+        ReconstructionEngine engine = new ReconstructionEngine(config.build());
+        String outputName = engine.getOutputName(sampleName);
+
+        // Write log and ROI file of the job
+        try (BufferedWriter log = Files.newBufferedWriter(outPath.resolve(outputName + ".log"));
+             BufferedWriter roi = Files.newBufferedWriter(outPath.resolve(outputName + ".bed"))) {
+            Consumer<String> logLine = lineWriter(log);
+            Consumer<String> roiLine = lineWriter(roi);
+            logLine.accept("DORIAN – REPORT\nJob: " + jobName(jobFile, RUNNING) + "\n");
+            job.stringPropertyNames().stream().sorted()
+                    .forEach(key -> logLine.accept(key + "\t" + job.getProperty(key)));
+            LogWriter.logHeader(corMode).forEach(logLine);
+            LogWriter.roiHeader().forEach(roiLine);
+
+            engine.reconstructToFiles(reads, ref, sampleName, outPath, logLine, roiLine);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (corMode.equals(CorrectionMode.NO_COR)) {
+            Files.delete(outPath.resolve(outputName + ".bed"));
+        }
+        return outPath.resolve(outputName + ".fasta").toString();
+    }
+
+
+    /**
+     * @param writer Writer of a log file
+     * @return Consumer writing each line to the writer
+     */
+    private static Consumer<String> lineWriter(BufferedWriter writer) {
+        return line -> {
+            try {
+                writer.write(line);
+                writer.newLine();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+    }
+
+
+    /**
+     * @param job   Job options
+     * @param key   Long option name
+     * @return Value of the option
+     */
+    private static String required(Properties job, String key) {
+        String value = job.getProperty(key);
+        if (value == null || value.isBlank()) {
+            throw new IllegalArgumentException("Job option " + key + " is missing.");
+        }
+        return value.strip();
+    }
+
+
+    /**
+     * Replaces the status file of a job
+     * @param name      Job name
+     * @param status    Status lines
+     */
+    private void writeStatus(String name, String status) throws IOException {
+        Path tmp = spool.resolve(name + STATUS + ".tmp");
+        Files.writeString(tmp, "job=" + name + "\nserver=" + server + "\n" + status + "\n");
+        Files.move(tmp, spool.resolve(name + STATUS), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+
+    /**
+     * @param name  Job name
+     * @return Status of the job, empty if there is none
+     * @throws IOException If the status file cannot be read
+     */
+    private Properties readStatus(String name) throws IOException {
+        Properties status = new Properties();
+        Path file = spool.resolve(name + STATUS);
+        if (Files.exists(file)) {
+            try (Reader reader = Files.newBufferedReader(file)) {
+                status.load(reader);
+            }
+        }
+        return status;
+    }
+
+
+    /**
+     * @param owner Server on this host as host:pid
+     * @return True if the server process is still running
+     */
+    private static boolean isAlive(String owner) {
+        long pid = Long.parseLong(owner.substring(owner.lastIndexOf(':') + 1));
+        // A new server cannot be running jobs yet, a matching pid belongs to a stopped one
+        return pid != ProcessHandle.current().pid()
+                && ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false);
+    }
+
+
+    /**
+     * @return Name of this host, localhost if it cannot be resolved
+     */
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "localhost";
+        }
+    }
+
+
+    /**
+     * @param extension File extension
+     * @return Files of the spool directory with the extension, oldest first
+     */
+    private List<Path> list(String extension) throws IOException {
+        try (Stream<Path> files = Files.list(spool)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(extension))
+                    .sorted((a, b) -> Long.compare(a.toFile().lastModified(), b.toFile().lastModified()))
+                    .toList();
+        }
+    }
+
+
+    /**
+     * @param file      Job, running or status file
+     * @param extension Extension of the file
+     * @return Job name
+     */
+    private static String jobName(Path file, String extension) {
+        String fileName = file.getFileName().toString();
+        return fileName.substring(0, fileName.length() - extension.length());
+    }
+
+
+    /**
+     * @return Sibling of the file with the extension replaced
+     */
+    private static Path withExtension(Path file, String from, String to) {
+        return file.resolveSibling(jobName(file, from) + to);
+    }
+
+
+    /**
+     * @param start Start of a job
+     * @return Seconds since the start
+     */
+    private static String seconds(Instant start) {
+        return String.format(Locale.ROOT, "%.3f", Duration.between(start, Instant.now()).toMillis() / 1000.0);
+    }
+}
@@ -0,0 +1,113 @@
+package dorian;
+
+import datastructure.AlleleCount;
+import htsjdk.variant.variantcontext.Allele;
+
+import java.util.Map;
+
+/**
+ * Haploid genotype likelihoods of a position from its corrected base counts. Every read supports the base it shows
+ * with probability 1 - e and each other base with e / 3, where e is the base error rate of a phred score. Weighted
+ * counts contribute their weight, so silenced and down-weighted damage candidates count as little as in the
+ * base call. The log10 probabilities of all phred scores are precomputed, so a position costs one multiply-add
+ * per base.
+ *
+ * @author Meret Häusler
+ * @version 1.0
+ * @since 2024-10-08
+ */
+public class GenotypeLikelihoods {
+    public static final int MAX_PHRED = 93;
+    public static final int MAX_GQ = 99;
+
+    // log10(1 - e) and log10(e / 3) by phred score
+    private static final double[] LOG10_MATCH = new double[MAX_PHRED + 1];
+    private static final double[] LOG10_MISMATCH = new double[MAX_PHRED + 1];
+    private static final char[] BASES = {'A', 'C', 'G', 'T'};
+
+    static {
+        for (int q = 1; q <= MAX_PHRED; q++) {
+            double error = Math.pow(10, -q / 10.0);
+            LOG10_MATCH[q] = Math.log10(1 - error);
+            LOG10_MISMATCH[q] = Math.log10(error / 3);
+        }
+    }
+
+    private final double match;
+    private final double mismatch;
+
+
+    /**
+     * @param phred Phred score of the base error rate, 1 to MAX_PHRED
+     */
+    public GenotypeLikelihoods(int phred) {
+        if (phred < 1 || phred > MAX_PHRED) {
+            throw new IllegalArgumentException("Phred score must be between 1 and " + MAX_PHRED + ". Given: " + phred);
+        }
+        this.match = LOG10_MATCH[phred];
+        this.mismatch = LOG10_MISMATCH[phred];
+    }
+
+
+    /**
+     * Adds the log10 likelihoods of the alleles and the genotype quality to the alleles of a variant call.
+     * The genotype quality compares the two most likely of all four bases, so it also accounts for bases that
+     * are too rare to be listed as allele.
+     * @param alleles   Alleles of the variant call
+     * @param counts    Base counts the alleles were taken from
+     */
+    public void annotate(AlleleCount alleles, Map<Character, Double> counts) {
+        double total = 0.0;
+        for (char base : BASES) {
+            total += counts.getOrDefault(base, 0.0);
+        }
+
+        // log10 L(base) = n(base) * log10(1 - e) + (total - n(base)) * log10(e / 3)
+        double best = Double.NEGATIVE_INFINITY;
+        double second = Double.NEGATIVE_INFINITY;
+        for (char base : BASES) {
+            double gl = likelihood(counts.getOrDefault(base, 0.0), total);
+            if (gl > best) {
+                second = best;
+                best = gl;
+            } else if (gl > second) {
+                second = gl;
+            }
+        }
+
+        double[] likelihoods = new double[alleles.getAlleles().size()];
+        for (int i = 0; i < likelihoods.length; i++) {
+            Allele allele = alleles.getAlleles().get(i);
+            likelihoods[i] = likelihood(counts.getOrDefault((char) allele.getBases()[0], 0.0), total);
+        }
+        alleles.setLikelihoods(likelihoods);
+        alleles.setQuality((int) Math.min(MAX_GQ, Math.round(-10 * (second - best))));
+    }
+
+
+    /**
+     * @param likelihoods   log10 likelihoods of the alleles
+     * @return Phred-scaled likelihoods, normalised to 0 for the most likely allele
+     */
+    public static int[] toPL(double[] likelihoods) {
+        double best = Double.NEGATIVE_INFINITY;
+        for (double gl : likelihoods) {
+            best = Math.max(best, gl);
+        }
+        int[] pl = new int[likelihoods.length];
+        for (int i = 0; i < pl.length; i++) {
+            pl[i] = (int) Math.round(-10 * (likelihoods[i] - best));
+        }
+        return pl;
+    }
+
+
+    /**
+     * @param count Weighted count of a base
+     * @param total Weighted count of all bases
+     * @return log10 likelihood of the base as haploid genotype
+     */
+    private double likelihood(double count, double total) {
+        return count * match + (total - count) * mismatch;
+    }
+}
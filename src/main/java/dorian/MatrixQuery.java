@@ -0,0 +1,118 @@
+package dorian;
+
+import datastructure.CountMatrixSlice;
+import org.apache.commons.cli.*;
+import utils.CountMatrix;
+
+import java.io.BufferedWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.DecimalFormat;
+import java.util.Arrays;
+import java.util.List;
+
+import static dorian.dorian.logger;
+
+/**
+ * Count matrix mode. Writes the coverage and corrected base counts of some samples of a count matrix in a region
+ * to a TSV file with one line per position and one column per sample (COV:A,C,G,T). Only the chunks of the
+ * requested samples in the blocks overlapping the region are read.
+ *
+ * @author Meret Häusler
+ * @version 1.0
+ * @since 2024-10-14
+ */
+public class MatrixQuery {
+    private final static String[] HELP_FLAG = new String[]{"h", "help", "Print help message"};
+    private final static String[] MATRIX_INPUT = new String[]{"i", "matrix", "Count matrix written with --count-matrix"};
+    private final static String[] REGION = new String[]{"reg", "region", "Region START-END or SEQUENCE:START-END, 1-based and inclusive (default: whole sequence)"};
+    private final static String[] SAMPLES = new String[]{"sn", "samples", "Samples to report, as named in the matrix (default: all samples)"};
+    private final static String[] OUT_FILE = new String[]{"o", "out", "Output TSV file"};
+    private final static String[] LIST_FLAG = new String[]{"l", "list", "Only print the reference sequence and samples of the matrix"};
+
+
+    /**
+     * Runs the query
+     * @param args Query options
+     */
+    public static void main(String[] args) throws Exception {
+        Options options = new Options();
+        options.addOption(Option.builder().argName("DIR").option(MATRIX_INPUT[0]).longOpt(MATRIX_INPUT[1])
+                .hasArg().required(false).desc(MATRIX_INPUT[2]).build());
+        options.addOption(Option.builder().argName("REGION").option(REGION[0]).longOpt(REGION[1])
+                .hasArg().required(false).desc(REGION[2]).build());
+        options.addOption(Option.builder().argName("SAMPLE").option(SAMPLES[0]).longOpt(SAMPLES[1])
+                .hasArgs().valueSeparator(',').required(false).desc(SAMPLES[2]).build());
+        options.addOption(Option.builder().argName("FILE").option(OUT_FILE[0]).longOpt(OUT_FILE[1])
+                .hasArg().required(false).desc(OUT_FILE[2]).build());
+        options.addOption(Option.builder().option(LIST_FLAG[0]).longOpt(LIST_FLAG[1]).desc(LIST_FLAG[2]).build());
+        options.addOption(Option.builder().option(HELP_FLAG[0]).longOpt(HELP_FLAG[1]).desc(HELP_FLAG[2]).build());
+
+        // PARSING CLI //
+        CountMatrix matrix = null;
+        int start = 0;
+        int end = 0;
+        List<String> samples = null;
+        Path out_file = null;
+        try {
+            CommandLine cmd = new DefaultParser().parse(options, args);
+            boolean list = cmd.hasOption(LIST_FLAG[1]);
+            if (cmd.hasOption(HELP_FLAG[0]) || !cmd.hasOption(MATRIX_INPUT[1])
+                    || (!list && !cmd.hasOption(OUT_FILE[1]))) {
+                new HelpFormatter().printHelp("java -jar dorian.jar matrix [options]\n", options);
+                System.exit(cmd.hasOption(HELP_FLAG[0]) ? 0 : -1);
+            }
+            matrix = CountMatrix.open(Path.of(cmd.getOptionValue(MATRIX_INPUT[1])));
+            if (list) {
+                logger.info(matrix.getSequenceName() + " (" + matrix.getLength() + " positions), "
+                        + matrix.getSamples().size() + " samples: " + String.join(", ", matrix.getSamples()));
+                return;
+            }
+
+            start = 1;
+            end = matrix.getLength();
+            if (cmd.hasOption(REGION[1])) {
+                String region = cmd.getOptionValue(REGION[1]);
+                int colon = region.lastIndexOf(':');
+                if (colon >= 0 && !region.substring(0, colon).equals(matrix.getSequenceName())) {
+                    throw new IllegalArgumentException("The matrix holds counts of " + matrix.getSequenceName()
+                            + ", not of " + region.substring(0, colon) + ".");
+                }
+                String[] bounds = region.substring(colon + 1).split("-");
+                start = Integer.parseInt(bounds[0]);
+                end = Integer.parseInt(bounds[1]);
+            }
+            samples = cmd.hasOption(SAMPLES[1])
+                    ? Arrays.asList(cmd.getOptionValues(SAMPLES[1]))
+                    : matrix.getSamples();
+            out_file = Path.of(cmd.getOptionValue(OUT_FILE[1]));
+        } catch (Exception e) {
+            logger.error("Parsing failed. Reason: " + e.getMessage());
+            System.exit(-1);
+        }
+
+        try {
+            CountMatrixSlice slice = matrix.query(start, end, samples);
+            DecimalFormat df = new DecimalFormat("#.####");
+            try (BufferedWriter bw = Files.newBufferedWriter(out_file)) {
+                bw.write("#CHROM\tPOS\t" + String.join("\t", samples));
+                bw.newLine();
+                for (int pos = start; pos <= end; pos++) {
+                    bw.write(slice.getSequenceName() + "\t" + pos);
+                    for (int s = 0; s < samples.size(); s++) {
+                        StringBuilder cell = new StringBuilder().append('\t').append(slice.getCoverage(s, pos));
+                        for (int b = 0; b < CountMatrixSlice.BASES.length; b++) {
+                            cell.append(b == 0 ? ':' : ',').append(df.format(slice.getCount(s, pos, b)));
+                        }
+                        bw.write(cell.toString());
+                    }
+                    bw.newLine();
+                }
+            }
+            logger.info((end - start + 1) + " positions of " + samples.size() + " samples written to: " + out_file);
+        } catch (Exception e) {
+            logger.error(e.getMessage());
+            System.exit(-1);
+        }
+    }
+}
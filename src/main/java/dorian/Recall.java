@@ -0,0 +1,153 @@
+package dorian;
+
+import datastructure.CorrectionMode;
+import datastructure.ReconstructionConfig;
+import org.apache.commons.cli.*;
+import utils.LogWriter;
+import utils.PileupCountReader;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import static dorian.dorian.file_logger;
+import static dorian.dorian.logger;
+import static dorian.dorian.roi_tab;
+
+/**
+ * Re-calling mode. Calls the consensus sequence from a pileup-count file written with --save-counts,
+ * so other coverage and frequency thresholds can be applied without reading the BAM file again.
+ *
+ * @author Meret Häusler
+ * @version 1.0
+ * @since 2024-09-27
+ */
+public class Recall {
+    private final static String[] HELP_FLAG = new String[]{"h", "help", "Print help message"};
+    private final static String[] COUNTS_INPUT = new String[]{"i", "counts", "Pileup-count file written with --save-counts"};
+    private final static String[] OUT_PATH = new String[]{"o", "out", "Path to output directory"};
+    private final static String[] COV = new String[]{"c", "coverage", "Minimum coverage for consensus calling"};
+    private final static String[] FREQ = new String[]{"f", "minfreq", "Minimum frequency for consensus calling (excluding N's)"};
+    private final static String[] LIKELIHOODS = new String[]{"gl", "genotype-likelihoods", "Add haploid GL, PL and GQ to the VCF, assuming a base error rate of phred PHRED (e.g. 30)"};
+    private final static String[] COUNT_MATRIX = new String[]{"cm", "count-matrix", "Append the corrected base counts of all positions to the count matrix in DIR, created if missing"};
+    private final static String[] MAX_MEMORY = new String[]{"mm", "max-memory", "Keep at most about MB megabytes of variant calls in memory and spill the rest to the output directory (default: no limit)"};
+
+
+    /**
+     * Runs the re-calling
+     * @param args Re-calling options
+     */
+    public static void main(String[] args) throws Exception {
+        Options options = new Options();
+        options.addOption(Option.builder().argName("FILE").option(COUNTS_INPUT[0]).longOpt(COUNTS_INPUT[1])
+                .hasArg().required(false).desc(COUNTS_INPUT[2]).build());
+        options.addOption(Option.builder().argName("PATH").option(OUT_PATH[0]).longOpt(OUT_PATH[1])
+                .hasArg().required(false).desc(OUT_PATH[2]).build());
+        options.addOption(Option.builder().argName("INT").option(COV[0]).longOpt(COV[1])
+                .hasArg().required(false).desc(COV[2]).build());
+        options.addOption(Option.builder().argName("DOUBLE").option(FREQ[0]).longOpt(FREQ[1])
+                .hasArg().required(false).desc(FREQ[2]).build());
+        options.addOption(Option.builder().argName("PHRED").option(LIKELIHOODS[0]).longOpt(LIKELIHOODS[1])
+                .hasArg().required(false).desc(LIKELIHOODS[2]).build());
+        options.addOption(Option.builder().argName("DIR").option(COUNT_MATRIX[0]).longOpt(COUNT_MATRIX[1])
+                .hasArg().required(false).desc(COUNT_MATRIX[2]).build());
+        options.addOption(Option.builder().argName("MB").option(MAX_MEMORY[0]).longOpt(MAX_MEMORY[1])
+                .hasArg().required(false).desc(MAX_MEMORY[2]).build());
+        options.addOption(Option.builder().option(HELP_FLAG[0]).longOpt(HELP_FLAG[1]).desc(HELP_FLAG[2]).build());
+
+        // LOGGING //
+        Date log_date = new Date();
+        String time_stamp = new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss").format(log_date);
+        file_logger.info("DORIAN – REPORT\nRun: "
+                + new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(log_date) + "\n");
+
+        // PARSING CLI //
+        Path counts_file = null;
+        Path out_path = null;
+        int min_cov = 0;
+        double min_freq = 0;
+        int likelihood_phred = 0;
+        long max_memory = 0;
+        Path count_matrix = null;
+        try {
+            CommandLine cmd = new DefaultParser().parse(options, args);
+            if (cmd.hasOption(HELP_FLAG[0]) || !cmd.hasOption(COUNTS_INPUT[1]) || !cmd.hasOption(OUT_PATH[1])
+                    || !cmd.hasOption(COV[1]) || !cmd.hasOption(FREQ[1])) {
+                new HelpFormatter().printHelp("java -jar dorian.jar recall [options]\n", options);
+                System.exit(cmd.hasOption(HELP_FLAG[0]) ? 0 : -1);
+            }
+            counts_file = Path.of(cmd.getOptionValue(COUNTS_INPUT[1]));
+            out_path = Path.of(cmd.getOptionValue(OUT_PATH[1]));
+            min_cov = Integer.parseInt(cmd.getOptionValue(COV[1]));
+            min_freq = Double.parseDouble(cmd.getOptionValue(FREQ[1]));
+            likelihood_phred = Integer.parseInt(cmd.getOptionValue(LIKELIHOODS[1], "0"));
+            max_memory = Long.parseLong(cmd.getOptionValue(MAX_MEMORY[1], "0")) * 1024 * 1024;
+            if (cmd.hasOption(COUNT_MATRIX[1])) {
+                count_matrix = Path.of(cmd.getOptionValue(COUNT_MATRIX[1]));
+            }
+        } catch (Exception e) {
+            logger.error("Parsing failed. Reason: " + e.getMessage());
+            file_logger.error("Parameter parsing failed. Reason: " + e.getMessage());
+            System.exit(-1);
+        }
+
+        try (PileupCountReader reader = new PileupCountReader(counts_file)) {
+            CorrectionMode cor_mode = reader.getCorMode();
+            file_logger.info("CLI Parameters:");
+            file_logger.info("Count file:\t\t\t" + counts_file);
+            file_logger.info("Output directory:\t" + out_path);
+            file_logger.info("Correction mode:\t" + cor_mode.getModeName());
+            file_logger.info("Minimum coverage:\t" + min_cov);
+            file_logger.info("Minimum frequency:\t" + min_freq);
+            if (likelihood_phred > 0) {
+                file_logger.info("Likelihoods for:\tphred " + likelihood_phred);
+            }
+            if (count_matrix != null) {
+                file_logger.info("Count matrix:\t\t" + count_matrix);
+            }
+            if (max_memory > 0) {
+                file_logger.info("Memory budget:\t\t" + max_memory / (1024 * 1024) + " MB");
+            }
+
+            // Counts already contain the correction, damage profiles and downsampling are taken from the file
+            ReconstructionEngine engine = new ReconstructionEngine(ReconstructionConfig.builder()
+                    .corMode(cor_mode)
+                    .minCov(min_cov)
+                    .minFreq(min_freq)
+                    .damageProfiles(reader.getDp5(), reader.getDp3())
+                    .maxDepth(reader.getMaxDepth())
+                    .baseQuality(reader.isBaseQuality())
+                    .mergeOverlaps(reader.isMergeOverlaps())
+                    .genotypeLikelihoods(likelihood_phred)
+                    .maxMemory(max_memory)
+                    .countMatrix(count_matrix)
+                    .build());
+            String output_name = reader.getOutputName();
+
+            // PREPARE LOG FILES //
+            LogWriter.logHeader(cor_mode).forEach(file_logger::info);
+            if (!cor_mode.equals(CorrectionMode.NO_COR)) {
+                LogWriter.roiHeader().forEach(roi_tab::info);
+            }
+
+            // MAIN PROGRAMME //
+            logger.info("Calling " + output_name + " from " + counts_file);
+            engine.recallToFiles(reader, out_path, file_logger::info, roi_tab::info);
+
+            // OUTPUT //
+            // Move log file and ROI to output directory
+            Files.move(Path.of("file.log"),
+                    Path.of(out_path + "/" + time_stamp + "_" + output_name + ".log"));
+            if (!cor_mode.equals(CorrectionMode.NO_COR)) {
+                Files.move(Path.of("roi.bed"),
+                        Path.of(out_path + "/" + time_stamp + "_" + output_name + ".bed"));
+            }
+            logger.info("Result files written to: " + out_path);
+        } catch (Exception e) {
+            logger.error(e.getMessage());
+            file_logger.error(e.getMessage());
+            System.exit(-1);
+        }
+    }
+}
@@ -0,0 +1,448 @@
+package dorian;
+
+import datastructure.ConsensusBuffer;
+import datastructure.ConsensusStorage;
+import datastructure.Fasta;
+import datastructure.ReconstructionConfig;
+import datastructure.ReturnTuple;
+import htsjdk.variant.vcf.VCFHeader;
+import utils.Checkpoint;
+import utils.CountMatrix;
+import utils.CountMatrixWriter;
+import utils.DownsamplingStats;
+import utils.SpillManager;
+import utils.FastaIO;
+import utils.LogWriter;
+import utils.MergedReader;
+import utils.PileupCountReader;
+import utils.PileupCountWriter;
+import utils.QCStats;
+import utils.ShardPlan;
+import utils.VCFFileWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * Entry point for embedding DORIAN. An engine only holds its immutable configuration; all state of a
+ * reconstruction is created per call, so one engine can reconstruct any number of samples concurrently.
+ *
+ * @author Meret Häusler
+ * @version 1.0
+ * @since 2024-09-20
+ */
+public class ReconstructionEngine {
+    private final ReconstructionConfig config;
+
+    /**
+     * @param config Parameters used for all reconstructions of this engine
+     */
+    public ReconstructionEngine(ReconstructionConfig config) {
+        this.config = config;
+    }
+
+    // Getter
+    public ReconstructionConfig getConfig() {
+        return config;
+    }
+
+
+    /**
+     * Reconstructs the consensus sequence of a sample in memory. Checkpoint, count, count matrix and memory budget
+     * settings of the configuration are ignored; a mapped consensus storage is replaced by off-heap storage, as there is no output directory.
+     * @param reads         BAM or CRAM files of reads, merged while they are read
+     * @param ref           Fasta record for reference file
+     * @param sampleName    Name of sample
+     * @param log           Receives the lines of the log file (called or corrected positions)
+     * @param roi           Receives the lines of the ROI file
+     * @return Consensus sequence and List of VariantContext for variant calls
+     * @throws IOException If the alignment file cannot be read
+     */
+    public ReturnTuple reconstruct(List<File> reads, Fasta ref, String sampleName, Consumer<String> log,
+                                   Consumer<String> roi) throws IOException {
+        LogWriter logWriter = new LogWriter(config.getCorMode(), ref, log, roi);
+        BaseCalling calling = new BaseCalling(config, ref, getOutputName(sampleName), logWriter, null, null, null,
+                null);
+        ConsensusBuffer consensusSequence = config.getConsensusStorage() == ConsensusStorage.MAPPED
+                ? new ConsensusBuffer(ConsensusStorage.OFF_HEAP, null, ref.getSequence().length())
+                : new ConsensusBuffer(config.getConsensusStorage(), null, ref.getSequence().length());
+        ReturnTuple calls = consensusCalling(reads, ref, calling, consensusSequence);
+        logSummaries(calling, log);
+        return calls;
+    }
+
+
+    /**
+     * Reconstructs the consensus sequence of a sample and writes it to &lt;outPath&gt;/&lt;output name&gt;.fasta,
+     * the variant calls to &lt;outPath&gt;/&lt;output name&gt;.vcf and the coverage and damage statistics to
+     * &lt;outPath&gt;/&lt;output name&gt;_qc.tsv. If configured, the base counts of all positions are saved to
+     * &lt;outPath&gt;/&lt;output name&gt;.counts for recallToFiles and appended to a count matrix under the output
+     * name, which becomes visible in the matrix once calling has finished. If checkpointing is configured, finished intervals
+     * are kept in &lt;outPath&gt;/&lt;output name&gt;_checkpoint until the result files are written. Mapped consensus
+     * storage is backed by &lt;outPath&gt;/&lt;output name&gt;.consensus, which is deleted when the Fasta is written.
+     * If a shard is configured, only its positions are called and kept in
+     * &lt;outPath&gt;/&lt;output name&gt;_shards/&lt;shard&gt; for gatherToFiles; no result files are written.
+     * If a memory budget is configured, variant calls beyond it are spilled to a spill directory in the checkpoint,
+     * the shard or &lt;outPath&gt;/&lt;output name&gt;_spill until they are written.
+     * @param reads         BAM or CRAM files of reads, merged while they are read
+     * @param ref           Fasta record for reference file
+     * @param sampleName    Name of sample
+     * @param outPath       Output directory
+     * @param log           Receives the lines of the log file (called or corrected positions)
+     * @param roi           Receives the lines of the ROI file
+     * @throws IOException If an input file cannot be read, an output file cannot be written or a checkpoint
+     *                     to resume was written with different parameters
+     */
+    public void reconstructToFiles(List<File> reads, Fasta ref, String sampleName, Path outPath, Consumer<String> log,
+                                   Consumer<String> roi) throws IOException {
+        String outputName = getOutputName(sampleName);
+        VCFHeader vcfHeader = VCFFileWriter.defaultHeader(ref, outputName, config);
+
+        // Open checkpoint; log lines are collected per interval and replayed at the end
+        Checkpoint checkpoint = null;
+        LogWriter logWriter = new LogWriter(config.getCorMode(), ref, log, roi);
+        if (config.getShard() > 0) {
+            // A shard is a checkpoint with a single interval
+            checkpoint = new Checkpoint(shardDir(outPath, outputName, config.getShard()), config.getShardSize(),
+                    runParameters(reads, ref, config.getShardSize()), vcfHeader, false, config.getRegionStart());
+            logWriter = new LogWriter(config.getCorMode(), ref, checkpoint::addLog, checkpoint::addRoi);
+        } else if (config.getCheckpointInterval() > 0) {
+            Path checkpointDir = outPath.resolve(outputName + "_checkpoint");
+            checkpoint = new Checkpoint(checkpointDir, config.getCheckpointInterval(),
+                    runParameters(reads, ref, config.getCheckpointInterval()), vcfHeader, config.isResume());
+            logWriter = new LogWriter(config.getCorMode(), ref, checkpoint::addLog, checkpoint::addRoi);
+            if (checkpoint.getStart() > 1) {
+                dorian.logger.info("Resuming from " + checkpointDir + " at position " + checkpoint.getStart());
+            }
+        }
+
+        SpillManager spill = null;
+        if (config.getMaxMemory() > 0) {
+            Path spillDir = checkpoint != null
+                    ? checkpoint.getDir().resolve("spill")
+                    : outPath.resolve(outputName + "_spill");
+            spill = new SpillManager(spillDir, vcfHeader, config.getMaxMemory());
+            if (checkpoint != null) {
+                checkpoint.setSpill(spill);
+            }
+        }
+
+        PileupCountWriter counts = config.isSaveCounts()
+                ? new PileupCountWriter(outPath.resolve(outputName + ".counts"), ref, outputName,
+                        getSequenceName(reads, ref), config)
+                : null;
+        CountMatrixWriter matrix = config.getCountMatrix() != null
+                ? new CountMatrixWriter(CountMatrix.openOrCreate(config.getCountMatrix(),
+                        getSequenceName(reads, ref), ref.getSequence().length()), outputName)
+                : null;
+        BaseCalling calling = new BaseCalling(config, ref, outputName, logWriter, checkpoint, counts, spill, matrix);
+        try (ConsensusBuffer consensusSequence = new ConsensusBuffer(config.getConsensusStorage(),
+                outPath.resolve(outputName + ".consensus"), ref.getSequence().length())) {
+            writeResults(reads, ref, outPath, outputName, vcfHeader, calling, checkpoint, counts, spill, matrix,
+                    consensusSequence, log, roi);
+        }
+    }
+
+
+    /**
+     * Runs the base calling of reconstructToFiles and writes its result files
+     * @param reads             BAM or CRAM files of reads, merged while they are read
+     * @param ref               Fasta record for reference file
+     * @param outPath           Output directory
+     * @param outputName        Name of the sample in the result files
+     * @param vcfHeader         Header of the VCF file
+     * @param calling           Base calling of the reconstruction
+     * @param checkpoint        Checkpoint of the reconstruction, null if checkpointing is disabled
+     * @param counts            Writer for the base counts of each position, null if counts are not saved
+     * @param spill             Spill manager of the variant calls, null without memory budget
+     * @param matrix            Writer appending the corrected counts to a count matrix, null if they are not appended
+     * @param consensusSequence Empty buffer for the consensus sequence
+     * @param log               Receives the lines of the log file (called or corrected positions)
+     * @param roi               Receives the lines of the ROI file
+     * @throws IOException If an input file cannot be read or an output file cannot be written
+     */
+    private void writeResults(List<File> reads, Fasta ref, Path outPath, String outputName, VCFHeader vcfHeader,
+                              BaseCalling calling, Checkpoint checkpoint, PileupCountWriter counts,
+                              SpillManager spill, CountMatrixWriter matrix, ConsensusBuffer consensusSequence, Consumer<String> log, Consumer<String> roi)
+            throws IOException {
+        ReturnTuple calls;
+        try {
+            calls = checkpoint != null && checkpoint.isComplete()
+                    ? new ReturnTuple(consensusSequence, new ArrayList<>())
+                    : consensusCalling(reads, ref, calling, consensusSequence);
+        } finally {
+            if (counts != null) {
+                counts.close();
+            }
+        }
+        if (matrix != null) {
+            matrix.finish();
+        }
+        QCStats qc = calling.getQC();
+
+        // Rebuild results of all intervals from the checkpoint
+        if (checkpoint != null) {
+            if (!checkpoint.isComplete()) {
+                checkpoint.finish(consensusSequence, calls.getVariants(), qc, calling.getDownsampling());
+            }
+            // Downsampling of all intervals, including those of an interrupted run
+            checkpoint.readDownsampling(calling.getDownsampling());
+            if (spill != null) {
+                spill.delete();
+            }
+            // Shards keep their results until all shards are gathered
+            if (config.getShard() > 0) {
+                logSummaries(calling, log);
+                return;
+            }
+            consensusSequence.clear();
+            checkpoint.readSequence(consensusSequence);
+            qc = new QCStats(config.getMinCov());
+            checkpoint.readQC(qc);
+            checkpoint.readLog().forEach(log);
+            checkpoint.readRoi().forEach(roi);
+        }
+        // Cache usage of a resumed run only covers the positions called since resuming
+        logSummaries(calling, log);
+
+        // Write Fasta, VCF and QC output
+        qc.writeReport(outPath.resolve(outputName + "_qc.tsv"), outputName, ref.getSequence().length());
+        FastaIO.writeFasta(">" + outputName, consensusSequence, outPath.resolve(outputName + ".fasta").toString());
+        String vcfOut = outPath.resolve(outputName + ".vcf").toString();
+        if (checkpoint != null) {
+            // The checkpoint holds the only copy of the calls: it is kept for --resume if the VCF file is not written
+            VCFFileWriter.concatVCFFile(vcfOut, vcfHeader, checkpoint.getVCFChunks());
+            checkpoint.delete();
+        } else if (spill != null) {
+            spill.writeVCFFile(vcfOut, calls.getVariants());
+        } else {
+            VCFFileWriter.writeVCFFile(vcfOut, vcfHeader, calls.getVariants());
+        }
+    }
+
+
+    /**
+     * Merges the shards of a sample into the same result files as reconstructToFiles. Every shard of the plan has
+     * to be finished by a run with the same parameters and shard(k, plan.getSize()). The shard results are kept,
+     * as they hold the only copy of the calls; remove them with deleteShards once the log and ROI files of the
+     * callbacks are written as well. The downsampling of all shards is summarised as well; overlap and cache
+     * summaries stay in the logs of the shard runs.
+     * @param reads         BAM or CRAM files of reads, merged while they are read
+     * @param ref           Fasta record for reference file
+     * @param sampleName    Name of sample
+     * @param outPath       Output directory of the shard runs
+     * @param plan          Shards of the reference sequence
+     * @param log           Receives the lines of the log file (called or corrected positions)
+     * @param roi           Receives the lines of the ROI file
+     * @throws IOException If a shard is missing, unfinished or was called with different parameters,
+     *                     or an output file cannot be written
+     */
+    public void gatherToFiles(List<File> reads, Fasta ref, String sampleName, Path outPath, ShardPlan plan,
+                              Consumer<String> log, Consumer<String> roi) throws IOException {
+        String outputName = getOutputName(sampleName);
+        VCFHeader vcfHeader = VCFFileWriter.defaultHeader(ref, outputName, config);
+        String params = runParameters(reads, ref, plan.getSize());
+
+        // Check all shards before writing anything
+        List<Checkpoint> shards = new ArrayList<>();
+        for (int shard = 1; shard <= plan.getShards(); shard++) {
+            Path dir = shardDir(outPath, outputName, shard);
+            if (!Checkpoint.exists(dir)) {
+                throw new IOException("Shard " + shard + " of " + outputName + " has not been run.");
+            }
+            Checkpoint checkpoint = new Checkpoint(dir, plan.getSize(), params, vcfHeader, true,
+                    plan.getStart(shard));
+            if (!checkpoint.isComplete()) {
+                throw new IOException("Shard " + shard + " of " + outputName + " has not finished.");
+            }
+            shards.add(checkpoint);
+        }
+
+        // Concatenate the shards in order
+        QCStats qc = new QCStats(config.getMinCov());
+        DownsamplingStats downsampling = new DownsamplingStats(config.getMaxDepth());
+        List<Path> vcfChunks = new ArrayList<>();
+        try (ConsensusBuffer consensusSequence = new ConsensusBuffer(config.getConsensusStorage(),
+                outPath.resolve(outputName + ".consensus"), ref.getSequence().length())) {
+            for (Checkpoint shard : shards) {
+                shard.readSequence(consensusSequence);
+                shard.readQC(qc);
+                shard.readDownsampling(downsampling);
+                shard.readLog().forEach(log);
+                shard.readRoi().forEach(roi);
+                vcfChunks.addAll(shard.getVCFChunks());
+            }
+            if (config.getMaxDepth() > 0) {
+                downsampling.summary().forEach(log);
+            }
+            qc.writeReport(outPath.resolve(outputName + "_qc.tsv"), outputName, ref.getSequence().length());
+            FastaIO.writeFasta(">" + outputName, consensusSequence,
+                    outPath.resolve(outputName + ".fasta").toString());
+        }
+        VCFFileWriter.concatVCFFile(outPath.resolve(outputName + ".vcf").toString(), vcfHeader, vcfChunks);
+    }
+
+
+    /**
+     * Removes the shard results of a sample after gatherToFiles and the log and ROI files are written
+     * @param sampleName    Name of sample
+     * @param outPath       Output directory of the shard runs
+     * @param plan          Shards of the reference sequence
+     * @throws IOException If a file cannot be deleted
+     */
+    public void deleteShards(String sampleName, Path outPath, ShardPlan plan) throws IOException {
+        String outputName = getOutputName(sampleName);
+        for (int shard = 1; shard <= plan.getShards(); shard++) {
+            Checkpoint.delete(shardDir(outPath, outputName, shard));
+        }
+        Files.deleteIfExists(outPath.resolve(outputName + "_shards"));
+    }
+
+
+    /**
+     * Calls the consensus sequence again from a pileup-count file, e.g. with other coverage or frequency thresholds,
+     * and writes &lt;outPath&gt;/&lt;output name&gt;.fasta, .vcf and _qc.tsv. The output name, reference and corrected
+     * base counts are taken from the count file; the correction mode of the configuration has to match it.
+     * If configured, the corrected counts are appended to a count matrix.
+     * @param reader    Opened pileup-count file
+     * @param outPath   Output directory
+     * @param log       Receives the lines of the log file (called or corrected positions)
+     * @param roi       Receives the lines of the ROI file
+     * @throws IOException If the count file cannot be read or an output file cannot be written
+     */
+    public void recallToFiles(PileupCountReader reader, Path outPath, Consumer<String> log, Consumer<String> roi)
+            throws IOException {
+        if (reader.getCorMode() != config.getCorMode()) {
+            throw new IllegalArgumentException("Count file was written with " + reader.getCorMode().getModeName()
+                    + ", not " + config.getCorMode().getModeName() + ".");
+        }
+        String outputName = reader.getOutputName();
+        Fasta ref = reader.getReference();
+        LogWriter logWriter = new LogWriter(config.getCorMode(), ref, log, roi);
+        VCFHeader vcfHeader = VCFFileWriter.defaultHeader(ref, outputName, config);
+        SpillManager spill = config.getMaxMemory() > 0
+                ? new SpillManager(outPath.resolve(outputName + "_spill"), vcfHeader, config.getMaxMemory())
+                : null;
+        CountMatrixWriter matrix = config.getCountMatrix() != null
+                ? new CountMatrixWriter(CountMatrix.openOrCreate(config.getCountMatrix(), reader.getSequenceName(),
+                        ref.getSequence().length()), outputName)
+                : null;
+        BaseCalling calling = new BaseCalling(config, ref, outputName, logWriter, null, null, spill, matrix);
+        try (ConsensusBuffer consensusSequence = new ConsensusBuffer(config.getConsensusStorage(),
+                outPath.resolve(outputName + ".consensus"), ref.getSequence().length())) {
+            ReturnTuple calls = calling.recall(reader, consensusSequence);
+            if (matrix != null) {
+                matrix.finish();
+            }
+
+            // Write Fasta, VCF and QC output
+            calling.getQC().writeReport(outPath.resolve(outputName + "_qc.tsv"), outputName,
+                    ref.getSequence().length());
+            FastaIO.writeFasta(">" + outputName, consensusSequence, outPath.resolve(outputName + ".fasta").toString());
+            String vcfOut = outPath.resolve(outputName + ".vcf").toString();
+            if (spill != null) {
+                spill.writeVCFFile(vcfOut, calls.getVariants());
+            } else {
+                VCFFileWriter.writeVCFFile(vcfOut, vcfHeader, calls.getVariants());
+            }
+        }
+    }
+
+
+    /**
+     * @param sampleName Name of sample
+     * @return Name of the sample in the result files, made of sample name and correction mode
+     */
+    public String getOutputName(String sampleName) {
+        return sampleName + "_" + config.getCorMode().getShortName();
+    }
+
+
+    /**
+     * Runs the configured base calling engine
+     * @param reads         BAM or CRAM files of reads, merged while they are read
+     * @param ref           Fasta record for reference file
+     * @param calling       Base calling of the reconstruction
+     * @param consensusSequence Empty buffer for the consensus sequence
+     * @return Consensus sequence and List of VariantContext for variant calls
+     */
+    private ReturnTuple consensusCalling(List<File> reads, Fasta ref, BaseCalling calling,
+                                         ConsensusBuffer consensusSequence) throws IOException {
+        return config.isStreaming()
+                ? StreamingBaseCalling.consensusCalling(reads, config, ref, calling, consensusSequence)
+                : calling.consensusCalling(reads, consensusSequence);
+    }
+
+
+    /**
+     * @param reads BAM or CRAM files of reads
+     * @param ref   Reference as Fasta object
+     * @return  Name of the reconstructed (first) reference sequence in the alignment files
+     * @throws IOException If an alignment file cannot be read or the files cannot be merged
+     */
+    private static String getSequenceName(List<File> reads, Fasta ref) throws IOException {
+        try (MergedReader reader = new MergedReader(reads, ref)) {
+            return reader.getFileHeader().getSequence(0).getSequenceName();
+        }
+    }
+
+
+    /**
+     * Adds the downsampling, overlapping mates and decision cache summaries to the log
+     * @param calling   Base calling of the reconstruction
+     * @param log       Receives the lines of the log file
+     */
+    private void logSummaries(BaseCalling calling, Consumer<String> log) {
+        if (config.getMaxDepth() > 0) {
+            calling.getDownsampling().summary().forEach(log);
+        }
+        if (config.isMergeOverlaps()) {
+            calling.overlapSummary().forEach(log);
+        }
+        if (calling.getDecisions() != null) {
+            calling.getDecisions().summary().forEach(log);
+        }
+    }
+
+
+    /**
+     * @param outPath       Output directory
+     * @param outputName    Name of the sample in the result files
+     * @param shard         1-based index of a shard
+     * @return Directory of the results of a shard
+     */
+    private static Path shardDir(Path outPath, String outputName, int shard) {
+        return outPath.resolve(outputName + "_shards").resolve(Integer.toString(shard));
+    }
+
+
+    /**
+     * @param reads     BAM or CRAM files of reads
+     * @param ref       Reference as Fasta object
+     * @param interval  Number of positions per checkpoint interval or shard
+     * @return  Parameters that have to match to resume a checkpoint or to gather shards
+     */
+    private String runParameters(List<File> reads, Fasta ref, int interval) {
+        List<String> files = new ArrayList<>();
+        for (File file : reads) {
+            files.add(String.join(";", file.getAbsolutePath(), Long.toString(file.length()),
+                    Long.toString(file.lastModified())));
+        }
+        return String.join(";", String.join(";", files), ref.getHeader(),
+                Integer.toString(ref.getSequence().length()),
+                config.getCorMode().name(), Integer.toString(config.getMinCov()), Double.toString(config.getMinFreq()),
+                Integer.toString(config.getMaxDepth()), Integer.toString(interval),
+                Integer.toString(Objects.hash(config.getDp5(), config.getDp3())))
+                + (config.getReadGroupDp5().isEmpty() ? ""
+                : ";" + Objects.hash(config.getReadGroupDp5(), config.getReadGroupDp3()))
+                + (config.getLikelihoodPhred() == 0 ? "" : ";GL" + config.getLikelihoodPhred())
+                + (config.isBaseQuality() ? ";BQ" : "")
+                + (config.isMergeOverlaps() ? ";MO" : "");
+    }
+}
@@ -0,0 +1,100 @@
+package dorian;
+
+import datastructure.Fasta;
+import htsjdk.samtools.SAMSequenceRecord;
+import org.apache.commons.cli.*;
+import utils.AlignmentIO;
+import utils.FastaIO;
+import utils.MergedReader;
+import utils.ShardPlan;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static dorian.dorian.logger;
+
+/**
+ * Scatter mode. Splits the reference sequence of one or more BAM files into shards of equal size and writes the plan to the
+ * output directory. Each shard is then called by a run with --shard, e.g. as one task of a cluster array job,
+ * and the results are merged with 'gather'.
+ *
+ * @author Meret Häusler
+ * @version 1.0
+ * @since 2024-10-03
+ */
+public class Scatter {
+    private final static String[] HELP_FLAG = new String[]{"h", "help", "Print help message"};
+    private final static String[] BAM_INPUT = new String[]{"b", "bam", "BAM or CRAM files of mapped reads, or lists of them (.list or .txt, one path per line)"};
+    private final static String[] REF_FILE = new String[]{"r", "ref-file", "Reference genome"};
+    private final static String[] SHARDS_NUM = new String[]{"n", "shards", "Number of shards"};
+    private final static String[] OUT_PATH = new String[]{"o", "out", "Path to output directory shared by all shard runs"};
+
+
+    /**
+     * Writes the shard plan
+     * @param args Scatter options
+     */
+    public static void main(String[] args) throws Exception {
+        Options options = new Options();
+        options.addOption(Option.builder().argName("FILE").option(BAM_INPUT[0]).longOpt(BAM_INPUT[1])
+                .hasArgs().required(false).desc(BAM_INPUT[2]).build());
+        options.addOption(Option.builder().argName("FILE").option(REF_FILE[0]).longOpt(REF_FILE[1])
+                .hasArg().required(false).desc(REF_FILE[2]).build());
+        options.addOption(Option.builder().argName("INT").option(SHARDS_NUM[0]).longOpt(SHARDS_NUM[1])
+                .hasArg().required(false).desc(SHARDS_NUM[2]).build());
+        options.addOption(Option.builder().argName("PATH").option(OUT_PATH[0]).longOpt(OUT_PATH[1])
+                .hasArg().required(false).desc(OUT_PATH[2]).build());
+        options.addOption(Option.builder().option(HELP_FLAG[0]).longOpt(HELP_FLAG[1]).desc(HELP_FLAG[2]).build());
+
+        // PARSING CLI //
+        List<File> reads = null;
+        Fasta ref = null;
+        int shards = 0;
+        Path out_path = null;
+        try {
+            CommandLine cmd = new DefaultParser().parse(options, args);
+            if (cmd.hasOption(HELP_FLAG[0]) || !cmd.hasOption(BAM_INPUT[1]) || !cmd.hasOption(REF_FILE[1])
+                    || !cmd.hasOption(SHARDS_NUM[1]) || !cmd.hasOption(OUT_PATH[1])) {
+                new HelpFormatter().printHelp("java -jar dorian.jar scatter [options]\n", options);
+                System.exit(cmd.hasOption(HELP_FLAG[0]) ? 0 : -1);
+            }
+            reads = AlignmentIO.resolveFiles(cmd.getOptionValues(BAM_INPUT[1]));
+            ref = FastaIO.readFasta(cmd.getOptionValue(REF_FILE[1])).get(0);
+            shards = Integer.parseInt(cmd.getOptionValue(SHARDS_NUM[1]));
+            if (shards < 1) {
+                throw new IllegalArgumentException("Number of shards must be a positive integer. Given: " + shards);
+            }
+            out_path = Path.of(cmd.getOptionValue(OUT_PATH[1]));
+        } catch (Exception e) {
+            logger.error("Parsing failed. Reason: " + e.getMessage());
+            System.exit(-1);
+        }
+
+        try (MergedReader reader = new MergedReader(reads, ref)) {
+            // Shards cover the first reference sequence, which is the one that is reconstructed
+            SAMSequenceRecord sequence = reader.getFileHeader().getSequence(0);
+            if (sequence.getSequenceLength() != ref.getSequence().length()) {
+                throw new IllegalArgumentException("Reference has " + ref.getSequence().length()
+                        + " positions, but " + sequence.getSequenceName() + " in " + reads.get(0) + " has "
+                        + sequence.getSequenceLength() + ".");
+            }
+            List<String> bams = new ArrayList<>();
+            for (File file : reads) {
+                bams.add(file.getAbsolutePath());
+            }
+            ShardPlan plan = ShardPlan.split(bams, sequence.getSequenceName(),
+                    sequence.getSequenceLength(), shards);
+            Files.createDirectories(out_path);
+            plan.write(out_path);
+
+            logger.info(plan.getShards() + " shards of " + plan.getSize() + " positions of "
+                    + plan.getSequenceName() + " written to: " + out_path.resolve(ShardPlan.FILE_NAME));
+        } catch (Exception e) {
+            logger.error(e.getMessage());
+            System.exit(-1);
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package dorian;
+
+import cli.CLIParser;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileWriter;
+import htsjdk.samtools.SAMFileWriterFactory;
+import htsjdk.samtools.SAMReadGroupRecord;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SAMTag;
+import org.apache.commons.cli.*;
+import utils.FastaIO;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static dorian.dorian.logger;
+
+/**
+ * Simulation mode. Writes a random reference and a coordinate-sorted, indexed BAM file of reads of a sample that
+ * differs from the reference by random substitutions, e.g. to measure how DORIAN scales with genome size and depth
+ * (see scripts/benchmark_scaling.sh). Read lengths follow a normal distribution and read starts a Poisson process
+ * that gives the requested mean depth. Cs of forward mapping reads (Gs of reverse mapping reads) are turned into
+ * Ts (As) with the damage of their read position in the given damage profiles, exactly as the damage weighting
+ * models it, and all bases are replaced by a random other base with the sequencing error rate.
+ *
+ * @author Meret Häusler
+ * @version 1.0
+ * @since 2024-10-11
+ */
+public class Simulate {
+    private final static String[] HELP_FLAG = new String[]{"h", "help", "Print help message"};
+    private final static String[] OUT_PATH = new String[]{"o", "out", "Path to output directory"};
+    private final static String[] NAME = new String[]{"n", "name", "Name of reference and BAM file (default: synthetic)"};
+    private final static String[] GENOME_SIZE = new String[]{"g", "genome-size", "Length of the reference"};
+    private final static String[] DEPTH = new String[]{"d", "depth", "Mean read depth"};
+    private final static String[] READ_LENGTH = new String[]{"l", "read-length", "Mean read length (default: 50)"};
+    private final static String[] READ_LENGTH_SD = new String[]{"lsd", "read-length-sd", "Standard deviation of the read length (default: 15)"};
+    private final static String[] DP5_INPUT = new String[]{"dp5", "damageprofile5", "DamageProfile of 5' end (default: no damage)"};
+    private final static String[] DP3_INPUT = new String[]{"dp3", "damageprofile3", "DamageProfile of 3' end (default: no damage)"};
+    private final static String[] ERROR_RATE = new String[]{"e", "error-rate", "Sequencing error rate per base (default: 0.001)"};
+    private final static String[] VARIANT_RATE = new String[]{"v", "variant-rate", "Rate of substitutions between sample and reference (default: 0.001)"};
+    private final static String[] SEED = new String[]{"seed", "seed", "Seed of the random generator (default: 1)"};
+
+    private static final int MIN_READ_LENGTH = 20;
+    private static final int MAPPING_QUALITY = 60;
+    private static final String READ_GROUP = "SIM";
+    private static final byte[] BASES = {'A', 'C', 'G', 'T'};
+
+
+    /**
+     * Writes the synthetic reference and BAM file
+     * @param args Simulation options
+     */
+    public static void main(String[] args) throws Exception {
+        Options options = new Options();
+        options.addOption(Option.builder().argName("PATH").option(OUT_PATH[0]).longOpt(OUT_PATH[1])
+                .hasArg().required(false).desc(OUT_PATH[2]).build());
+        options.addOption(Option.builder().argName("NAME").option(NAME[0]).longOpt(NAME[1])
+                .hasArg().required(false).desc(NAME[2]).build());
+        options.addOption(Option.builder().argName("INT").option(GENOME_SIZE[0]).longOpt(GENOME_SIZE[1])
+                .hasArg().required(false).desc(GENOME_SIZE[2]).build());
+        options.addOption(Option.builder().argName("DOUBLE").option(DEPTH[0]).longOpt(DEPTH[1])
+                .hasArg().required(false).desc(DEPTH[2]).build());
+        options.addOption(Option.builder().argName("INT").option(READ_LENGTH[0]).longOpt(READ_LENGTH[1])
+                .hasArg().required(false).desc(READ_LENGTH[2]).build());
+        options.addOption(Option.builder().argName("DOUBLE").option(READ_LENGTH_SD[0]).longOpt(READ_LENGTH_SD[1])
+                .hasArg().required(false).desc(READ_LENGTH_SD[2]).build());
+        options.addOption(Option.builder().argName("FILE").option(DP5_INPUT[0]).longOpt(DP5_INPUT[1])
+                .hasArg().required(false).desc(DP5_INPUT[2]).build());
+        options.addOption(Option.builder().argName("FILE").option(DP3_INPUT[0]).longOpt(DP3_INPUT[1])
+                .hasArg().required(false).desc(DP3_INPUT[2]).build());
+        options.addOption(Option.builder().argName("DOUBLE").option(ERROR_RATE[0]).longOpt(ERROR_RATE[1])
+                .hasArg().required(false).desc(ERROR_RATE[2]).build());
+        options.addOption(Option.builder().argName("DOUBLE").option(VARIANT_RATE[0]).longOpt(VARIANT_RATE[1])
+                .hasArg().required(false).desc(VARIANT_RATE[2]).build());
+        options.addOption(Option.builder().argName("LONG").option(SEED[0]).longOpt(SEED[1])
+                .hasArg().required(false).desc(SEED[2]).build());
+        options.addOption(Option.builder().option(HELP_FLAG[0]).longOpt(HELP_FLAG[1]).desc(HELP_FLAG[2]).build());
+
+        // PARSING CLI //
+        Path out_path = null;
+        String name = "synthetic";
+        int genome_size = 0;
+        double depth = 0.0;
+        int read_length = 50;
+        double read_length_sd = 15.0;
+        double[] dp5 = null;
+        double[] dp3 = null;
+        double error_rate = 0.001;
+        double variant_rate = 0.001;
+        long seed = 1;
+        try {
+            CommandLine cmd = new DefaultParser().parse(options, args);
+            if (cmd.hasOption(HELP_FLAG[0]) || !cmd.hasOption(OUT_PATH[1]) || !cmd.hasOption(GENOME_SIZE[1])
+                    || !cmd.hasOption(DEPTH[1])) {
+                new HelpFormatter().printHelp("java -jar dorian.jar simulate [options]\n", options);
+                System.exit(cmd.hasOption(HELP_FLAG[0]) ? 0 : -1);
+            }
+            out_path = Path.of(cmd.getOptionValue(OUT_PATH[1]));
+            name = cmd.getOptionValue(NAME[1], name);
+            genome_size = Integer.parseInt(cmd.getOptionValue(GENOME_SIZE[1]));
+            depth = Double.parseDouble(cmd.getOptionValue(DEPTH[1]));
+            read_length = Integer.parseInt(cmd.getOptionValue(READ_LENGTH[1], Integer.toString(read_length)));
+            read_length_sd = Double.parseDouble(cmd.getOptionValue(READ_LENGTH_SD[1], Double.toString(read_length_sd)));
+            error_rate = Double.parseDouble(cmd.getOptionValue(ERROR_RATE[1], Double.toString(error_rate)));
+            variant_rate = Double.parseDouble(cmd.getOptionValue(VARIANT_RATE[1], Double.toString(variant_rate)));
+            seed = Long.parseLong(cmd.getOptionValue(SEED[1], Long.toString(seed)));
+            if (genome_size < MIN_READ_LENGTH) {
+                throw new IllegalArgumentException("Genome size must be at least " + MIN_READ_LENGTH + ". Given: "
+                        + genome_size);
+            }
+            if (depth <= 0 || read_length < MIN_READ_LENGTH || read_length_sd < 0) {
+                throw new IllegalArgumentException("Depth must be positive and the read length at least "
+                        + MIN_READ_LENGTH + ".");
+            }
+            if (error_rate < 0 || error_rate >= 1 || variant_rate < 0 || variant_rate >= 1) {
+                throw new IllegalArgumentException("Error and variant rate must be between 0 and 1.");
+            }
+            if (cmd.hasOption(DP5_INPUT[1]) != cmd.hasOption(DP3_INPUT[1])) {
+                throw new IllegalArgumentException("Damage profiles of both ends (-dp5 and -dp3) are required.");
+            }
+            if (cmd.hasOption(DP5_INPUT[1])) {
+                dp5 = DamageCorrection.toArray(CLIParser.readDamageProfile(Path.of(cmd.getOptionValue(DP5_INPUT[1]))));
+                dp3 = DamageCorrection.toArray(CLIParser.readDamageProfile(Path.of(cmd.getOptionValue(DP3_INPUT[1]))));
+            }
+        } catch (Exception e) {
+            logger.error("Parsing failed. Reason: " + e.getMessage());
+            System.exit(-1);
+        }
+
+        try {
+            Files.createDirectories(out_path);
+            Random random = new Random(seed);
+
+            // Reference and sample sequence with substitutions
+            byte[] reference = new byte[genome_size];
+            for (int i = 0; i < genome_size; i++) {
+                reference[i] = BASES[random.nextInt(4)];
+            }
+            byte[] sample = reference.clone();
+            int variants = 0;
+            for (int i = 0; i < genome_size; i++) {
+                if (random.nextDouble() < variant_rate) {
+                    sample[i] = otherBase(sample[i], random);
+                    variants++;
+                }
+            }
+            Path fasta_file = out_path.resolve(name + ".fasta");
+            FastaIO.writeFasta(">" + name, new String(reference, StandardCharsets.US_ASCII), fasta_file.toString());
+
+            // Reads in coordinate order
+            SAMFileHeader header = new SAMFileHeader();
+            header.setSortOrder(SAMFileHeader.SortOrder.coordinate);
+            header.addSequence(new SAMSequenceRecord(name, genome_size));
+            SAMReadGroupRecord read_group = new SAMReadGroupRecord(READ_GROUP);
+            read_group.setSample(name);
+            header.addReadGroup(read_group);
+            Path bam_file = out_path.resolve(name + ".bam");
+            long reads = writeReads(header, sample, bam_file, depth / read_length, read_length, read_length_sd,
+                    dp5, dp3, error_rate, random);
+
+            logger.info("Reference of " + genome_size + " positions written to: " + fasta_file);
+            logger.info(reads + " reads with " + variants + " substitutions written to: " + bam_file);
+        } catch (Exception e) {
+            logger.error(e.getMessage());
+            System.exit(-1);
+        }
+    }
+
+
+    /**
+     * Writes the reads of the sample to a coordinate-sorted BAM file with index
+     * @param header            Header of the BAM file
+     * @param sample            Sequence of the sample
+     * @param bamFile           BAM file
+     * @param startsPerPosition Mean number of reads starting at a position
+     * @param readLength        Mean read length
+     * @param readLengthSd      Standard deviation of the read length
+     * @param dp5               Damage profile of 5' end, null for reads without damage
+     * @param dp3               Damage profile of 3' end, null for reads without damage
+     * @param errorRate         Sequencing error rate per base
+     * @param random            Random generator
+     * @return Number of written reads
+     */
+    private static long writeReads(SAMFileHeader header, byte[] sample, Path bamFile, double startsPerPosition,
+                                   int readLength, double readLengthSd, double[] dp5, double[] dp3,
+                                   double errorRate, Random random) {
+        int quality = (int) Math.max(2, Math.min(41, Math.round(-10 * Math.log10(Math.max(errorRate, 1e-5)))));
+        double noStart = Math.exp(-startsPerPosition);
+        long reads = 0;
+        try (SAMFileWriter writer = new SAMFileWriterFactory().setCreateIndex(true)
+                .makeBAMWriter(header, true, bamFile.toFile())) {
+            for (int start = 0; start <= sample.length - MIN_READ_LENGTH; start++) {
+                // Number of reads starting at the position (Poisson distributed)
+                int starts = -1;
+                for (double p = 1.0; p > noStart; p *= random.nextDouble()) {
+                    starts++;
+                }
+
+                for (int r = 0; r < starts; r++) {
+                    int length = (int) Math.round(readLength + random.nextGaussian() * readLengthSd);
+                    length = Math.min(Math.max(length, MIN_READ_LENGTH), sample.length - start);
+                    boolean isReverse = random.nextBoolean();
+                    byte[] bases = new byte[length];
+                    byte[] quals = new byte[length];
+                    for (int i = 0; i < length; i++) {
+                        byte base = sample[start + i];
+                        if (dp5 != null && base == (isReverse ? 'G' : 'C')
+                                && random.nextDouble() < DamageCorrection.getDamage(length, i, isReverse, dp5, dp3)) {
+                            base = (byte) (isReverse ? 'A' : 'T');
+                        }
+                        if (random.nextDouble() < errorRate) {
+                            base = otherBase(base, random);
+                        }
+                        bases[i] = base;
+                        quals[i] = (byte) quality;
+                    }
+
+                    SAMRecord record = new SAMRecord(header);
+                    record.setReadName("read" + (++reads));
+                    record.setReferenceIndex(0);
+                    record.setAlignmentStart(start + 1);
+                    record.setCigarString(length + "M");
+                    record.setMappingQuality(MAPPING_QUALITY);
+                    record.setReadNegativeStrandFlag(isReverse);
+                    record.setReadBases(bases);
+                    record.setBaseQualities(quals);
+                    record.setAttribute(SAMTag.RG.name(), READ_GROUP);
+                    writer.addAlignment(record);
+                }
+            }
+        }
+        return reads;
+    }
+
+
+    /**
+     * @param base      Base
+     * @param random    Random generator
+     * @return One of the three other bases
+     */
+    private static byte otherBase(byte base, Random random) {
+        byte other = BASES[random.nextInt(3)];
+        return other == base ? BASES[3] : other;
+    }
+}
@@ -0,0 +1,313 @@
+package dorian;
+
+import datastructure.BaseCounts;
+import datastructure.ConsensusBuffer;
+import datastructure.Fasta;
+import datastructure.ReconstructionConfig;
+import datastructure.ReturnTuple;
+import htsjdk.samtools.*;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.variant.variantcontext.VariantContext;
+import utils.MergedReader;
+import utils.ReadGroupDamage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Reads-first alternative to the pileup-based consensus calling. Every read is visited once and adds its
+ * contribution to primitive per-position accumulators in a sliding window; a position is corrected and
+ * called as soon as the window moves past it. Damage silencing and weighting only depend on strand, base
+ * and read index, so the accumulators hold everything the pileup path derives from MappingPosition lists
+ * and both paths give identical calls.
+ *
+ * @author Meret Häusler
+ * @version 1.0
+ * @since 2024-09-16
+ */
+public class StreamingBaseCalling {
+
+    // Base codes of the accumulators, in the layout of BaseCounts
+    private static final int A = BaseCounts.A, C = BaseCounts.C, G = BaseCounts.G, T = BaseCounts.T;
+    private static final int BASE_CODES = 4;
+
+    private final ReadGroupDamage damage;
+    private final BaseCalling calling;
+    private final String contig;
+    private final boolean weighting;
+    private final boolean quality;
+
+    // Per-position accumulators, indexed by position & mask
+    private int mask = 1023;
+    private int[] depth = new int[mask + 1];
+    private int[] counts = new int[(mask + 1) * BASE_CODES];
+    private int[] forwardT = new int[mask + 1];
+    private int[] reverseA = new int[mask + 1];
+    // Weighted T (A) counts in read order if the position turns out CT (GA) damaged, and the damage moved to C (G)
+    private double[] weightT = new double[mask + 1];
+    private double[] weightA = new double[mask + 1];
+    private double[] upvoteC = new double[mask + 1];
+    private double[] upvoteG = new double[mask + 1];
+    // Quality-weighted counts, only filled with base quality weighting
+    private double[] qualityCounts = new double[(mask + 1) * BASE_CODES];
+
+    private int nextPosition = 1;
+    private int windowEnd = 0;
+
+    private final BaseCounts slotCounts = new BaseCounts();
+
+    private final ConsensusBuffer consensusSequence;
+    private final List<VariantContext> variantCalls = new ArrayList<>();
+
+
+    private StreamingBaseCalling(BaseCalling calling, String contig, ReadGroupDamage damage, boolean quality,
+                                 ConsensusBuffer consensusSequence) {
+        this.damage = damage;
+        this.calling = calling;
+        this.contig = contig;
+        this.weighting = damage != null;
+        this.quality = quality;
+        this.consensusSequence = consensusSequence;
+    }
+
+
+    /**
+     * Builds a consensus_sequence and makes variant calls of a set of reads by streaming the reads once
+     * @param reads      BAM or CRAM files of reads, merged while they are read
+     * @param config     Reconstruction parameters
+     * @param ref        Fasta record for reference file
+     * @param calling    Base calling of the reconstruction, makes the final calls
+     * @param consensusSequence Empty buffer for the consensus sequence
+     * @return Consensus sequence and List of VariantContext for variant calls
+     */
+    static ReturnTuple consensusCalling(List<File> reads, ReconstructionConfig config, Fasta ref, BaseCalling calling,
+                                        ConsensusBuffer consensusSequence) throws IOException {
+        // Resumed runs start behind the last checkpointed interval
+        int start = calling.getStart();
+
+        try (MergedReader reader = new MergedReader(reads, ref);
+             CloseableIterator<SAMRecord> records = reader.iterator(start, config.getThreads())) {
+
+            // Stream the reads of the first reference sequence
+            SAMSequenceRecord sequence = reader.getFileHeader().getSequence(0);
+            // Damage of each read is looked up once in the table of its read group
+            ReadGroupDamage damage = config.getCorMode().needsDP()
+                    ? new ReadGroupDamage(config, reader.getFileHeader()) : null;
+            StreamingBaseCalling engine = new StreamingBaseCalling(calling, sequence.getSequenceName(), damage,
+                    config.isBaseQuality(), consensusSequence);
+            engine.nextPosition = start;
+            int lastCovered = 0;
+            int end = Math.min(sequence.getSequenceLength(), config.getRegionEnd());
+
+            while (records.hasNext()) {
+                SAMRecord record = records.next();
+                if (record.getReadUnmappedFlag() || record.getReferenceIndex() < 0) {
+                    continue;
+                }
+                if (record.getReferenceIndex() > 0) {
+                    break;
+                }
+                // A read behind the end of the region: all positions up to the end are covered
+                if (record.getAlignmentStart() > end) {
+                    lastCovered = Math.max(lastCovered, end);
+                    break;
+                }
+
+                // All positions before the read start are complete
+                engine.callUpTo(record.getAlignmentStart() - 1);
+                lastCovered = Math.max(lastCovered, record.getAlignmentEnd());
+                if (!record.isSecondaryOrSupplementary() && !record.getDuplicateReadFlag()) {
+                    engine.addRead(record);
+                }
+            }
+
+            // Call remaining positions up to the last covered position
+            engine.callUpTo(Math.min(lastCovered, end));
+            return new ReturnTuple(engine.consensusSequence, engine.variantCalls);
+        }
+    }
+
+
+    /**
+     * Adds the aligned bases of a read to the accumulators
+     * @param record Mapped read
+     */
+    private void addRead(SAMRecord record) {
+        ensureCapacity(record.getAlignmentEnd());
+        byte[] bases = record.getReadBases();
+        boolean isReverse = record.getReadNegativeStrandFlag();
+        double[] readDamage = weighting ? damage.resolve(record) : null;
+        byte[] quals = record.getBaseQualities();
+
+        for (AlignmentBlock block : record.getAlignmentBlocks()) {
+            int readStart = block.getReadStart() - 1;
+            int refStart = block.getReferenceStart();
+            for (int i = 0; i < block.getLength(); i++) {
+                // Positions before the window have already been called in a checkpointed run
+                if (refStart + i < nextPosition) {
+                    continue;
+                }
+                int slot = (refStart + i) & mask;
+                int readIdx = readStart + i;
+                depth[slot]++;
+                // Weight of the base; without base quality weighting 1, which leaves all weights unchanged
+                double q = quality ? BaseCounts.QUALITY_WEIGHTS[quals.length == 0 ? 0xff : quals[readIdx] & 0xff]
+                        : 1.0;
+
+                switch (bases[readIdx]) {
+                    case 'A' -> {
+                        counts[slot * BASE_CODES + A]++;
+                        if (isReverse) {
+                            reverseA[slot]++;
+                            if (weighting) {
+                                double dam = readDamage[readIdx];
+                                weightA[slot] += (1 - dam) * q;
+                                upvoteG[slot] += dam * q;
+                            }
+                        } else if (weighting) {
+                            weightA[slot] += q;
+                        }
+                        if (quality) {
+                            qualityCounts[slot * BASE_CODES + A] += q;
+                        }
+                    }
+                    case 'T' -> {
+                        counts[slot * BASE_CODES + T]++;
+                        if (!isReverse) {
+                            forwardT[slot]++;
+                            if (weighting) {
+                                double dam = readDamage[readIdx];
+                                weightT[slot] += (1 - dam) * q;
+                                upvoteC[slot] += dam * q;
+                            }
+                        } else if (weighting) {
+                            weightT[slot] += q;
+                        }
+                        if (quality) {
+                            qualityCounts[slot * BASE_CODES + T] += q;
+                        }
+                    }
+                    case 'C' -> {
+                        counts[slot * BASE_CODES + C]++;
+                        if (quality) {
+                            qualityCounts[slot * BASE_CODES + C] += q;
+                        }
+                    }
+                    case 'G' -> {
+                        counts[slot * BASE_CODES + G]++;
+                        if (quality) {
+                            qualityCounts[slot * BASE_CODES + G] += q;
+                        }
+                    }
+                    default -> {
+                    }
+                }
+            }
+        }
+        windowEnd = Math.max(windowEnd, record.getAlignmentEnd());
+    }
+
+
+    /**
+     * Corrects and calls all positions up to the given position and slides the window past them
+     * @param position Last complete 1-based position
+     */
+    private void callUpTo(int position) {
+        for (; nextPosition <= position; nextPosition++) {
+            callPosition(nextPosition);
+        }
+    }
+
+
+    /**
+     * Passes the accumulators of a position to the base calling
+     * @param refPos 1-based reference position
+     */
+    private void callPosition(int refPos) {
+        int slot = refPos & mask;
+        int[] cnt = slotCounts.counts;
+        slotCounts.depth = depth[slot];
+        System.arraycopy(counts, slot * BASE_CODES, cnt, 0, BASE_CODES);
+        slotCounts.forwardT = forwardT[slot];
+        slotCounts.reverseA = reverseA[slot];
+        slotCounts.weightT = weightT[slot];
+        slotCounts.weightA = weightA[slot];
+        slotCounts.upvoteC = upvoteC[slot];
+        slotCounts.upvoteG = upvoteG[slot];
+        System.arraycopy(qualityCounts, slot * BASE_CODES, slotCounts.qualityCounts, 0, BASE_CODES);
+
+        consensusSequence.append(calling.callCounts(contig, refPos, calling.getRefBase(refPos), slotCounts,
+                variantCalls));
+        calling.checkpoint(consensusSequence, variantCalls);
+        clear(slot);
+    }
+
+
+    /**
+     * Resets the accumulators of a slot
+     * @param slot Index in the accumulators
+     */
+    private void clear(int slot) {
+        depth[slot] = 0;
+        Arrays.fill(counts, slot * BASE_CODES, slot * BASE_CODES + BASE_CODES, 0);
+        forwardT[slot] = 0;
+        reverseA[slot] = 0;
+        weightT[slot] = 0.0;
+        weightA[slot] = 0.0;
+        upvoteC[slot] = 0.0;
+        upvoteG[slot] = 0.0;
+        Arrays.fill(qualityCounts, slot * BASE_CODES, slot * BASE_CODES + BASE_CODES, 0.0);
+    }
+
+
+    /**
+     * Grows the sliding window so that it spans all positions from the next uncalled position to the given end
+     * @param end Last 1-based position that has to fit into the window
+     */
+    private void ensureCapacity(int end) {
+        if (end - nextPosition < mask) {
+            return;
+        }
+        int capacity = mask + 1;
+        while (end - nextPosition >= capacity - 1) {
+            capacity *= 2;
+        }
+        int newMask = capacity - 1;
+        int[] newDepth = new int[capacity];
+        int[] newCounts = new int[capacity * BASE_CODES];
+        int[] newForwardT = new int[capacity];
+        int[] newReverseA = new int[capacity];
+        double[] newWeightT = new double[capacity];
+        double[] newWeightA = new double[capacity];
+        double[] newUpvoteC = new double[capacity];
+        double[] newUpvoteG = new double[capacity];
+        double[] newQualityCounts = new double[capacity * BASE_CODES];
+
+        // Move all positions of the current window to their new slots
+        for (int pos = nextPosition; pos <= windowEnd; pos++) {
+            int from = pos & mask;
+            int to = pos & newMask;
+            newDepth[to] = depth[from];
+            System.arraycopy(counts, from * BASE_CODES, newCounts, to * BASE_CODES, BASE_CODES);
+            newForwardT[to] = forwardT[from];
+            newReverseA[to] = reverseA[from];
+            newWeightT[to] = weightT[from];
+            newWeightA[to] = weightA[from];
+            newUpvoteC[to] = upvoteC[from];
+            newUpvoteG[to] = upvoteG[from];
+            System.arraycopy(qualityCounts, from * BASE_CODES, newQualityCounts, to * BASE_CODES, BASE_CODES);
+        }
+
+        mask = newMask;
+        depth = newDepth;
+        counts = newCounts;
+        forwardT = newForwardT;
+        reverseA = newReverseA;
+        weightT = newWeightT;
+        weightA = newWeightA;
+        upvoteC = newUpvoteC;
+        upvoteG = newUpvoteG;
+        qualityCounts = newQualityCounts;
+    }
+}
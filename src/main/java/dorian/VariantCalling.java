@@ -1,7 +1,6 @@
 package dorian;
 
 import datastructure.AlleleCount;
-import datastructure.Fasta;
 import htsjdk.variant.variantcontext.Allele;
 import htsjdk.variant.variantcontext.GenotypeBuilder;
 import htsjdk.variant.variantcontext.VariantContext;
@@ -13,33 +12,59 @@ import java.util.List;
 import java.util.Map;
 import java.util.stream.IntStream;
 
-import static dorian.dorian.cor_mode;
-
 public class VariantCalling {
 
     /**
      * Calls a variant
      *
      * @param baseFreq    Map of base and base frequencies
-     * @param ref         Reference genome
+     * @param contig      Name of the reference sequence in the VCF
+     * @param ref_base    Reference base at the position
      * @param ref_pos     1-based position in reference genome
-     * @param sample_name Name of the sample
+     * @param sample_name Name of the sample in the VCF (incl. correction mode)
      * @return Variant for given reference position
      */
-    public static VariantContext makeVariantCall(Map<Character, Double> baseFreq, Fasta ref, int ref_pos, String sample_name) {
+    public static VariantContext makeVariantCall(Map<Character, Double> baseFreq, String contig, char ref_base,
+                                                 int ref_pos, String sample_name) {
+
+        return makeVariantCall(getAlleleCounts(baseFreq, ref_base), contig, ref_pos, sample_name);
+    }
 
-        AlleleCount alleles_counts = getAlleleCounts(baseFreq, ref.getSequence().charAt(ref_pos - 1));
 
+    /**
+     * Calls a variant from alleles that have already been counted
+     *
+     * @param alleles_counts Alleles and their counts, reference allele first
+     * @param contig         Name of the reference sequence in the VCF
+     * @param ref_pos        1-based position in reference genome
+     * @param sample_name    Name of the sample in the VCF (incl. correction mode)
+     * @return Variant for given reference position
+     */
+    public static VariantContext makeVariantCall(AlleleCount alleles_counts, String contig, int ref_pos,
+                                                 String sample_name) {
         // Build Genotype from base_counts
-        GenotypeBuilder genotype = new GenotypeBuilder(sample_name + "_" + cor_mode.getShortName());
-        genotype.alleles(alleles_counts.getAlleles());
+        GenotypeBuilder genotype = new GenotypeBuilder(sample_name);
         genotype.AD(alleles_counts.getCounts());
         genotype.DP(IntStream.of(alleles_counts.getCounts()).sum());
-        genotype.noGQ();
-        genotype.noPL();
-
-        // Create contig name for reference
-        String contig = ref.getHeader().split(" ")[0].replace(">", "");
+        double[] likelihoods = alleles_counts.getLikelihoods();
+        if (likelihoods == null) {
+            genotype.alleles(alleles_counts.getAlleles());
+            genotype.noGQ();
+            genotype.noPL();
+        } else {
+            // Haploid genotype of the most likely allele
+            int[] pl = GenotypeLikelihoods.toPL(likelihoods);
+            int best = 0;
+            for (int i = 1; i < pl.length; i++) {
+                if (pl[i] < pl[best]) {
+                    best = i;
+                }
+            }
+            genotype.alleles(List.of(alleles_counts.getAlleles().get(best)));
+            genotype.attribute("GL", likelihoods);
+            genotype.PL(pl);
+            genotype.GQ(alleles_counts.getQuality());
+        }
 
         // Create VariantContext from genotype
         VariantContextBuilder variant = new VariantContextBuilder();
@@ -61,7 +86,7 @@ public class VariantCalling {
      * @param ref         Reference base
      * @return List of Alleles and allele counts in same order
      */
-    private static AlleleCount getAlleleCounts(Map<Character, Double> base_counts, Character ref) {
+    public static AlleleCount getAlleleCounts(Map<Character, Double> base_counts, Character ref) {
         // Initialise datastructures
         List<Allele> alleles = new ArrayList<>();
         List<Integer> count_list = new LinkedList<>();
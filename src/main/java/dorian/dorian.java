@@ -3,23 +3,24 @@ package dorian;
 import cli.CLIParser;
 import datastructure.CorrectionMode;
 import datastructure.Fasta;
-import datastructure.ReturnTuple;
-import htsjdk.variant.variantcontext.VariantContext;
-import htsjdk.variant.vcf.VCFHeader;
+import datastructure.MisincorporationCounts;
+import datastructure.ReconstructionConfig;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import utils.FastaIO;
-import utils.VCFFileWriter;
+import utils.LogWriter;
+import utils.ShardPlan;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 
-import static dorian.BaseCalling.consensusCalling;
-
 /**
  * @author Meret Häusler
  * @version 3.0
@@ -29,13 +30,37 @@ public class dorian {
     public static Logger logger = LogManager.getLogger(dorian.class.getName());
     public static Logger file_logger = LogManager.getLogger("file." + dorian.class.getName());
     public static Logger roi_tab = LogManager.getLogger("roi." + dorian.class.getName());
-    public static CorrectionMode cor_mode;
-    public static List<Double> dp5;
-    public static List<Double> dp3;
-    public static double freq;
-    public static int cov;
-
     public static void main(String[] args) throws Exception {
+        // Server mode
+        if (args.length > 0 && args[0].equals("serve")) {
+            DorianServer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        // Re-calling from saved counts
+        if (args.length > 0 && args[0].equals("recall")) {
+            Recall.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        // Splitting the reference into shards
+        if (args.length > 0 && args[0].equals("scatter")) {
+            Scatter.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        // Querying a count matrix
+        if (args.length > 0 && args[0].equals("matrix")) {
+            MatrixQuery.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        // Synthetic reference and BAM file for benchmarks
+        if (args.length > 0 && args[0].equals("simulate")) {
+            Simulate.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        // Merging the shards, takes the options of the shard runs
+        boolean gather = args.length > 0 && args[0].equals("gather");
+        if (gather) {
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
 
         // LOGGING //
         Date log_date = new Date();
@@ -47,39 +72,98 @@ public class dorian {
         // PARSING INPUT FILES //
         CLIParser cli_parser = new CLIParser(args);
 
-        // BAM file
-        File reads = cli_parser.BAM;
+        // BAM files
+        List<File> reads = cli_parser.BAMS;
         // Correction mode
-        cor_mode = cli_parser.COR_MODE;
+        CorrectionMode cor_mode = cli_parser.COR_MODE;
         // Damage profiles
-        dp5 = cor_mode.needsDP() ? cli_parser.DP5 : dp5;
-        dp3 = cor_mode.needsDP() ? cli_parser.DP3 : dp3;
+        List<Double> dp5 = cor_mode.needsDP() ? cli_parser.DP5 : null;
+        List<Double> dp3 = cor_mode.needsDP() ? cli_parser.DP3 : null;
         // Output directory
         Path out_path = cli_parser.OUT;
-        // Minimal Coverage
-        cov = cli_parser.MIN_COV;
-        // Minimal Frequency
-        freq = cli_parser.MIN_FREQ;
         // Reference
         Fasta ref = cli_parser.REF;
         // Sample name
         String sample_name = cli_parser.SAMPLE_NAME;
+        // Threads for reading the BAM file
+        int threads = cli_parser.THREADS;
+        // Shard plan of shard runs and gathering
+        int shard = cli_parser.SHARD;
+        ShardPlan plan = null;
+        if (shard > 0 || gather) {
+            try {
+                if (gather && (shard > 0 || cli_parser.CHECKPOINT > 0 || cli_parser.SAVE_COUNTS)) {
+                    throw new IOException("Gathering takes the options of the shard runs, without -sh, -cp or -sc.");
+                }
+                plan = ShardPlan.read(out_path);
+                List<String> bams = new ArrayList<>();
+                reads.forEach(file -> bams.add(file.getAbsolutePath()));
+                if (!plan.getBams().equals(bams)) {
+                    throw new IOException("Shard plan in " + out_path + " was written for "
+                            + String.join(", ", plan.getBams()) + ".");
+                }
+                if (shard > plan.getShards()) {
+                    throw new IOException("Shard " + shard + " is not in the shard plan of " + plan.getShards()
+                            + " shards.");
+                }
+            } catch (IOException e) {
+                logger.error(e.getMessage());
+                file_logger.error(e.getMessage());
+                System.exit(-1);
+            }
+            if (gather) {
+                file_logger.info("Gathered shards:\t" + plan.getShards());
+            }
+        }
 
 
-        // PREPARE LOG FILES //
-        if (cor_mode.equals(CorrectionMode.NO_COR)) {
-            file_logger.info("\nCalls:");
-            file_logger.info("CHROM\tPOS\tREF\tCOV\tALLELE_COUNTS\tBASE_CALL\tBASE_FREQ");
+        // ESTIMATE DAMAGE PROFILES //
+        if (cor_mode.needsDP() && cli_parser.ESTIMATE_DP) {
+            logger.info("Estimating damage profiles from " + sample_name);
+            MisincorporationCounts misincorporations = DamageEstimation.countMisincorporations(reads, ref,
+                    DamageEstimation.SAMPLE_SIZE, threads);
+            Path dp5_file = Path.of(out_path + "/" + sample_name + "_5p_freq_misincorporations.txt");
+            Path dp3_file = Path.of(out_path + "/" + sample_name + "_3p_freq_misincorporations.txt");
+            DamageEstimation.writeProfile(misincorporations, MisincorporationCounts.FIVE_PRIME, dp5_file);
+            DamageEstimation.writeProfile(misincorporations, MisincorporationCounts.THREE_PRIME, dp3_file);
+            dp5 = DamageEstimation.getProfile(misincorporations, MisincorporationCounts.FIVE_PRIME);
+            dp3 = DamageEstimation.getProfile(misincorporations, MisincorporationCounts.THREE_PRIME);
+            logger.info("Damage profiles estimated from " + misincorporations.getReads() + " reads:\n\t\t\t\t\t\t\t\t\t\t\t "
+                    + dp5_file + "\n\t\t\t\t\t\t\t\t\t\t\t " + dp3_file + "\n");
+            file_logger.info("Estimated profiles:\t" + dp5_file + "\n\t\t\t\t\t" + dp3_file
+                    + "\n\t\t\t\t\t(" + misincorporations.getReads() + " reads)");
+        }
+
+        // Reconstruction parameters
+        ReconstructionConfig.Builder config = ReconstructionConfig.builder()
+                .corMode(cor_mode)
+                .minCov(cli_parser.MIN_COV)
+                .minFreq(cli_parser.MIN_FREQ)
+                .damageProfiles(dp5, dp3)
+                .baseQuality(cli_parser.BASE_QUALITY)
+                .threads(threads)
+                .streaming(cli_parser.STREAMING)
+                .maxDepth(cli_parser.MAX_DEPTH)
+                .mergeOverlaps(cli_parser.MERGE_OVERLAPS)
+                .saveCounts(cli_parser.SAVE_COUNTS)
+                .countMatrix(cli_parser.COUNT_MATRIX_DIR)
+                .genotypeLikelihoods(cli_parser.LIKELIHOOD_PHRED)
+                .consensusStorage(cli_parser.CONSENSUS_STORAGE_TYPE)
+                .checkpoint(cli_parser.CHECKPOINT, cli_parser.RESUME)
+                .maxMemory(cli_parser.MAX_MEMORY_BYTES)
+                .shard(shard, shard > 0 ? plan.getSize() : 0);
+        // Libraries with their own damage profiles
+        for (String read_group : cli_parser.RG_DP5.keySet()) {
+            config.readGroupProfiles(read_group, cli_parser.RG_DP5.get(read_group), cli_parser.RG_DP3.get(read_group));
         }
+        ReconstructionEngine engine = new ReconstructionEngine(config.build());
+        String output_name = engine.getOutputName(sample_name);
+
+
+        // PREPARE LOG FILES //
+        LogWriter.logHeader(cor_mode).forEach(file_logger::info);
         if (!cor_mode.equals(CorrectionMode.NO_COR)) {
-            file_logger.info("\nCorrected positions:");
-            file_logger.info("CHROM\tPOS\tREF\tCOV\tALLELE_COUNTS_PRIOR\tALLELE_COUNTS_CORRECTED\tBASE_CALL\tBASE_FREQ");
-
-            roi_tab.info("#CHROM=chromosome or scaffold name");
-            roi_tab.info("#ROI_START=0-based start position of ROI");
-            roi_tab.info("#ROI_END=1-based end position of ROI");
-            roi_tab.info("#CORRECTED_POS=1-based position that were corrected");
-            roi_tab.info("#CHROM\tROI_START\tROI_END\tCORRECTED_POS");
+            LogWriter.roiHeader().forEach(roi_tab::info);
         }
 
 
@@ -89,29 +173,58 @@ public class dorian {
 
 
         // MAIN PROGRAMME //
-        //Add BaseCalling call and resolve returns
-        ReturnTuple BaseCallingOut = consensusCalling(reads, cov, freq, ref, sample_name);
-        StringBuilder consensus_sequence = BaseCallingOut.getSeq();
-        List<VariantContext> variant_calls = BaseCallingOut.getVariants();
-
+        // Reconstruct and write Fasta and VCF output
+        try {
+            if (gather) {
+                engine.gatherToFiles(reads, ref, sample_name, out_path, plan, file_logger::info, roi_tab::info);
+            } else {
+                engine.reconstructToFiles(reads, ref, sample_name, out_path, file_logger::info, roi_tab::info);
+            }
+        } catch (UncheckedIOException e) {
+            // Output files that cannot be written during the base calling, e.g. checkpoints or spilled calls
+            updatingMessage.interrupt();
+            logger.error(e.getCause().getMessage());
+            file_logger.error(e.getCause().getMessage());
+            System.exit(-1);
+        } catch (IOException e) {
+            updatingMessage.interrupt();
+            logger.error(e.getMessage());
+            file_logger.error(e.getMessage());
+            System.exit(-1);
+        } catch (RuntimeException e) {
+            // E.g. a corrupt BAM file found by the reader threads
+            updatingMessage.interrupt();
+            String message = e.getMessage() == null ? e.toString() : e.getMessage();
+            logger.error(message, e);
+            file_logger.error(message);
+            System.exit(-1);
+        }
+        String fasta_path = out_path + "/" + output_name + ".fasta";
+        String vcf_out = out_path + "/" + output_name + ".vcf";
 
-        // OUTPUT //
-        // Define Fasta output
-        Fasta consensus_record = new Fasta(">" + sample_name + "_" + cor_mode.getShortName(), consensus_sequence.toString());
-        String fasta_path = out_path.toString() + "/" + sample_name + "_" + cor_mode.getShortName() + ".fasta";
-        FastaIO.writeFasta(consensus_record, fasta_path);
+        // A shard keeps its results for gathering, only its log is moved to the output directory
+        if (shard > 0) {
+            String shard_log = out_path + "/" + time_stamp + "_" + output_name + "_shard" + shard + ".log";
+            Files.move(Path.of("file.log"), Path.of(shard_log));
+            Files.deleteIfExists(Path.of("roi.bed"));
+            updatingMessage.interrupt();
+            System.out.println("\rDORIAN completed shard " + shard + " of " + plan.getShards() + ".\n");
+            logger.info("Log file written to: " + shard_log);
+            return;
+        }
 
-        // Define vcf output
-        String vcf_out = out_path + "/" + sample_name + "_" + cor_mode.getShortName() + ".vcf";
-        VCFHeader vcf_header = VCFFileWriter.defaultHeader(ref, sample_name + "_" + cor_mode.getShortName());
-        VCFFileWriter.writeVCFFile(vcf_out, vcf_header, variant_calls);
 
+        // OUTPUT //
         // Move log file and ROI to output directory
         Files.move(Path.of("file.log"),
-                Path.of(out_path + "/" + time_stamp + "_" + sample_name + "_" + cor_mode.getShortName() + ".log"));
+                Path.of(out_path + "/" + time_stamp + "_" + output_name + ".log"));
         if (!cor_mode.equals(CorrectionMode.NO_COR)) {
             Files.move(Path.of("roi.bed"),
-                    Path.of(out_path + "/" + time_stamp + "_" + sample_name + "_" + cor_mode.getShortName() + ".bed"));
+                    Path.of(out_path + "/" + time_stamp + "_" + output_name + ".bed"));
+        }
+        // The shard results are only removed once all gathered files are written
+        if (gather) {
+            engine.deleteShards(sample_name, out_path, plan);
         }
 
 
@@ -124,12 +237,13 @@ public class dorian {
         logger.info("Result files:");
         logger.info("Corrected variants written to: " + vcf_out);
         logger.info("Reconstructed genome written to: " + fasta_path);
-        logger.info("Log file written to: " + out_path + "/" + time_stamp + "_" + sample_name + "_" + cor_mode.getShortName() + ".log");
+        logger.info("QC report written to: " + out_path + "/" + output_name + "_qc.tsv");
+        logger.info("Log file written to: " + out_path + "/" + time_stamp + "_" + output_name + ".log");
 
         // If exists, print ROI file path
         if (!cor_mode.equals(CorrectionMode.NO_COR)) {
             logger.info("ROI table (IGV format) for corrected variants written to: " +
-                    out_path + "/" + time_stamp + "_" + sample_name + "_" + cor_mode.getShortName() + ".bed");
+                    out_path + "/" + time_stamp + "_" + output_name + ".bed");
         }
     }
 
@@ -154,6 +268,8 @@ public class dorian {
             }
         });
 
+        // Does not keep the JVM alive if the main programme fails
+        updatingMessage.setDaemon(true);
         updatingMessage.start();
         return updatingMessage;
     }
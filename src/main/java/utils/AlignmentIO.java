@@ -0,0 +1,88 @@
+package utils;
+
+import datastructure.Fasta;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Opens alignment files (SAM, BAM or CRAM) and resolves the alignment files of a sample.
+ *
+ * @author Meret Häusler
+ * @version 1.0
+ * @since 2024-09-09
+ */
+public class AlignmentIO {
+
+    /**
+     * Opens an alignment file. CRAM files are decoded against the already loaded reference.
+     * @param reads Alignment file
+     * @param ref   Reference as Fasta object
+     * @return  SamReader for the alignment file
+     */
+    public static SamReader openReader(File reads, Fasta ref) {
+        return SamReaderFactory.makeDefault()
+                .referenceSource(new FastaReferenceSource(ref))
+                .open(reads);
+    }
+
+
+    /**
+     * Resolves the alignment files of a sample. A file ending in .list or .txt is read as a list of alignment files
+     * with one path per line; empty lines and lines starting with '#' are skipped and relative paths are resolved
+     * against the directory of the list.
+     * @param paths Alignment files or lists of alignment files
+     * @return  Alignment files in the given order
+     * @throws IOException If a file does not exist, cannot be read or is given twice
+     */
+    public static List<File> resolveFiles(String[] paths) throws IOException {
+        List<File> files = new ArrayList<>();
+        for (String path : paths) {
+            File file = new File(path);
+            if (!file.exists()) {
+                throw new IOException("File " + file + " does not exist.");
+            }
+            if (!path.endsWith(".list") && !path.endsWith(".txt")) {
+                addFile(files, file);
+                continue;
+            }
+            Path dir = file.toPath().toAbsolutePath().getParent();
+            for (String line : Files.readAllLines(file.toPath())) {
+                line = line.strip();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                File listed = dir.resolve(line).normalize().toFile();
+                if (!listed.exists()) {
+                    throw new IOException("File " + listed + " of " + file + " does not exist.");
+                }
+                addFile(files, listed);
+            }
+        }
+        if (files.isEmpty()) {
+            throw new IOException("No alignment files given.");
+        }
+        return files;
+    }
+
+
+    /**
+     * @param files Alignment files resolved so far
+     * @param file  Next alignment file
+     * @throws IOException If the file has been given before, which would count its reads twice
+     */
+    private static void addFile(List<File> files, File file) throws IOException {
+        for (File other : files) {
+            if (Files.isSameFile(other.toPath(), file.toPath())) {
+                throw new IOException("File " + file + " is given twice.");
+            }
+        }
+        files.add(file);
+    }
+}
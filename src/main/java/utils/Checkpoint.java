@@ -0,0 +1,347 @@
+package utils;
+
+import datastructure.ConsensusBuffer;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFHeader;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Periodic checkpoints of a reconstruction run. The reference sequence is split into intervals of a fixed size;
+ * as soon as the last position of an interval is called, its consensus bases, VCF records, log and ROI lines
+ * and QC statistics are written to chunk files and the interval is added to a progress manifest. A resumed run continues behind
+ * the last finished interval, and the final output files are rebuilt by concatenating the chunks.
+ *
+ * @author Meret Häusler
+ * @version 1.0
+ * @since 2024-09-18
+ */
+public class Checkpoint {
+    private static final String MANIFEST = "progress.tsv";
+    private static final String PARAMS = "#params";
+    private static final String DONE = "done";
+
+    private final Path dir;
+    private final int intervalSize;
+    private final VCFHeader vcfHeader;
+
+    // Finished intervals as 1-based [start, end]
+    private final List<int[]> intervals = new ArrayList<>();
+    private boolean complete = false;
+    private int chunkStart;
+
+    // Log and ROI lines of the current interval
+    private final StringBuilder logChunk = new StringBuilder();
+    private final StringBuilder roiChunk = new StringBuilder();
+    // Variant calls of the current interval that have been spilled to disk, null without memory budget
+    private SpillManager spill;
+
+
+    /**
+     * Opens the checkpoint directory. Without resume, an existing checkpoint is discarded.
+     * @param dir           Checkpoint directory
+     * @param intervalSize  Number of positions per interval
+     * @param params        Run parameters; a checkpoint can only be resumed with identical parameters
+     * @param vcfHeader     Header of the VCF output
+     * @param resume        If true, finished intervals of an existing checkpoint are kept
+     * @throws IOException  If the directory cannot be written or belongs to a run with different parameters
+     */
+    public Checkpoint(Path dir, int intervalSize, String params, VCFHeader vcfHeader, boolean resume)
+            throws IOException {
+        this(dir, intervalSize, params, vcfHeader, resume, 1);
+    }
+
+
+    /**
+     * Opens the checkpoint directory of a run that starts at a later position, e.g. a shard.
+     * Intervals end at multiples of the interval size.
+     * @param dir           Checkpoint directory
+     * @param intervalSize  Number of positions per interval
+     * @param params        Run parameters; a checkpoint can only be resumed with identical parameters
+     * @param vcfHeader     Header of the VCF output
+     * @param resume        If true, finished intervals of an existing checkpoint are kept
+     * @param start         First 1-based position of the run
+     * @throws IOException  If the directory cannot be written or belongs to a run with different parameters
+     */
+    public Checkpoint(Path dir, int intervalSize, String params, VCFHeader vcfHeader, boolean resume, int start)
+            throws IOException {
+        this.dir = dir;
+        this.chunkStart = start;
+        this.intervalSize = intervalSize;
+        this.vcfHeader = vcfHeader;
+        Path manifest = dir.resolve(MANIFEST);
+
+        if (resume && Files.exists(manifest)) {
+            List<String> lines = Files.readAllLines(manifest);
+            if (lines.isEmpty() || !lines.get(0).equals(PARAMS + "\t" + params)) {
+                throw new IOException("Checkpoint in " + dir + " was written with different parameters.");
+            }
+            // Read finished intervals
+            for (String line : lines.subList(1, lines.size())) {
+                if (line.equals(DONE)) {
+                    complete = true;
+                } else if (!line.isBlank()) {
+                    String[] fields = line.split("\t");
+                    intervals.add(new int[]{Integer.parseInt(fields[0]), Integer.parseInt(fields[1])});
+                }
+            }
+            if (!intervals.isEmpty()) {
+                chunkStart = intervals.get(intervals.size() - 1)[1] + 1;
+            }
+        } else {
+            // Start a new checkpoint
+            delete();
+            Files.createDirectories(dir);
+            Files.writeString(manifest, PARAMS + "\t" + params + "\n");
+        }
+    }
+
+
+    /**
+     * @return Checkpoint directory
+     */
+    public Path getDir() {
+        return dir;
+    }
+
+
+    /**
+     * @param spill Spill manager holding the variant calls of the current interval that exceed the memory budget;
+     *              they are written in front of the calls in memory when the interval is finished
+     */
+    public void setSpill(SpillManager spill) {
+        this.spill = spill;
+    }
+
+
+    /**
+     * @param dir   Checkpoint directory
+     * @return True if a checkpoint has been started in the directory
+     */
+    public static boolean exists(Path dir) {
+        return Files.exists(dir.resolve(MANIFEST));
+    }
+
+
+    /**
+     * @return First 1-based position that has not been checkpointed
+     */
+    public int getStart() {
+        return chunkStart;
+    }
+
+
+    /**
+     * @return True if all positions of the run have been checkpointed
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+
+    /**
+     * @param line Log line of the current interval
+     */
+    public void addLog(String line) {
+        logChunk.append(line).append('\n');
+    }
+
+
+    /**
+     * @param line ROI line of the current interval
+     */
+    public void addRoi(String line) {
+        roiChunk.append(line).append('\n');
+    }
+
+
+    /**
+     * Has to be called after each base call. If the call completes an interval, the interval is written to disk
+     * and the sequence and variant calls are cleared.
+     * @param seq       Consensus sequence since the start of the current interval
+     * @param variants  Variant calls since the start of the current interval
+     * @param qc            QC statistics since the start of the current interval
+     * @param downsampling  Downsampling statistics since the start of the current interval
+     * @throws IOException If the chunk files cannot be written
+     */
+    public void positionCalled(ConsensusBuffer seq, List<VariantContext> variants, QCStats qc,
+                               DownsamplingStats downsampling) throws IOException {
+        int pos = chunkStart + seq.length() - 1;
+        if (pos % intervalSize == 0) {
+            writeChunk(pos, seq, variants, qc, downsampling);
+        }
+    }
+
+
+    /**
+     * Writes the last, possibly shorter interval and marks the run as complete
+     * @param seq       Consensus sequence since the start of the current interval
+     * @param variants  Variant calls since the start of the current interval
+     * @param qc            QC statistics since the start of the current interval
+     * @param downsampling  Downsampling statistics since the start of the current interval
+     * @throws IOException If the chunk files cannot be written
+     */
+    public void finish(ConsensusBuffer seq, List<VariantContext> variants, QCStats qc,
+                       DownsamplingStats downsampling) throws IOException {
+        if (!seq.isEmpty()) {
+            writeChunk(chunkStart + seq.length() - 1, seq, variants, qc, downsampling);
+        }
+        Files.writeString(dir.resolve(MANIFEST), DONE + "\n", StandardOpenOption.APPEND);
+        complete = true;
+    }
+
+
+    /**
+     * Appends the consensus sequence of all finished intervals
+     * @param seq   Buffer to append to
+     * @throws IOException If a chunk file cannot be read
+     */
+    public void readSequence(ConsensusBuffer seq) throws IOException {
+        for (int[] interval : intervals) {
+            seq.append(Files.readString(chunk(interval, ".fasta")));
+        }
+    }
+
+
+    /**
+     * @return VCF record chunks of all finished intervals in order
+     */
+    public List<Path> getVCFChunks() {
+        return intervals.stream().map(interval -> chunk(interval, ".vcf")).toList();
+    }
+
+
+    /**
+     * @return Log lines of all finished intervals
+     * @throws IOException If a chunk file cannot be read
+     */
+    public List<String> readLog() throws IOException {
+        return readLines(".log");
+    }
+
+
+    /**
+     * @return ROI lines of all finished intervals
+     * @throws IOException If a chunk file cannot be read
+     */
+    public List<String> readRoi() throws IOException {
+        return readLines(".bed");
+    }
+
+
+    /**
+     * Adds the QC statistics of all finished intervals
+     * @param qc    QC statistics to add to
+     * @throws IOException If a chunk file cannot be read
+     */
+    public void readQC(QCStats qc) throws IOException {
+        for (int[] interval : intervals) {
+            qc.readChunk(chunk(interval, ".qc"));
+        }
+    }
+
+
+    /**
+     * Adds the downsampling statistics of all finished intervals
+     * @param downsampling  Downsampling statistics to add to
+     * @throws IOException If a chunk file cannot be read
+     */
+    public void readDownsampling(DownsamplingStats downsampling) throws IOException {
+        for (int[] interval : intervals) {
+            downsampling.readChunk(chunk(interval, ".ds"));
+        }
+    }
+
+
+    /**
+     * Removes the checkpoint directory
+     * @throws IOException If a file cannot be deleted
+     */
+    public void delete() throws IOException {
+        delete(dir);
+    }
+
+
+    /**
+     * Removes a checkpoint directory, e.g. of a gathered shard
+     * @param dir Directory of the checkpoint
+     * @throws IOException If a file cannot be deleted
+     */
+    public static void delete(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+
+    /**
+     * Writes the chunk files of an interval and adds it to the manifest. The manifest is written last,
+     * so an interval interrupted while writing is recalculated on resume.
+     * @param end       Last 1-based position of the interval
+     * @param seq       Consensus sequence of the interval
+     * @param variants  Variant calls of the interval
+     * @param qc            QC statistics of the interval
+     * @param downsampling  Downsampling statistics of the interval
+     * @throws IOException If the chunk files cannot be written
+     */
+    private void writeChunk(int end, ConsensusBuffer seq, List<VariantContext> variants, QCStats qc,
+                            DownsamplingStats downsampling) throws IOException {
+        int[] interval = new int[]{chunkStart, end};
+        Files.writeString(chunk(interval, ".fasta"), seq);
+        if (spill != null) {
+            spill.writeRecords(chunk(interval, ".vcf"), variants);
+        } else {
+            VCFFileWriter.writeVCFRecords(chunk(interval, ".vcf"), vcfHeader, variants);
+        }
+        Files.writeString(chunk(interval, ".log"), logChunk);
+        Files.writeString(chunk(interval, ".bed"), roiChunk);
+        qc.writeChunk(chunk(interval, ".qc"));
+        downsampling.writeChunk(chunk(interval, ".ds"));
+        Files.writeString(dir.resolve(MANIFEST), chunkStart + "\t" + end + "\n", StandardOpenOption.APPEND);
+
+        intervals.add(interval);
+        chunkStart = end + 1;
+        seq.clear();
+        variants.clear();
+        logChunk.setLength(0);
+        roiChunk.setLength(0);
+        qc.clear();
+        downsampling.clear();
+    }
+
+
+    /**
+     * @param extension Extension of the chunk files
+     * @return Lines of the chunk files of all finished intervals
+     * @throws IOException If a chunk file cannot be read
+     */
+    private List<String> readLines(String extension) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (int[] interval : intervals) {
+            lines.addAll(Files.readAllLines(chunk(interval, extension)));
+        }
+        return lines;
+    }
+
+
+    /**
+     * @param interval  1-based [start, end] of the interval
+     * @param extension Extension of the chunk file
+     * @return Path of the chunk file
+     */
+    private Path chunk(int[] interval, String extension) {
+        return dir.resolve(interval[0] + "-" + interval[1] + extension);
+    }
+}
@@ -0,0 +1,283 @@
+package utils;
+
+import datastructure.CountMatrixSlice;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Store of the corrected base counts of many samples at the positions of one reference sequence, e.g. for
+ * population analyses across hundreds of samples without parsing their VCF files. The sequence is split into
+ * blocks of equal size; every sample writes one compressed chunk per block with fixed-width columns (coverage,
+ * then corrected A, C, G and T counts of each position of the block). A query of a region and some samples only
+ * reads the chunks of these samples in the blocks overlapping the region.
+ * <pre>
+ * &lt;store&gt;/matrix.tsv
+ *   #sequence  &lt;name&gt;  &lt;length&gt;
+ *   #block     &lt;positions per block&gt;
+ *   #SAMPLE
+ *   &lt;sample&gt;
+ *   ...
+ * &lt;store&gt;/&lt;block&gt;/&lt;sample&gt;.gz
+ *   int n, int[n] coverage, float[n] A, float[n] C, float[n] G, float[n] T
+ * </pre>
+ * Chunks are written before the sample is added to the manifest, so samples are only visible once they are
+ * complete, and runs of different samples can append to the same store at the same time. A block without
+ * chunk of a sample has no coverage in this sample; chunks of a failed run are deleted when the sample is
+ * written again.
+ *
+ * @author Meret Häusler
+ * @version 1.0
+ * @since 2024-10-14
+ */
+public class CountMatrix {
+    public static final String FILE_NAME = "matrix.tsv";
+    public static final int BLOCK_SIZE = 65536;
+    static final int BASES = 4;
+
+    private final Path dir;
+    private final String sequenceName;
+    private final int length;
+    private final int blockSize;
+    private final List<String> samples;
+
+
+    /**
+     * @param dir           Store directory
+     * @param sequenceName  Name of the reference sequence
+     * @param length        Length of the reference sequence
+     * @param blockSize     Number of positions per block
+     * @param samples       Complete samples in the order they were added
+     */
+    private CountMatrix(Path dir, String sequenceName, int length, int blockSize, List<String> samples) {
+        this.dir = dir;
+        this.sequenceName = sequenceName;
+        this.length = length;
+        this.blockSize = blockSize;
+        this.samples = samples;
+    }
+
+
+    /**
+     * Opens a store, or creates it if the directory holds none
+     * @param dir           Store directory
+     * @param sequenceName  Name of the reference sequence
+     * @param length        Length of the reference sequence
+     * @return Store
+     * @throws IOException If the store cannot be created or was created for another reference sequence
+     */
+    public static CountMatrix openOrCreate(Path dir, String sequenceName, int length) throws IOException {
+        Files.createDirectories(dir);
+        Path file = dir.resolve(FILE_NAME);
+        if (!Files.exists(file)) {
+            // The manifest only appears once its header is complete, so concurrent runs never read a partial header
+            Path tmp = Files.createTempFile(dir, FILE_NAME, ".tmp");
+            try {
+                Files.writeString(tmp, "#sequence\t" + sequenceName + "\t" + length + "\n"
+                        + "#block\t" + BLOCK_SIZE + "\n#SAMPLE\n");
+                publish(tmp, file);
+            } catch (FileAlreadyExistsException e) {
+                // Created by a concurrent run
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        }
+        CountMatrix matrix = open(dir);
+        if (!matrix.sequenceName.equals(sequenceName) || matrix.length != length) {
+            throw new IOException(dir + " holds counts of " + matrix.sequenceName + " (" + matrix.length
+                    + " positions), not of " + sequenceName + " (" + length + " positions).");
+        }
+        return matrix;
+    }
+
+
+    /**
+     * Makes a complete manifest visible under its name. A hard link is created atomically and fails if a
+     * concurrent run published its manifest first; without hard links, the file is moved atomically.
+     * @param tmp   Complete manifest
+     * @param file  Manifest of the store
+     * @throws FileAlreadyExistsException If the store already has a manifest
+     * @throws IOException If the manifest cannot be published
+     */
+    private static void publish(Path tmp, Path file) throws IOException {
+        try {
+            Files.createLink(file, tmp);
+        } catch (UnsupportedOperationException e) {
+            if (Files.exists(file)) {
+                throw new FileAlreadyExistsException(file.toString());
+            }
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+
+    /**
+     * Opens an existing store
+     * @param dir   Store directory
+     * @return Store with the samples that were complete when it was opened
+     * @throws IOException If the directory holds no store
+     */
+    public static CountMatrix open(Path dir) throws IOException {
+        Path file = dir.resolve(FILE_NAME);
+        if (!Files.exists(file)) {
+            throw new IOException("No count matrix " + file + " found.");
+        }
+        List<String> lines = Files.readAllLines(file);
+        try {
+            String[] sequence = lines.get(0).split("\t");
+            String[] block = lines.get(1).split("\t");
+            if (!sequence[0].equals("#sequence") || !block[0].equals("#block") || !lines.get(2).equals("#SAMPLE")) {
+                throw new IllegalArgumentException();
+            }
+            List<String> samples = new ArrayList<>();
+            for (String line : lines.subList(3, lines.size())) {
+                if (!line.isEmpty()) {
+                    samples.add(line);
+                }
+            }
+            return new CountMatrix(dir, sequence[1], Integer.parseInt(sequence[2]), Integer.parseInt(block[1]),
+                    Collections.unmodifiableList(samples));
+        } catch (RuntimeException e) {
+            throw new IOException(file + " is not a count matrix.", e);
+        }
+    }
+
+
+    /**
+     * Reads the counts of some samples in a region
+     * @param start     First 1-based position of the region
+     * @param end       Last 1-based position of the region
+     * @param samples   Samples of the store
+     * @return Coverage and corrected counts of the samples at each position of the region
+     * @throws IOException If a chunk cannot be read
+     */
+    public CountMatrixSlice query(int start, int end, List<String> samples) throws IOException {
+        if (start < 1 || end > length || start > end) {
+            throw new IllegalArgumentException("Region " + start + "-" + end + " is not within 1-" + length + ".");
+        }
+        for (String sample : samples) {
+            if (!this.samples.contains(sample)) {
+                throw new IllegalArgumentException("Sample " + sample + " is not in the count matrix.");
+            }
+        }
+
+        CountMatrixSlice slice = new CountMatrixSlice(sequenceName, start, end, samples);
+        for (int s = 0; s < samples.size(); s++) {
+            for (int block = getBlock(start); block <= getBlock(end); block++) {
+                readChunk(block, samples.get(s), s, slice);
+            }
+        }
+        return slice;
+    }
+
+
+    /**
+     * Copies the positions of a chunk that lie in the region of the slice
+     * @param block     0-based index of the block
+     * @param sample    Sample of the store
+     * @param s         Index of the sample in the slice
+     * @param slice     Slice to fill
+     * @throws IOException If the chunk cannot be read
+     */
+    private void readChunk(int block, String sample, int s, CountMatrixSlice slice) throws IOException {
+        int blockStart = block * blockSize + 1;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(
+                Files.newInputStream(chunk(block, sample)), 1 << 16)))) {
+            int n = in.readInt();
+            // Positions of the chunk in the region
+            int from = Math.max(slice.getStart(), blockStart) - blockStart;
+            int to = Math.min(slice.getEnd(), blockStart + n - 1) - blockStart;
+
+            // Columns are read in full, as the chunk is decompressed sequentially anyway
+            for (int i = 0; i < n; i++) {
+                int coverage = in.readInt();
+                if (i >= from && i <= to) {
+                    slice.setCoverage(s, blockStart + i, coverage);
+                }
+            }
+            for (int b = 0; b < BASES; b++) {
+                for (int i = 0; i < n; i++) {
+                    float count = in.readFloat();
+                    if (i >= from && i <= to) {
+                        slice.setCount(s, blockStart + i, b, count);
+                    }
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // No reads of the sample in this block
+        }
+    }
+
+
+    /**
+     * Adds a sample whose chunks are written completely
+     * @param sample    Name of the sample
+     * @throws IOException If the manifest cannot be written
+     */
+    void addSample(String sample) throws IOException {
+        Files.writeString(dir.resolve(FILE_NAME), sample + "\n", StandardOpenOption.APPEND);
+    }
+
+
+    /**
+     * Deletes the chunks of a sample that is not in the store, e.g. left by a failed run
+     * @param sample    Name of the sample
+     * @throws IOException If a chunk cannot be deleted
+     */
+    void deleteChunks(String sample) throws IOException {
+        for (int block = 0; block <= getBlock(length); block++) {
+            Files.deleteIfExists(chunk(block, sample));
+        }
+    }
+
+
+    /**
+     * @param block     0-based index of the block
+     * @param sample    Name of the sample
+     * @return Chunk file of the sample in the block
+     */
+    Path chunk(int block, String sample) {
+        return dir.resolve(Integer.toString(block)).resolve(sample + ".gz");
+    }
+
+
+    /**
+     * @param pos   1-based position
+     * @return 0-based index of the block of the position
+     */
+    int getBlock(int pos) {
+        return (pos - 1) / blockSize;
+    }
+
+
+    // Getters
+    public String getSequenceName() {
+        return sequenceName;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * @return Complete samples in the order they were added
+     */
+    public List<String> getSamples() {
+        return samples;
+    }
+}
@@ -0,0 +1,115 @@
+package utils;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Appends the corrected base counts of one sample to a count matrix. Positions are added in order; whenever
+ * a position lies in a new block, the previous block is written as chunk of the sample. Blocks without covered
+ * positions are not written. The sample becomes visible in the store once finish is called.
+ *
+ * @author Meret Häusler
+ * @version 1.0
+ * @since 2024-10-14
+ */
+public class CountMatrixWriter {
+    private static final char[] BASES = {'A', 'C', 'G', 'T'};
+
+    private final CountMatrix matrix;
+    private final String sample;
+
+    // Columns of the current block
+    private int block = -1;
+    private boolean covered = false;
+    private final int[] coverage;
+    private final float[][] counts = new float[CountMatrix.BASES][];
+
+
+    /**
+     * @param matrix    Opened count matrix
+     * @param sample    Name of the sample in the store
+     * @throws IOException If the sample is already in the store, or chunks of a failed run cannot be deleted
+     */
+    public CountMatrixWriter(CountMatrix matrix, String sample) throws IOException {
+        if (matrix.getSamples().contains(sample)) {
+            throw new IOException("Sample " + sample + " is already in the count matrix.");
+        }
+        // Blocks without covered positions are not written and must not keep chunks of an earlier, failed run
+        matrix.deleteChunks(sample);
+        this.matrix = matrix;
+        this.sample = sample;
+        this.coverage = new int[matrix.getBlockSize()];
+        for (int b = 0; b < CountMatrix.BASES; b++) {
+            counts[b] = new float[matrix.getBlockSize()];
+        }
+    }
+
+
+    /**
+     * Adds the counts of a position
+     * @param refPos        1-based reference position, larger than the previous one
+     * @param cov           Number of mapping reads at the position
+     * @param cntBasesCor   Base counts after correction
+     * @throws IOException If the chunk of the previous block cannot be written
+     */
+    public void add(int refPos, int cov, Map<Character, Double> cntBasesCor) throws IOException {
+        int posBlock = matrix.getBlock(refPos);
+        if (posBlock != block) {
+            writeBlock();
+            block = posBlock;
+        }
+        int i = refPos - 1 - block * matrix.getBlockSize();
+        coverage[i] = cov;
+        for (int b = 0; b < CountMatrix.BASES; b++) {
+            counts[b][i] = cntBasesCor.get(BASES[b]).floatValue();
+        }
+        covered |= cov > 0;
+    }
+
+
+    /**
+     * Writes the last block and adds the sample to the store
+     * @throws IOException If the chunk or the manifest cannot be written
+     */
+    public void finish() throws IOException {
+        writeBlock();
+        matrix.addSample(sample);
+    }
+
+
+    /**
+     * Writes the chunk of the current block if it has covered positions and clears the columns
+     * @throws IOException If the chunk cannot be written
+     */
+    private void writeBlock() throws IOException {
+        if (block < 0 || !covered) {
+            return;
+        }
+        int n = Math.min(matrix.getBlockSize(), matrix.getLength() - block * matrix.getBlockSize());
+        Path chunk = matrix.chunk(block, sample);
+        Files.createDirectories(chunk.getParent());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(
+                Files.newOutputStream(chunk), 1 << 16)))) {
+            out.writeInt(n);
+            for (int i = 0; i < n; i++) {
+                out.writeInt(coverage[i]);
+            }
+            for (int b = 0; b < CountMatrix.BASES; b++) {
+                for (int i = 0; i < n; i++) {
+                    out.writeFloat(counts[b][i]);
+                }
+            }
+        }
+        Arrays.fill(coverage, 0);
+        for (int b = 0; b < CountMatrix.BASES; b++) {
+            Arrays.fill(counts[b], 0f);
+        }
+        covered = false;
+    }
+}
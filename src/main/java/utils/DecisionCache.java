@@ -0,0 +1,103 @@
+package utils;
+
+import datastructure.BaseCounts;
+import datastructure.CallDecision;
+
+import java.text.DecimalFormat;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Direct-mapped cache of call decisions, keyed by the pileup signature of a position: reference base,
+ * base counts and strand-specific damage candidates. Without weighting, every read has weight 1.0 and
+ * the signature determines damage type, corrected counts and base call, so positions with a known
+ * signature skip the correction. The cache has a fixed number of slots; a new signature replaces the
+ * one in its slot.
+ *
+ * @author Meret Häusler
+ * @version 1.0
+ * @since 2024-10-01
+ */
+public class DecisionCache {
+    // Counts are packed with 8 bits each, deeper positions are not cached
+    public static final int MAX_DEPTH = 255;
+    private static final int SLOTS = 4096;
+
+    private final long[] keys = new long[SLOTS];
+    private final CallDecision[] decisions = new CallDecision[SLOTS];
+    private long hits = 0;
+    private long misses = 0;
+    private long uncached = 0;
+
+
+    public DecisionCache() {
+        Arrays.fill(keys, -1L);
+    }
+
+
+    /**
+     * @param refBase   Reference base at the position
+     * @param cnt       Aggregated reads of the position
+     * @return Signature of the position, -1 if the position is too deep to be cached
+     */
+    public long key(char refBase, BaseCounts cnt) {
+        if (cnt.depth > MAX_DEPTH) {
+            uncached++;
+            return -1L;
+        }
+        long key = refBase & 0x7f;
+        for (int count : cnt.counts) {
+            key = key << 8 | count;
+        }
+        return key << 16 | (long) cnt.forwardT << 8 | cnt.reverseA;
+    }
+
+
+    /**
+     * @param key Signature of a position
+     * @return Cached decision, null if the signature is not in the cache
+     */
+    public CallDecision get(long key) {
+        int slot = slot(key);
+        if (keys[slot] == key) {
+            hits++;
+            return decisions[slot];
+        }
+        misses++;
+        return null;
+    }
+
+
+    /**
+     * @param key       Signature of a position
+     * @param decision  Decision made for the signature
+     */
+    public void put(long key, CallDecision decision) {
+        int slot = slot(key);
+        keys[slot] = key;
+        decisions[slot] = decision;
+    }
+
+
+    /**
+     * @return Lines summarising the cache usage for the log file
+     */
+    public List<String> summary() {
+        DecimalFormat df = new DecimalFormat("#.####");
+        long lookups = hits + misses;
+        return List.of("\nDecision cache:",
+                "Cached decisions:\t\t" + hits,
+                "Computed decisions:\t\t" + misses,
+                "Uncached positions:\t\t" + uncached,
+                "Hit rate:\t\t\t\t" + df.format(lookups == 0 ? 0.0 : (double) hits / lookups));
+    }
+
+
+    /**
+     * @param key Signature of a position
+     * @return Slot of the signature
+     */
+    private static int slot(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 52);
+    }
+}
@@ -0,0 +1,174 @@
+package utils;
+
+import datastructure.PileupColumn;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.DecimalFormat;
+import java.util.List;
+
+/**
+ * Collects the effect of downsampling on the base frequencies of one reconstruction.
+ * For every downsampled position, the most frequent base of the full column is compared
+ * with its frequency in the kept reads (uncorrected counts, excl. N). Like the QC statistics,
+ * the statistics of every checkpoint interval are written to a chunk and added up on resume.
+ *
+ * @author Meret Häusler
+ * @version 1.0
+ * @since 2024-09-25
+ */
+public class DownsamplingStats {
+    private static final char[] BASES = {'A', 'C', 'G', 'T'};
+
+    private final int maxDepth;
+    private int positions = 0;
+    private int highestDepth = 0;
+    private int changedBase = 0;
+    private double sumShift = 0.0;
+    private double maxShift = 0.0;
+    private int maxShiftPos = 0;
+
+
+    /**
+     * @param maxDepth Maximal number of reads per position
+     */
+    public DownsamplingStats(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+
+    /**
+     * Adds a column to the statistics if it was downsampled
+     * @param column Pileup column after downsampling
+     */
+    public void add(PileupColumn column) {
+        if (column.getFullDepth() <= column.getDepth()) {
+            return;
+        }
+
+        // Count bases of the kept reads
+        int[] keptCounts = new int[BASES.length];
+        for (int i = 0; i < column.getDepth(); i++) {
+            for (int b = 0; b < BASES.length; b++) {
+                if (column.getBase(i) == BASES[b]) {
+                    keptCounts[b]++;
+                }
+            }
+        }
+        int[] fullCounts = column.getFullCounts();
+        int fullMajor = getMajor(fullCounts);
+        int fullSum = sum(fullCounts);
+        int keptSum = sum(keptCounts);
+        if (fullSum == 0 || keptSum == 0) {
+            return;
+        }
+
+        // Shift of the frequency of the most frequent base
+        double shift = Math.abs((double) keptCounts[fullMajor] / keptSum - (double) fullCounts[fullMajor] / fullSum);
+        positions++;
+        highestDepth = Math.max(highestDepth, column.getFullDepth());
+        sumShift += shift;
+        if (shift > maxShift) {
+            maxShift = shift;
+            maxShiftPos = column.getPosition();
+        }
+        if (getMajor(keptCounts) != fullMajor) {
+            changedBase++;
+        }
+    }
+
+
+    /**
+     * Writes the raw counters, to be read back with readChunk
+     * @param file Output file
+     * @throws IOException If the file cannot be written
+     */
+    public void writeChunk(Path file) throws IOException {
+        Files.writeString(file, positions + "\t" + highestDepth + "\t" + changedBase + "\t" + sumShift + "\t"
+                + maxShift + "\t" + maxShiftPos + "\n");
+    }
+
+
+    /**
+     * Adds the counters written by writeChunk
+     * @param file Chunk file
+     * @throws IOException If the file cannot be read
+     */
+    public void readChunk(Path file) throws IOException {
+        String[] counters = Files.readString(file).strip().split("\t");
+        positions += Integer.parseInt(counters[0]);
+        highestDepth = Math.max(highestDepth, Integer.parseInt(counters[1]));
+        changedBase += Integer.parseInt(counters[2]);
+        sumShift += Double.parseDouble(counters[3]);
+        double chunkMaxShift = Double.parseDouble(counters[4]);
+        if (chunkMaxShift > maxShift) {
+            maxShift = chunkMaxShift;
+            maxShiftPos = Integer.parseInt(counters[5]);
+        }
+    }
+
+
+    /**
+     * Resets all counters, e.g. after a checkpoint interval was written
+     */
+    public void clear() {
+        positions = 0;
+        highestDepth = 0;
+        changedBase = 0;
+        sumShift = 0.0;
+        maxShift = 0.0;
+        maxShiftPos = 0;
+    }
+
+
+    /**
+     * @return Number of downsampled positions
+     */
+    public int getPositions() {
+        return positions;
+    }
+
+
+    /**
+     * @return Lines summarising the downsampling for the log file
+     */
+    public List<String> summary() {
+        DecimalFormat df = new DecimalFormat("#.####");
+        return List.of("\nDownsampling:",
+                "Maximal depth:\t\t\t" + maxDepth,
+                "Downsampled positions:\t" + positions,
+                "Highest depth:\t\t\t" + highestDepth,
+                "Mean frequency shift:\t" + df.format(positions == 0 ? 0.0 : sumShift / positions),
+                "Max frequency shift:\t" + df.format(maxShift) + (positions == 0 ? "" : " (POS " + maxShiftPos + ")"),
+                "Changed major base:\t\t" + changedBase);
+    }
+
+
+    /**
+     * @param counts Counts of A, C, G and T
+     * @return Index of the most frequent base, the first one on ties
+     */
+    private static int getMajor(int[] counts) {
+        int major = 0;
+        for (int b = 1; b < counts.length; b++) {
+            if (counts[b] > counts[major]) {
+                major = b;
+            }
+        }
+        return major;
+    }
+
+
+    /**
+     * @param counts Base counts
+     * @return Sum of the counts
+     */
+    private static int sum(int[] counts) {
+        int sum = 0;
+        for (int count : counts) {
+            sum += count;
+        }
+        return sum;
+    }
+}
@@ -6,6 +6,7 @@ import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.FileReader;
 import java.io.FileWriter;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -63,7 +64,7 @@ public class FastaIO {
      * @param fasta     Object containing header and sequence
      * @param filepath  Name for output file
      */
-    public static void writeFasta(Fasta fasta, String filepath) throws Exception{
+    public static void writeFasta(Fasta fasta, String filepath) throws IOException {
         // Define buffer and output file
         BufferedWriter bw = new BufferedWriter(new FileWriter(filepath, false));
 
@@ -77,4 +78,25 @@ public class FastaIO {
 
     }
 
+
+    /**
+     * Writes a sequence to a given file path line by line, without copying it into a String first
+     * @param header    Fasta header
+     * @param sequence  Sequence, e.g. a consensus sequence outside the heap
+     * @param filepath  Name for output file
+     */
+    public static void writeFasta(String header, CharSequence sequence, String filepath) throws IOException {
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(filepath, false), 1 << 16)) {
+            bw.write(header + "\n");
+
+            // New line every 70 characters; the last line is always terminated, as in writeFasta(Fasta, String)
+            int length = sequence.length();
+            int end = 0;
+            for (; end + 70 <= length; end += 70) {
+                bw.append(sequence, end, end + 70).append('\n');
+            }
+            bw.append(sequence, end, length).append('\n');
+        }
+    }
+
 }
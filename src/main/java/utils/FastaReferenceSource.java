@@ -0,0 +1,93 @@
+package utils;
+
+import datastructure.Fasta;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.cram.CRAMException;
+import htsjdk.samtools.cram.ref.CRAMReferenceSource;
+import htsjdk.samtools.util.StringUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * CRAM reference source backed by the reference that was already loaded for consensus calling,
+ * so htsjdk does not read the FASTA file a second time. Only the first sequence of the reference
+ * file is loaded, so CRAM files with reads on any other sequence are rejected.
+ *
+ * @author Meret Häusler
+ * @version 1.0
+ * @since 2024-09-09
+ */
+public class FastaReferenceSource implements CRAMReferenceSource {
+    private final Fasta ref;
+    private final String contig;
+    private byte[] bases;
+
+    // Constructor
+    public FastaReferenceSource(Fasta ref) {
+        this.ref = ref;
+        this.contig = ref.getHeader().split(" ")[0].replace(">", "");
+    }
+
+
+    /**
+     * Returns the bases of the reference sequence if its name matches the requested sequence
+     * @param sequenceRecord    Requested sequence
+     * @param tryNameVariants   If true, also accept names differing in case or by a 'chr' prefix
+     * @return  Upper case reference bases, null if the sequence is not available under its exact name
+     * @throws CRAMException If no name variant matches either, i.e. the CRAM file has reads on another sequence
+     */
+    @Override
+    public synchronized byte[] getReferenceBases(SAMSequenceRecord sequenceRecord, boolean tryNameVariants) {
+        String name = sequenceRecord.getSequenceName();
+        if (!matches(name, tryNameVariants)) {
+            if (!tryNameVariants) {
+                return null;
+            }
+            throw new CRAMException("CRAM file has reads on sequence " + name + ", but only the first sequence of "
+                    + "the reference file (" + contig + ") is reconstructed. Extract the reads of " + contig
+                    + " into a separate file.");
+        }
+        // Convert the reference once on first use
+        if (bases == null) {
+            bases = ref.getSequence().getBytes(StandardCharsets.US_ASCII);
+            StringUtil.toUpperCase(bases);
+        }
+        return bases;
+    }
+
+
+    /**
+     * Returns a region of the reference sequence
+     * @param sequenceRecord        Requested sequence
+     * @param zeroBasedStart        0-based start of the region
+     * @param requestedRegionLength Length of the region
+     * @return  Upper case reference bases of the region (shorter at the sequence end), null if unavailable
+     */
+    @Override
+    public byte[] getReferenceBasesByRegion(SAMSequenceRecord sequenceRecord, int zeroBasedStart, int requestedRegionLength) {
+        byte[] sequence = getReferenceBases(sequenceRecord, true);
+        if (sequence == null || zeroBasedStart >= sequence.length) {
+            return null;
+        }
+        int end = Math.min(sequence.length, zeroBasedStart + requestedRegionLength);
+        return Arrays.copyOfRange(sequence, zeroBasedStart, end);
+    }
+
+
+    /**
+     * @param name              Name of the requested sequence
+     * @param tryNameVariants   Accept names differing in case or by a 'chr' prefix
+     * @return  True if the name refers to the loaded reference
+     */
+    private boolean matches(String name, boolean tryNameVariants) {
+        if (contig.equals(name)) {
+            return true;
+        }
+        if (!tryNameVariants) {
+            return false;
+        }
+        String stripped = name.startsWith("chr") ? name.substring(3) : "chr" + name;
+        return contig.equalsIgnoreCase(name) || contig.equalsIgnoreCase(stripped);
+    }
+}
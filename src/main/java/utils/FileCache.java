@@ -0,0 +1,131 @@
+package utils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * Thread-safe cache of parsed input files (references, damage profiles) keyed by path and checksum.
+ * A file is parsed once and served from memory until its content changes. The cache holds at most a given
+ * number of files; once it is full, the least recently used file is evicted, so a long-running server
+ * does not keep every file it has seen.
+ *
+ * @author Meret Häusler
+ * @version 1.0
+ * @since 2024-09-23
+ */
+public class FileCache<T> {
+
+    /**
+     * Parses a file into its cached representation
+     */
+    public interface Loader<T> {
+        T load(Path file) throws Exception;
+    }
+
+    /**
+     * Parsed file together with the checksum of the parsed content
+     */
+    private static final class Entry<T> {
+        private final long checksum;
+        private final T value;
+
+        private Entry(long checksum, T value) {
+            this.checksum = checksum;
+            this.value = value;
+        }
+    }
+
+    private final Loader<T> loader;
+    private final int capacity;
+    // Entries in access order, guarded by the map itself
+    private final Map<Path, Entry<T>> entries;
+
+
+    /**
+     * @param loader    Parser for the cached files
+     * @param capacity  Maximal number of cached files
+     */
+    public FileCache(Loader<T> loader, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Cache capacity must be a positive integer.");
+        }
+        this.loader = loader;
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, Entry<T>> eldest) {
+                return size() > FileCache.this.capacity;
+            }
+        };
+    }
+
+
+    /**
+     * @param file  File to get
+     * @return  Parsed file, loaded if the path is not cached with the current checksum
+     * @throws IOException If the file cannot be read or parsed
+     */
+    public T get(Path file) throws IOException {
+        Path key = file.toAbsolutePath().normalize();
+        long checksum = checksum(file);
+        Entry<T> entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        if (entry != null && entry.checksum == checksum) {
+            return entry.value;
+        }
+
+        // Load outside the map; concurrent loads of the same file give equal entries, a changed file replaces its entry
+        try {
+            entry = new Entry<>(checksum, loader.load(file));
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Could not parse " + file + ": " + e.getMessage(), e);
+        }
+        synchronized (entries) {
+            entries.put(key, entry);
+        }
+        return entry.value;
+    }
+
+
+    /**
+     * @return Number of cached files
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+
+    /**
+     * @return Maximal number of cached files
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+
+    /**
+     * @param file File
+     * @return CRC32 checksum of the file content
+     * @throws IOException If the file cannot be read
+     */
+    private static long checksum(Path file) throws IOException {
+        try (CheckedInputStream in = new CheckedInputStream(Files.newInputStream(file), new CRC32())) {
+            byte[] buffer = new byte[1 << 16];
+            while (in.read(buffer) >= 0) {
+                // Read whole file to update the checksum
+            }
+            return in.getChecksum().getValue();
+        }
+    }
+}
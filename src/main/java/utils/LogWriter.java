@@ -2,49 +2,89 @@ package utils;
 
 import datastructure.CorrectionMode;
 import datastructure.Fasta;
-import htsjdk.samtools.util.SamLocusIterator;
 
 import java.text.DecimalFormat;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
-import static dorian.dorian.*;
-
 public class LogWriter {
+    private final CorrectionMode corMode;
+    private final int refLength;
+    private final Consumer<String> log;
+    private final Consumer<String> roi;
 
     /**
-     * Adds a line to the log file documenting the determination of a base call
-     * @param refInfo   Information on the current reference position
+     * Creates a log writer for one reconstruction
+     * @param corMode   Correction mode of the reconstruction
      * @param ref       Reference as fasta object
+     * @param log       Receives the lines of the log file
+     * @param roi       Receives the lines of the ROI file
+     */
+    public LogWriter(CorrectionMode corMode, Fasta ref, Consumer<String> log, Consumer<String> roi) {
+        this.corMode = corMode;
+        this.refLength = ref.getSequence().length();
+        this.log = log;
+        this.roi = roi;
+    }
+
+
+    /**
+     * @param corMode   Correction mode of the reconstruction
+     * @return Header lines of the calls in the log file
+     */
+    public static List<String> logHeader(CorrectionMode corMode) {
+        if (corMode.equals(CorrectionMode.NO_COR)) {
+            return List.of("\nCalls:",
+                    "CHROM\tPOS\tREF\tCOV\tALLELE_COUNTS\tBASE_CALL\tBASE_FREQ");
+        }
+        return List.of("\nCorrected positions:",
+                "CHROM\tPOS\tREF\tCOV\tALLELE_COUNTS_PRIOR\tALLELE_COUNTS_CORRECTED\tBASE_CALL\tBASE_FREQ");
+    }
+
+
+    /**
+     * @return Header lines of the ROI file
+     */
+    public static List<String> roiHeader() {
+        return List.of("#CHROM=chromosome or scaffold name",
+                "#ROI_START=0-based start position of ROI",
+                "#ROI_END=1-based end position of ROI",
+                "#CORRECTED_POS=1-based position that were corrected",
+                "#CHROM\tROI_START\tROI_END\tCORRECTED_POS");
+    }
+
+
+    /**
+     * Adds a line to the log file documenting the determination of a base call
+     * @param chrom     Name of the reference sequence
+     * @param refPos    1-based reference position
+     * @param refBase   Reference base at the position
      * @param cov       Observed read coverage at the position
      * @param cnts      Base counts before correction
      * @param cntsCor   Base counts after correction
      * @param call      Final base call
      * @param callFreq  Frequency of final base call (-1 if call is 'N')
      */
-    public static void addLog(SamLocusIterator.LocusInfo refInfo, Fasta ref, int cov, Map<Character, Double> cnts,
-                              Map<Character, Double> cntsCor, Character call, Double callFreq) {
-
-        // Get reference infos
-        String chrom = refInfo.getSequenceName();
-        int refPos = refInfo.getPosition();
-        char refBase = ref.getSequence().charAt(refPos-1);
+    public void addLog(String chrom, int refPos, char refBase, int cov, Map<Character, Double> cnts,
+                       Map<Character, Double> cntsCor, Character call, Double callFreq) {
 
         // Add to log file
         // Uncorrected: CHROM POS REF COV ALLELE_COUNTS BASE_CALL BASE_FREQ
         // Corrected:   CHROM POS REF COV ALLELE_COUNTS_PRIOR ALLELE_COUNTS_CORRECTED BASE_CALL BASE_FREQ
-        if (cor_mode.equals(CorrectionMode.NO_COR)) {
-            file_logger.info("{}\t{}\t{}\t{}\t{}\t{}\t{}",
-                    chrom, refPos, refBase, cov, MapToString(cnts), call, callFreq);
+        if (corMode.equals(CorrectionMode.NO_COR)) {
+            log.accept(chrom + "\t" + refPos + "\t" + refBase + "\t" + cov + "\t" + MapToString(cnts)
+                    + "\t" + call + "\t" + callFreq);
         } else {
             // Log file
-            file_logger.info("{}\t{}\t{}\t{}\t{}\t{}\t{}\t{}",
-                    chrom, refPos, refBase, cov, MapToString(cnts), MapToString(cntsCor), call, callFreq);
+            log.accept(chrom + "\t" + refPos + "\t" + refBase + "\t" + cov + "\t" + MapToString(cnts)
+                    + "\t" + MapToString(cntsCor) + "\t" + call + "\t" + callFreq);
 
             // ROI file
             int roi_start = Math.max(refPos - 3, 0);
-            int roi_end = Math.min(refPos + 2, ref.getSequence().length());
-            roi_tab.info("{}\t{}\t{}\tCORRECTED_POS:{}", chrom, roi_start, roi_end, refPos);
+            int roi_end = Math.min(refPos + 2, refLength);
+            roi.accept(chrom + "\t" + roi_start + "\t" + roi_end + "\tCORRECTED_POS:" + refPos);
         }
     }
 
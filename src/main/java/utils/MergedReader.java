@@ -0,0 +1,151 @@
+package utils;
+
+import datastructure.Fasta;
+import htsjdk.samtools.MergingSamRecordIterator;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SamFileHeaderMerger;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.util.CloseableIterator;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads one or more alignment files as one, e.g. the BAM files of the sequencing runs of a sample. The records of
+ * several files are merged by coordinate while they are read, so the files do not have to be merged on disk first.
+ * All files have to be coordinate-sorted against the same reconstructed (first) reference sequence. Read groups
+ * that occur with different attributes in several files get a suffix in the merged header, as by samtools merge.
+ * A single file is read without merging.
+ *
+ * @author Meret Häusler
+ * @version 1.0
+ * @since 2024-10-10
+ */
+public class MergedReader implements Closeable {
+    private final List<File> files;
+    private final List<SamReader> readers = new ArrayList<>();
+    private SamFileHeaderMerger merger;
+    private SAMFileHeader header;
+
+
+    /**
+     * @param files Alignment files (SAM, BAM or CRAM)
+     * @param ref   Reference as Fasta object, CRAM files are decoded against it
+     * @throws IOException If several files are not coordinate-sorted or differ in their first reference sequence
+     */
+    public MergedReader(List<File> files, Fasta ref) throws IOException {
+        this.files = files;
+        try {
+            for (File file : files) {
+                readers.add(AlignmentIO.openReader(file, ref));
+            }
+            open();
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+
+    /**
+     * Checks that the files can be merged and merges their headers
+     * @throws IOException If several files are not coordinate-sorted or differ in their first reference sequence
+     */
+    private void open() throws IOException {
+        header = readers.get(0).getFileHeader();
+        if (readers.size() == 1) {
+            return;
+        }
+
+        SAMSequenceRecord sequence = header.getSequence(0);
+        List<SAMFileHeader> headers = new ArrayList<>();
+        for (int i = 0; i < readers.size(); i++) {
+            SAMFileHeader fileHeader = readers.get(i).getFileHeader();
+            if (fileHeader.getSortOrder() != SAMFileHeader.SortOrder.coordinate) {
+                throw new IOException(files.get(i) + " is not sorted by coordinate and cannot be merged.");
+            }
+            SAMSequenceRecord fileSequence = fileHeader.getSequence(0);
+            if (fileSequence == null || !fileSequence.getSequenceName().equals(sequence.getSequenceName())
+                    || fileSequence.getSequenceLength() != sequence.getSequenceLength()) {
+                throw new IOException(files.get(i) + " is not mapped against " + sequence.getSequenceName()
+                        + " of " + files.get(0) + ".");
+            }
+            headers.add(fileHeader);
+        }
+        merger = new SamFileHeaderMerger(SAMFileHeader.SortOrder.coordinate, headers, true);
+        header = merger.getMergedHeader();
+    }
+
+
+    /**
+     * @return Header of the file, or merged header of all files
+     */
+    public SAMFileHeader getFileHeader() {
+        return header;
+    }
+
+
+    /**
+     * @return Coordinate-sorted records of all files
+     */
+    public CloseableIterator<SAMRecord> iterator() {
+        return iterator(1, 1);
+    }
+
+
+    /**
+     * Opens the record streams of all files and merges them by coordinate. If calling starts behind the first
+     * position, indexed files are queried for the reads overlapping the start or later. The threads for BAM
+     * decompression and decoding are shared by the files.
+     * @param start     First 1-based position of the first reference sequence that is called
+     * @param threads   Number of threads for BAM decompression and decoding
+     * @return Coordinate-sorted records of all files
+     */
+    public CloseableIterator<SAMRecord> iterator(int start, int threads) {
+        if (merger == null) {
+            return openRecords(files.get(0), readers.get(0), start, threads);
+        }
+        Map<SamReader, CloseableIterator<SAMRecord>> iterators = new LinkedHashMap<>();
+        int fileThreads = Math.max(1, threads / readers.size());
+        for (int i = 0; i < readers.size(); i++) {
+            iterators.put(readers.get(i), openRecords(files.get(i), readers.get(i), start, fileThreads));
+        }
+        return new MergingSamRecordIterator(merger, iterators, true);
+    }
+
+
+    /**
+     * Opens the record stream of an alignment file. BAM files are read by a multithreaded
+     * decompression and decoding pipeline if more than one thread is requested. If calling starts
+     * behind the first position and the file is indexed, only reads overlapping the start or later are read.
+     * @param file      Alignment file
+     * @param reader    Reader of the alignment file
+     * @param start     First 1-based position of the first reference sequence that is called
+     * @param threads   Number of threads for BAM decompression and decoding
+     * @return  Coordinate-sorted records
+     */
+    private static CloseableIterator<SAMRecord> openRecords(File file, SamReader reader, int start, int threads) {
+        if (start > 1 && reader.hasIndex()) {
+            return reader.queryOverlapping(reader.getFileHeader().getSequence(0).getSequenceName(), start, 0);
+        }
+        if (threads > 1 && reader.type() == SamReader.Type.BAM_TYPE) {
+            return new RecordPipeline(file, reader.getFileHeader(), threads);
+        }
+        return reader.iterator();
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        for (SamReader reader : readers) {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package utils;
+
+import datastructure.CorrectionMode;
+import datastructure.DamageType;
+import datastructure.Fasta;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipException;
+
+import static utils.PileupCountWriter.BASES;
+
+/**
+ * Reads a pileup-count file written by PileupCountWriter position by position.
+ *
+ * @author Meret Häusler
+ * @version 1.0
+ * @since 2024-09-27
+ */
+public class PileupCountReader implements Closeable {
+    private final DataInputStream in;
+    private final String outputName;
+    private final String sequenceName;
+    private final Fasta ref;
+    private final CorrectionMode corMode;
+    private final int maxDepth;
+    private final boolean baseQuality;
+    private final boolean mergeOverlaps;
+    private final List<Double> dp5;
+    private final List<Double> dp3;
+
+    // Current record
+    private int refPos;
+    private int cov;
+    private DamageType damPos;
+    private final double[] cnt = new double[BASES.length];
+    private final double[] cntCor = new double[BASES.length];
+
+
+    /**
+     * Opens a count file and reads its header
+     * @param file Count file
+     * @throws IOException If the file cannot be read or is no pileup-count file
+     */
+    public PileupCountReader(Path file) throws IOException {
+        try {
+            in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file),
+                    1 << 16)));
+        } catch (ZipException e) {
+            throw new IOException(file + " is not a DORIAN pileup-count file.", e);
+        }
+        try {
+            if (in.readInt() != PileupCountWriter.MAGIC) {
+                throw new IOException(file + " is not a DORIAN pileup-count file.");
+            }
+            int version = in.readInt();
+            if (version != PileupCountWriter.VERSION) {
+                throw new IOException(file + " was written with version " + version + " of the pileup-count format, "
+                        + "this version of DORIAN reads version " + PileupCountWriter.VERSION + ". Save the counts "
+                        + "again with -sc.");
+            }
+            outputName = readString();
+            sequenceName = readString();
+            String header = readString();
+            ref = new Fasta(header, readString());
+            corMode = CorrectionMode.valueOf(readString());
+            maxDepth = in.readInt();
+            dp5 = readProfile();
+            dp3 = readProfile();
+            baseQuality = in.readBoolean();
+            mergeOverlaps = in.readBoolean();
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        } catch (RuntimeException e) {
+            in.close();
+            throw new IOException(file + " is not a DORIAN pileup-count file.", e);
+        }
+    }
+
+
+    /**
+     * Moves to the next position
+     * @return False if all positions have been read
+     * @throws IOException If the file cannot be read or ends before the closing record
+     */
+    public boolean next() throws IOException {
+        try {
+            refPos = in.readInt();
+            if (refPos < 0) {
+                return false;
+            }
+            cov = in.readInt();
+            damPos = DamageType.values()[in.readByte()];
+            for (int i = 0; i < BASES.length; i++) {
+                cnt[i] = in.readInt();
+            }
+            for (int i = 0; i < BASES.length; i++) {
+                cntCor[i] = in.readDouble();
+            }
+            return true;
+        } catch (EOFException e) {
+            throw new IOException("Pileup-count file ends unexpectedly, the writing run was interrupted.", e);
+        }
+    }
+
+
+    // Getters of the header
+    public String getOutputName() {
+        return outputName;
+    }
+
+    public String getSequenceName() {
+        return sequenceName;
+    }
+
+    public Fasta getReference() {
+        return ref;
+    }
+
+    public CorrectionMode getCorMode() {
+        return corMode;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * @return True if the corrected counts are weighted with the base quality
+     */
+    public boolean isBaseQuality() {
+        return baseQuality;
+    }
+
+    /**
+     * @return True if overlapping mates were counted once
+     */
+    public boolean isMergeOverlaps() {
+        return mergeOverlaps;
+    }
+
+    public List<Double> getDp5() {
+        return dp5;
+    }
+
+    public List<Double> getDp3() {
+        return dp3;
+    }
+
+    // Getters of the current position
+    public int getPosition() {
+        return refPos;
+    }
+
+    public int getCoverage() {
+        return cov;
+    }
+
+    public DamageType getDamageType() {
+        return damPos;
+    }
+
+    /**
+     * @return Base counts of the current position before correction, in the layout of BaseCalling
+     */
+    public Map<Character, Double> getCounts() {
+        return baseMap(cnt);
+    }
+
+    /**
+     * @return Base counts of the current position after correction, in the layout of BaseCalling
+     */
+    public Map<Character, Double> getCorrectedCounts() {
+        return baseMap(cntCor);
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+
+    /**
+     * @param counts Counts of A, C, G and T
+     * @return Base counts in the same map layout as BaseCalling.countBaseFrequencies
+     */
+    private static Map<Character, Double> baseMap(double[] counts) {
+        return new HashMap<>(Map.of('C', counts[1],
+                'T', counts[3],
+                'G', counts[2],
+                'A', counts[0]));
+    }
+
+
+    /**
+     * @return String written with its length
+     * @throws IOException If the string cannot be read
+     */
+    private String readString() throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+
+    /**
+     * @return Damage profile written with its length, null if there is none
+     * @throws IOException If the profile cannot be read
+     */
+    private List<Double> readProfile() throws IOException {
+        int size = in.readInt();
+        if (size < 0) {
+            return null;
+        }
+        List<Double> profile = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            profile.add(in.readDouble());
+        }
+        return profile;
+    }
+}
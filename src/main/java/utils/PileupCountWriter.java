@@ -0,0 +1,128 @@
+package utils;
+
+import datastructure.DamageType;
+import datastructure.Fasta;
+import datastructure.ReconstructionConfig;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the base counts of every called position to a compact, gzip-compressed binary pileup-count file.
+ * Counts are stored before and after correction, together with the reference and the parameters they depend on,
+ * so the consensus can be called again with other coverage and frequency thresholds without reading the BAM file.
+ * <p>
+ * Layout: magic, version, output name, sequence name, reference header and sequence, correction mode,
+ * maximal depth, damage profiles, base quality weighting and merging of overlapping mates, followed by one record
+ * per position (position, coverage, damage type, A/C/G/T counts, corrected A/C/G/T counts) and a closing position
+ * of -1.
+ *
+ * @author Meret Häusler
+ * @version 1.0
+ * @since 2024-09-27
+ */
+public class PileupCountWriter implements Closeable {
+    static final int MAGIC = 0x44434e54;
+    static final int VERSION = 1;
+    static final char[] BASES = {'A', 'C', 'G', 'T'};
+
+    private final DataOutputStream out;
+
+
+    /**
+     * Creates the count file and writes its header
+     * @param file          Output file
+     * @param ref           Reference as Fasta object
+     * @param outputName    Name of the sample in the result files
+     * @param sequenceName  Name of the reference sequence in the alignment file
+     * @param config        Reconstruction parameters
+     * @throws IOException If the file cannot be written
+     */
+    public PileupCountWriter(Path file, Fasta ref, String outputName, String sequenceName,
+                             ReconstructionConfig config) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(file),
+                1 << 16)));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        writeString(outputName);
+        writeString(sequenceName);
+        writeString(ref.getHeader());
+        writeString(ref.getSequence());
+        writeString(config.getCorMode().name());
+        out.writeInt(config.getMaxDepth());
+        writeProfile(config.getDp5());
+        writeProfile(config.getDp3());
+        out.writeBoolean(config.isBaseQuality());
+        out.writeBoolean(config.isMergeOverlaps());
+    }
+
+
+    /**
+     * Adds the counts of a position
+     * @param refPos        1-based reference position
+     * @param cov           Number of mapping reads at the position
+     * @param damPos        Damage type detected at the position
+     * @param cntBases      Base counts before correction
+     * @param cntBasesCor   Base counts after correction
+     * @throws IOException If the record cannot be written
+     */
+    public void add(int refPos, int cov, DamageType damPos, Map<Character, Double> cntBases,
+                    Map<Character, Double> cntBasesCor) throws IOException {
+        out.writeInt(refPos);
+        out.writeInt(cov);
+        out.writeByte(damPos.ordinal());
+        // Uncorrected counts are whole numbers of reads
+        for (char base : BASES) {
+            out.writeInt((int) Math.round(cntBases.get(base)));
+        }
+        for (char base : BASES) {
+            out.writeDouble(cntBasesCor.get(base));
+        }
+    }
+
+
+    /**
+     * Marks the end of the records and closes the file
+     * @throws IOException If the file cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        out.writeInt(-1);
+        out.close();
+    }
+
+
+    /**
+     * @param s String to write with its length
+     * @throws IOException If the string cannot be written
+     */
+    private void writeString(String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+
+    /**
+     * @param profile Damage profile to write with its length, -1 if there is none
+     * @throws IOException If the profile cannot be written
+     */
+    private void writeProfile(List<Double> profile) throws IOException {
+        if (profile == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(profile.size());
+        for (double value : profile) {
+            out.writeDouble(value);
+        }
+    }
+}
@@ -0,0 +1,389 @@
+package utils;
+
+import datastructure.PileupColumn;
+import htsjdk.samtools.Cigar;
+import htsjdk.samtools.CigarElement;
+import htsjdk.samtools.CigarOperator;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceRecord;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Streaming pileup engine over a coordinate-sorted record stream.
+ * Reads overlapping the current locus are kept in a ring buffer and their CIGARs are walked
+ * incrementally, so every locus is emitted as a reused PileupColumn without per-read allocations.
+ * Produces the same loci and bases as htsjdk's SamLocusIterator with default settings
+ * (secondary, supplementary and duplicate reads filtered, indels excluded, uncovered loci emitted).
+ * Columns deeper than an optional maximal depth are downsampled before they are handed on.
+ * Optionally, overlapping mates of a pair are counted once: a mapped mate that starts within a read waits in a
+ * name hash until it is admitted, and at every locus covered by both, only the base of higher quality is kept.
+ * The hash only holds active reads, and single-end reads never enter it.
+ *
+ * @author Meret Häusler
+ * @version 1.0
+ * @since 2024-09-02
+ */
+public class PileupWalker {
+
+    /**
+     * Receives one column per reference position
+     */
+    public interface ColumnConsumer {
+        void accept(PileupColumn column);
+    }
+
+    private final Iterator<SAMRecord> records;
+    private final SAMSequenceRecord sequence;
+    private final int maxDepth;
+    private final ReadGroupDamage damage;
+    private final boolean mergeOverlaps;
+    private final PileupColumn column = new PileupColumn(64);
+
+    // Active paired reads whose mate starts within them and has not been admitted yet, by read name
+    private final Map<String, ActiveRead> waitingMates = new HashMap<>();
+    private long admitted = 0;
+    private long mergedBases = 0;
+    private long replacedBases = 0;
+
+    // Ring buffer of reads overlapping the current locus
+    private ActiveRead[] ring = new ActiveRead[64];
+    private int head = 0;
+    private int size = 0;
+
+    private SAMRecord pending;
+
+
+    /**
+     * Creates a pileup walker for one reference sequence
+     * @param records       Coordinate-sorted records
+     * @param header        Header of the alignment file
+     * @param sequenceIndex Index of the reference sequence to walk
+     */
+    public PileupWalker(Iterator<SAMRecord> records, SAMFileHeader header, int sequenceIndex) {
+        this(records, header, sequenceIndex, 0);
+    }
+
+
+    /**
+     * Creates a pileup walker for one reference sequence that downsamples deep columns
+     * @param records       Coordinate-sorted records
+     * @param header        Header of the alignment file
+     * @param sequenceIndex Index of the reference sequence to walk
+     * @param maxDepth      Maximal number of reads per column, 0 to keep all reads
+     */
+    public PileupWalker(Iterator<SAMRecord> records, SAMFileHeader header, int sequenceIndex, int maxDepth) {
+        this(records, header, sequenceIndex, maxDepth, null);
+    }
+
+
+    /**
+     * Creates a pileup walker for one reference sequence that additionally hands on the damage of each read
+     * @param records       Coordinate-sorted records
+     * @param header        Header of the alignment file
+     * @param sequenceIndex Index of the reference sequence to walk
+     * @param maxDepth      Maximal number of reads per column, 0 to keep all reads
+     * @param damage        Damage tables of the read groups, null without damage weighting
+     */
+    public PileupWalker(Iterator<SAMRecord> records, SAMFileHeader header, int sequenceIndex, int maxDepth,
+                        ReadGroupDamage damage) {
+        this(records, header, sequenceIndex, maxDepth, damage, false);
+    }
+
+
+    /**
+     * Creates a pileup walker for one reference sequence that optionally counts overlapping mates once
+     * @param records       Coordinate-sorted records
+     * @param header        Header of the alignment file
+     * @param sequenceIndex Index of the reference sequence to walk
+     * @param maxDepth      Maximal number of reads per column, 0 to keep all reads
+     * @param damage        Damage tables of the read groups, null without damage weighting
+     * @param mergeOverlaps True to keep only the base of higher quality where the mates of a pair overlap
+     */
+    public PileupWalker(Iterator<SAMRecord> records, SAMFileHeader header, int sequenceIndex, int maxDepth,
+                        ReadGroupDamage damage, boolean mergeOverlaps) {
+        this.records = records;
+        this.sequence = header.getSequence(sequenceIndex);
+        this.maxDepth = maxDepth;
+        this.damage = damage;
+        this.mergeOverlaps = mergeOverlaps;
+    }
+
+
+    /**
+     * Walks the reference sequence from its first position up to the last position covered by a read
+     * and hands each locus to the consumer
+     * @param consumer  Callback for each PileupColumn
+     */
+    public void walk(ColumnConsumer consumer) {
+        walk(1, consumer);
+    }
+
+
+    /**
+     * Walks the reference sequence from the given position up to the last position covered by a read
+     * and hands each locus to the consumer
+     * @param start     First 1-based position to emit
+     * @param consumer  Callback for each PileupColumn
+     */
+    public void walk(int start, ColumnConsumer consumer) {
+        walk(start, Integer.MAX_VALUE, consumer);
+    }
+
+
+    /**
+     * Walks the reference sequence from the given position up to the given end or the last position covered
+     * by a read, whichever comes first, and hands each locus to the consumer
+     * @param start     First 1-based position to emit
+     * @param end       Last 1-based position to emit
+     * @param consumer  Callback for each PileupColumn
+     */
+    public void walk(int start, int end, ColumnConsumer consumer) {
+        int sequenceIndex = sequence.getSequenceIndex();
+        int sequenceLength = Math.min(sequence.getSequenceLength(), end);
+        int lastCovered = 0;
+        waitingMates.clear();
+        pending = nextRecord(sequenceIndex);
+
+        for (int pos = start; pos <= sequenceLength; pos++) {
+            // Admit all reads starting at the current locus (reads ending before a later start are dropped)
+            while (pending != null && pending.getAlignmentStart() <= pos) {
+                lastCovered = Math.max(lastCovered, pending.getAlignmentEnd());
+                if (!isFiltered(pending) && pending.getAlignmentEnd() >= pos) {
+                    push(pending);
+                }
+                pending = nextRecord(sequenceIndex);
+            }
+
+            // Check if bam file end is reached
+            if (pending == null && pos > lastCovered) {
+                break;
+            }
+
+            // Collect bases of active reads and retire reads that ended before the locus
+            column.reset(sequence.getSequenceName(), sequenceIndex, pos);
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                int slot = (head + i) & (ring.length - 1);
+                ActiveRead read = ring[slot];
+                if (read.alignmentEnd < pos) {
+                    if (read.waiting) {
+                        waitingMates.remove(read.name);
+                        read.waiting = false;
+                    }
+                    continue;
+                }
+                if (kept != i) {
+                    int keptSlot = (head + kept) & (ring.length - 1);
+                    ring[slot] = ring[keptSlot];
+                    ring[keptSlot] = read;
+                }
+                kept++;
+
+                int readIdx = read.advanceTo(pos);
+                if (readIdx < 0) {
+                    continue;
+                }
+                byte quality = read.quals.length == 0 ? -1 : read.quals[readIdx];
+                ActiveRead mate = read.mate;
+                if (mate != null && mate.serial == read.mateSerial && mate.columnPos == pos) {
+                    // The mate was admitted first and already added its base: keep the base of higher quality
+                    mergedBases++;
+                    if (quality > column.getQuality(mate.columnIdx)) {
+                        column.replace(mate.columnIdx, read.bases[readIdx], readIdx, read.readLength,
+                                read.isReverse, read.damage, quality);
+                        replacedBases++;
+                    }
+                } else {
+                    read.columnPos = pos;
+                    read.columnIdx = column.getDepth();
+                    column.add(read.bases[readIdx], readIdx, read.readLength, read.isReverse, read.damage,
+                            quality);
+                }
+            }
+            size = kept;
+
+            if (maxDepth > 0) {
+                column.downsample(maxDepth);
+            }
+            consumer.accept(column);
+        }
+    }
+
+
+    /**
+     * @return Number of loci at which both mates of a pair covered the locus and only one base was counted
+     */
+    public long getMergedBases() {
+        return mergedBases;
+    }
+
+
+    /**
+     * @return Number of merged loci at which the base of the second mate had the higher quality
+     */
+    public long getReplacedBases() {
+        return replacedBases;
+    }
+
+
+    /**
+     * @param sequenceIndex Index of the walked reference sequence
+     * @return Next mapped record on the reference sequence, null if there is none
+     */
+    private SAMRecord nextRecord(int sequenceIndex) {
+        while (records.hasNext()) {
+            SAMRecord record = records.next();
+            if (record.getReadUnmappedFlag() || record.getReferenceIndex() < sequenceIndex) {
+                continue;
+            }
+            if (record.getReferenceIndex() > sequenceIndex) {
+                return null;
+            }
+            return record;
+        }
+        return null;
+    }
+
+
+    /**
+     * @param record SAMRecord
+     * @return True if the record is excluded from the pileup
+     */
+    private static boolean isFiltered(SAMRecord record) {
+        return record.isSecondaryOrSupplementary() || record.getDuplicateReadFlag();
+    }
+
+
+    /**
+     * Appends a read to the tail of the ring buffer, growing it if necessary
+     * @param record SAMRecord
+     */
+    private void push(SAMRecord record) {
+        if (size == ring.length) {
+            ActiveRead[] grown = new ActiveRead[ring.length * 2];
+            for (int i = 0; i < ring.length; i++) {
+                grown[i] = ring[(head + i) & (ring.length - 1)];
+            }
+            ring = grown;
+            head = 0;
+        }
+        int slot = (head + size) & (ring.length - 1);
+        if (ring[slot] == null) {
+            ring[slot] = new ActiveRead();
+        }
+        ActiveRead read = ring[slot];
+        read.reset(record, damage == null ? null : damage.resolve(record));
+        read.serial = ++admitted;
+        size++;
+        if (mergeOverlaps && record.getReadPairedFlag() && !record.getMateUnmappedFlag()
+                && record.getMateReferenceIndex().equals(record.getReferenceIndex())) {
+            pairMate(read, record);
+        }
+    }
+
+
+    /**
+     * Links a paired read to its mate if the mate is active and waiting for it, otherwise lets the read wait for
+     * its mate if the mate starts within the read
+     * @param read      Admitted read
+     * @param record    SAMRecord of the read
+     */
+    private void pairMate(ActiveRead read, SAMRecord record) {
+        read.name = record.getReadName();
+        ActiveRead mate = waitingMates.remove(read.name);
+        if (mate != null) {
+            mate.waiting = false;
+            read.mate = mate;
+            read.mateSerial = mate.serial;
+        } else if (record.getMateAlignmentStart() >= record.getAlignmentStart()
+                && record.getMateAlignmentStart() <= read.alignmentEnd) {
+            waitingMates.put(read.name, read);
+            read.waiting = true;
+        }
+    }
+
+
+    /**
+     * Read overlapping the current locus together with its position in the CIGAR
+     */
+    private static class ActiveRead {
+        byte[] bases;
+        int readLength;
+        boolean isReverse;
+        int alignmentEnd;
+        double[] damage;
+        byte[] quals;
+
+        // Overlapping mates: admission number, read name and mate while pairing, last locus the base was added at
+        long serial;
+        String name;
+        boolean waiting;
+        ActiveRead mate;
+        long mateSerial;
+        int columnPos;
+        int columnIdx;
+
+        // CIGAR cursor
+        CigarOperator[] ops = new CigarOperator[8];
+        int[] lengths = new int[8];
+        int numElements;
+        int elementIdx;
+        int elementRefStart;
+        int elementReadStart;
+
+        void reset(SAMRecord record, double[] readDamage) {
+            bases = record.getReadBases();
+            damage = readDamage;
+            quals = record.getBaseQualities();
+            readLength = record.getReadLength();
+            isReverse = record.getReadNegativeStrandFlag();
+            alignmentEnd = record.getAlignmentEnd();
+            name = null;
+            waiting = false;
+            mate = null;
+            columnPos = 0;
+
+            Cigar cigar = record.getCigar();
+            numElements = cigar.numCigarElements();
+            if (numElements > ops.length) {
+                ops = new CigarOperator[numElements];
+                lengths = new int[numElements];
+            }
+            for (int i = 0; i < numElements; i++) {
+                CigarElement element = cigar.getCigarElement(i);
+                ops[i] = element.getOperator();
+                lengths[i] = element.getLength();
+            }
+            elementIdx = 0;
+            elementRefStart = record.getAlignmentStart();
+            elementReadStart = 0;
+        }
+
+        /**
+         * Moves the CIGAR cursor forward to the given reference position
+         * @param pos   1-based reference position, not smaller than on the previous call
+         * @return  0-based index of the aligned read base, -1 if the read has a deletion or skip at pos
+         */
+        int advanceTo(int pos) {
+            while (elementIdx < numElements) {
+                CigarOperator op = ops[elementIdx];
+                int length = lengths[elementIdx];
+                if (op.consumesReferenceBases() && pos < elementRefStart + length) {
+                    return op.isAlignment() ? elementReadStart + (pos - elementRefStart) : -1;
+                }
+                if (op.consumesReferenceBases()) {
+                    elementRefStart += length;
+                }
+                if (op.consumesReadBases()) {
+                    elementReadStart += length;
+                }
+                elementIdx++;
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package utils;
+
+import datastructure.DamageType;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.DecimalFormat;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Coverage and damage statistics of a reconstruction, collected while the positions are called.
+ * All counters are primitives and the depth histogram has a fixed size, so memory does not grow with
+ * the reference or the depth. Statistics of separately called intervals can be merged.
+ *
+ * @author Meret Häusler
+ * @version 1.0
+ * @since 2024-09-26
+ */
+public class QCStats {
+    // Depths from MAX_DEPTH on share the last bucket
+    public static final int MAX_DEPTH = 1000;
+
+    private final int minCov;
+    private final long[] depthHist = new long[MAX_DEPTH + 1];
+    private long positions = 0;
+    private long depthSum = 0;
+    private int maxDepth = 0;
+    private long minCovPositions = 0;
+    private long ctPositions = 0;
+    private long gaPositions = 0;
+    private long nCalls = 0;
+
+
+    /**
+     * @param minCov Minimum coverage of the reconstruction, positions below are not checked for damage
+     */
+    public QCStats(int minCov) {
+        this.minCov = minCov;
+    }
+
+
+    /**
+     * Adds a called position
+     * @param depth     Number of reads at the position
+     * @param damPos    Damage type detected at the position
+     * @param call      Final base call
+     */
+    public void add(int depth, DamageType damPos, char call) {
+        positions++;
+        depthHist[Math.min(depth, MAX_DEPTH)]++;
+        depthSum += depth;
+        maxDepth = Math.max(maxDepth, depth);
+        if (depth >= minCov) {
+            minCovPositions++;
+        }
+        if (damPos == DamageType.CT) {
+            ctPositions++;
+        } else if (damPos == DamageType.GA) {
+            gaPositions++;
+        }
+        if (call == 'N') {
+            nCalls++;
+        }
+    }
+
+
+    /**
+     * Adds the statistics of another set of positions, e.g. another interval of the same reference
+     * @param other Statistics to add
+     */
+    public void merge(QCStats other) {
+        for (int i = 0; i < depthHist.length; i++) {
+            depthHist[i] += other.depthHist[i];
+        }
+        positions += other.positions;
+        depthSum += other.depthSum;
+        maxDepth = Math.max(maxDepth, other.maxDepth);
+        minCovPositions += other.minCovPositions;
+        ctPositions += other.ctPositions;
+        gaPositions += other.gaPositions;
+        nCalls += other.nCalls;
+    }
+
+
+    /**
+     * Resets all counters
+     */
+    public void clear() {
+        Arrays.fill(depthHist, 0);
+        positions = 0;
+        depthSum = 0;
+        maxDepth = 0;
+        minCovPositions = 0;
+        ctPositions = 0;
+        gaPositions = 0;
+        nCalls = 0;
+    }
+
+
+    /**
+     * Writes the QC report: summary metrics followed by the depth histogram.
+     * Reference positions behind the last covered position are not called and count as depth 0.
+     * @param file      Output file
+     * @param sample    Name of the sample
+     * @param refLength Length of the reference sequence
+     * @throws IOException If the file cannot be written
+     */
+    public void writeReport(Path file, String sample, int refLength) throws IOException {
+        DecimalFormat df = new DecimalFormat("#.####");
+        long uncalled = Math.max(refLength - positions, 0);
+        long covered = positions - depthHist[0];
+
+        try (BufferedWriter bw = Files.newBufferedWriter(file)) {
+            bw.write("#SAMPLE\t" + sample + "\n");
+            bw.write("#METRIC\tVALUE\n");
+            bw.write("reference_length\t" + refLength + "\n");
+            bw.write("called_positions\t" + positions + "\n");
+            bw.write("mean_depth\t" + df.format(refLength == 0 ? 0.0 : (double) depthSum / refLength) + "\n");
+            bw.write("max_depth\t" + maxDepth + "\n");
+            bw.write("breadth_1x\t" + df.format(fraction(covered, refLength)) + "\n");
+            bw.write("breadth_min_cov\t" + df.format(fraction(minCovPositions, refLength)) + "\n");
+            bw.write("ct_positions\t" + ctPositions + "\n");
+            bw.write("ga_positions\t" + gaPositions + "\n");
+            bw.write("ct_fraction\t" + df.format(fraction(ctPositions, minCovPositions)) + "\n");
+            bw.write("ga_fraction\t" + df.format(fraction(gaPositions, minCovPositions)) + "\n");
+            bw.write("n_calls\t" + nCalls + "\n");
+            bw.write("n_rate\t" + df.format(fraction(nCalls, positions)) + "\n");
+
+            // Depth histogram; the last bucket holds all depths from MAX_DEPTH on
+            bw.write("\n#DEPTH\tPOSITIONS\n");
+            for (int depth = 0; depth < depthHist.length; depth++) {
+                long count = depthHist[depth] + (depth == 0 ? uncalled : 0);
+                if (count > 0) {
+                    bw.write((depth == MAX_DEPTH ? ">=" : "") + depth + "\t" + count + "\n");
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Writes the raw counters, to be read back with readChunk
+     * @param file Output file
+     * @throws IOException If the file cannot be written
+     */
+    public void writeChunk(Path file) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append(positions).append('\t').append(depthSum).append('\t').append(maxDepth).append('\t')
+                .append(minCovPositions).append('\t').append(ctPositions).append('\t').append(gaPositions)
+                .append('\t').append(nCalls).append('\n');
+        for (int depth = 0; depth < depthHist.length; depth++) {
+            if (depthHist[depth] > 0) {
+                sb.append(depth).append('\t').append(depthHist[depth]).append('\n');
+            }
+        }
+        Files.writeString(file, sb);
+    }
+
+
+    /**
+     * Adds the counters written by writeChunk
+     * @param file Chunk file
+     * @throws IOException If the file cannot be read
+     */
+    public void readChunk(Path file) throws IOException {
+        List<String> lines = Files.readAllLines(file);
+        QCStats chunk = new QCStats(minCov);
+        String[] counters = lines.get(0).split("\t");
+        chunk.positions = Long.parseLong(counters[0]);
+        chunk.depthSum = Long.parseLong(counters[1]);
+        chunk.maxDepth = Integer.parseInt(counters[2]);
+        chunk.minCovPositions = Long.parseLong(counters[3]);
+        chunk.ctPositions = Long.parseLong(counters[4]);
+        chunk.gaPositions = Long.parseLong(counters[5]);
+        chunk.nCalls = Long.parseLong(counters[6]);
+        for (String line : lines.subList(1, lines.size())) {
+            String[] fields = line.split("\t");
+            chunk.depthHist[Integer.parseInt(fields[0])] = Long.parseLong(fields[1]);
+        }
+        merge(chunk);
+    }
+
+
+    /**
+     * @param count Number of positions
+     * @param total Total number of positions
+     * @return count / total, 0 if total is 0
+     */
+    private static double fraction(long count, long total) {
+        return total == 0 ? 0.0 : (double) count / total;
+    }
+}
@@ -0,0 +1,60 @@
+package utils;
+
+import datastructure.DamageTable;
+import datastructure.ReconstructionConfig;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMTag;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Damage tables of the read groups of an alignment file. Libraries with their own damage profiles, e.g. UDG-treated
+ * and untreated libraries merged into one BAM file, are weighted with their own table; reads of all other read
+ * groups and reads without read group use the table of the default profiles.
+ *
+ * @author Meret Häusler
+ * @version 1.0
+ * @since 2024-10-07
+ */
+public class ReadGroupDamage {
+    private final DamageTable defaultTable;
+    private final Map<String, DamageTable> tables = new HashMap<>();
+
+
+    /**
+     * @param config    Reconstruction parameters with the default and read group damage profiles
+     * @param header    Header of the alignment file
+     * @throws IOException If a read group with damage profiles is not in the header
+     */
+    public ReadGroupDamage(ReconstructionConfig config, SAMFileHeader header) throws IOException {
+        this.defaultTable = new DamageTable(config.getDp5(), config.getDp3());
+        for (String readGroup : config.getReadGroupDp5().keySet()) {
+            if (header.getReadGroup(readGroup) == null) {
+                throw new IOException("Read group " + readGroup + " of the damage profiles is not in the alignment file.");
+            }
+            tables.put(readGroup, new DamageTable(config.getReadGroupDp5().get(readGroup),
+                    config.getReadGroupDp3().get(readGroup)));
+        }
+    }
+
+
+    /**
+     * Looks up the damage of all bases of a read. Has to be called once per read, bases are then looked up
+     * in the returned row by their index in the read.
+     * @param record    Mapped read
+     * @return Damage of each base of the read by its 0-based index
+     */
+    public double[] resolve(SAMRecord record) {
+        DamageTable table = defaultTable;
+        if (!tables.isEmpty()) {
+            Object readGroup = record.getAttribute(SAMTag.RG);
+            if (readGroup != null) {
+                table = tables.getOrDefault(readGroup.toString(), defaultTable);
+            }
+        }
+        return table.row(record.getReadLength(), record.getReadNegativeStrandFlag());
+    }
+}
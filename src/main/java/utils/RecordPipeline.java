@@ -0,0 +1,439 @@
+package utils;
+
+import htsjdk.samtools.BAMRecordCodec;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.util.BinaryCodec;
+import htsjdk.samtools.util.CloseableIterator;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Multithreaded input stage for BAM files running decompress → decode → pileup as a pipeline.
+ * BGZF blocks are inflated on a thread pool, the inflated stream is split into records, and the
+ * variable-length fields of the records (CIGAR, bases, qualities) are decoded in parallel batches.
+ * Both stages hand their results on through bounded queues, so a slow consumer stalls the reader
+ * instead of buffering the whole file in memory.
+ *
+ * @author Meret Häusler
+ * @version 1.0
+ * @since 2024-09-05
+ */
+public class RecordPipeline implements CloseableIterator<SAMRecord> {
+    public static final int DEFAULT_BLOCKS_PER_TASK = 16;
+    public static final int DEFAULT_BATCH_SIZE = 1024;
+    public static final int DEFAULT_QUEUE_CAPACITY = 32;
+
+    private static final int BGZF_HEADER_LENGTH = 18;
+    private static final byte[] END_OF_STREAM = new byte[0];
+    private static final List<SAMRecord> END_OF_RECORDS = Collections.emptyList();
+
+    private final ExecutorService workers;
+    private final BlockingQueue<Future<byte[]>> inflatedBlocks;
+    private final BlockingQueue<Future<List<SAMRecord>>> decodedBatches;
+    private final Thread readerThread;
+    private final Thread decoderThread;
+
+    // First failure of the reader or decoder stage, checked by the consumer after every batch it takes
+    private volatile Throwable failure;
+    // Number of records split from the inflated stream so far
+    private volatile long splitRecords = 0;
+
+    private Iterator<SAMRecord> currentBatch = Collections.emptyIterator();
+    private boolean finished = false;
+
+
+    /**
+     * Creates a pipeline with default block, batch and queue sizes that delivers records in file order
+     * @param bamFile   BAM file
+     * @param header    Header of the BAM file
+     * @param threads   Number of worker threads for inflating and decoding
+     */
+    public RecordPipeline(File bamFile, SAMFileHeader header, int threads) {
+        this(bamFile, header, threads, DEFAULT_BLOCKS_PER_TASK, DEFAULT_BATCH_SIZE, DEFAULT_QUEUE_CAPACITY);
+    }
+
+
+    /**
+     * Creates and starts a pipeline. Records are always delivered in file order, as the pileup and the read
+     * sample of the damage estimation depend on it.
+     * @param bamFile       BAM file
+     * @param header        Header of the BAM file
+     * @param threads       Number of worker threads for inflating and decoding
+     * @param blocksPerTask Number of BGZF blocks inflated per task
+     * @param batchSize     Number of records decoded per task
+     * @param queueCapacity Maximal number of tasks in flight per stage before the upstream stage blocks
+     */
+    public RecordPipeline(File bamFile, SAMFileHeader header, int threads, int blocksPerTask, int batchSize,
+                          int queueCapacity) {
+        if (threads < 1 || blocksPerTask < 1 || batchSize < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("Pipeline threads, block, batch and queue sizes must be positive.");
+        }
+        this.workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "dorian-bam-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.inflatedBlocks = new ArrayBlockingQueue<>(queueCapacity);
+        this.decodedBatches = new ArrayBlockingQueue<>(queueCapacity);
+
+        this.readerThread = new Thread(() -> readBlocks(bamFile, blocksPerTask), "dorian-bam-reader");
+        this.decoderThread = new Thread(() -> decodeRecords(header, batchSize), "dorian-bam-decoder");
+        readerThread.setDaemon(true);
+        decoderThread.setDaemon(true);
+        readerThread.start();
+        decoderThread.start();
+    }
+
+
+    @Override
+    public boolean hasNext() {
+        while (!currentBatch.hasNext()) {
+            if (finished) {
+                return false;
+            }
+            checkFailure();
+            Future<List<SAMRecord>> next = take(decodedBatches);
+            checkFailure();
+            List<SAMRecord> batch = await(next);
+            if (batch == END_OF_RECORDS) {
+                finished = true;
+                return false;
+            }
+            currentBatch = batch.iterator();
+        }
+        return true;
+    }
+
+
+    @Override
+    public SAMRecord next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return currentBatch.next();
+    }
+
+
+    @Override
+    public void close() {
+        finished = true;
+        readerThread.interrupt();
+        decoderThread.interrupt();
+        workers.shutdownNow();
+    }
+
+
+    // STAGE 1: DECOMPRESS //
+
+    /**
+     * Reads raw BGZF blocks and submits them in groups to the worker pool for inflation
+     * @param bamFile       BAM file
+     * @param blocksPerTask Number of BGZF blocks inflated per task
+     */
+    private void readBlocks(File bamFile, int blocksPerTask) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(bamFile.toPath()), 1 << 16))) {
+            List<byte[]> group = new ArrayList<>(blocksPerTask);
+            byte[] block;
+            while ((block = readBlock(in)) != null) {
+                group.add(block);
+                if (group.size() == blocksPerTask) {
+                    submitInflate(group);
+                    group = new ArrayList<>(blocksPerTask);
+                }
+            }
+            if (!group.isEmpty()) {
+                submitInflate(group);
+            }
+            inflatedBlocks.put(CompletableFuture.completedFuture(END_OF_STREAM));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable e) {
+            fail(e);
+        }
+    }
+
+
+    /**
+     * @param group Compressed BGZF blocks
+     */
+    private void submitInflate(List<byte[]> group) throws InterruptedException {
+        inflatedBlocks.put(workers.submit(() -> inflate(group)));
+    }
+
+
+    /**
+     * Reads one complete BGZF block
+     * @param in    Stream positioned at a block boundary
+     * @return  Compressed block including header and footer, null at end of file
+     */
+    private static byte[] readBlock(DataInputStream in) throws IOException {
+        byte[] header = new byte[BGZF_HEADER_LENGTH];
+        int first = in.read();
+        if (first == -1) {
+            return null;
+        }
+        header[0] = (byte) first;
+        in.readFully(header, 1, BGZF_HEADER_LENGTH - 1);
+        if ((header[0] & 0xff) != 31 || (header[1] & 0xff) != 139 || (header[3] & 4) == 0
+                || header[12] != 'B' || header[13] != 'C') {
+            throw new IOException("Input is not a BGZF compressed BAM file.");
+        }
+        int blockSize = ((header[16] & 0xff) | (header[17] & 0xff) << 8) + 1;
+        byte[] block = Arrays.copyOf(header, blockSize);
+        in.readFully(block, BGZF_HEADER_LENGTH, blockSize - BGZF_HEADER_LENGTH);
+        return block;
+    }
+
+
+    /**
+     * Inflates a group of BGZF blocks into one contiguous buffer
+     * @param group Compressed BGZF blocks
+     * @return  Uncompressed bytes of all blocks
+     */
+    private static byte[] inflate(List<byte[]> group) throws DataFormatException {
+        int total = 0;
+        for (byte[] block : group) {
+            total += uncompressedSize(block);
+        }
+        byte[] out = new byte[total];
+        Inflater inflater = new Inflater(true);
+        try {
+            int offset = 0;
+            for (byte[] block : group) {
+                int size = uncompressedSize(block);
+                int extraLength = (block[10] & 0xff) | (block[11] & 0xff) << 8;
+                int dataStart = 12 + extraLength;
+                inflater.reset();
+                inflater.setInput(block, dataStart, block.length - dataStart - 8);
+                int inflated = 0;
+                while (inflated < size) {
+                    int n = inflater.inflate(out, offset + inflated, size - inflated);
+                    if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+                        throw new DataFormatException("Truncated BGZF block.");
+                    }
+                    inflated += n;
+                }
+                offset += size;
+            }
+        } finally {
+            inflater.end();
+        }
+        return out;
+    }
+
+
+    /**
+     * @param block Compressed BGZF block
+     * @return  Uncompressed size stored in the block footer
+     */
+    private static int uncompressedSize(byte[] block) {
+        int n = block.length;
+        return (block[n - 4] & 0xff) | (block[n - 3] & 0xff) << 8 | (block[n - 2] & 0xff) << 16 | (block[n - 1] & 0xff) << 24;
+    }
+
+
+    // STAGE 2: DECODE //
+
+    /**
+     * Splits the inflated stream into records and submits batches to the worker pool for decoding
+     * @param header    Header of the BAM file
+     * @param batchSize Number of records decoded per task
+     */
+    private void decodeRecords(SAMFileHeader header, int batchSize) {
+        try {
+            InputStream in = new InflatedStream();
+            skipHeader(new BinaryCodec(in));
+            BAMRecordCodec codec = new BAMRecordCodec(header);
+            codec.setInputStream(in);
+
+            List<SAMRecord> batch = new ArrayList<>(batchSize);
+            SAMRecord record;
+            while ((record = codec.decode()) != null) {
+                splitRecords++;
+                batch.add(record);
+                if (batch.size() == batchSize) {
+                    submitDecode(batch);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            if (!batch.isEmpty()) {
+                submitDecode(batch);
+            }
+            decodedBatches.put(CompletableFuture.completedFuture(END_OF_RECORDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable e) {
+            fail(e);
+        }
+    }
+
+
+    /**
+     * @param batch Records whose variable-length fields are decoded
+     */
+    private void submitDecode(List<SAMRecord> batch) throws InterruptedException {
+        decodedBatches.put(workers.submit(() -> decode(batch)));
+    }
+
+
+    /**
+     * Decodes the lazily parsed fields of all records used by the pileup
+     * @param batch Records
+     * @return  Same records
+     */
+    private static List<SAMRecord> decode(List<SAMRecord> batch) {
+        for (SAMRecord record : batch) {
+            record.getCigar();
+            record.getReadBases();
+            record.getBaseQualities();
+            record.getAlignmentEnd();
+        }
+        return batch;
+    }
+
+
+    /**
+     * Skips the BAM header, which has been parsed already by the SamReader
+     * @param codec Little-endian reader positioned at the start of the uncompressed stream
+     */
+    private static void skipHeader(BinaryCodec codec) throws IOException {
+        byte[] magic = new byte[4];
+        codec.readBytes(magic);
+        if (magic[0] != 'B' || magic[1] != 'A' || magic[2] != 'M' || magic[3] != 1) {
+            throw new IOException("Invalid BAM file header.");
+        }
+        codec.readBytes(new byte[codec.readInt()]);
+        int numSequences = codec.readInt();
+        for (int i = 0; i < numSequences; i++) {
+            codec.readBytes(new byte[codec.readInt()]);
+            codec.readInt();
+        }
+    }
+
+
+    // UTILITIES //
+
+    /**
+     * Input stream over the inflated blocks in file order
+     */
+    private class InflatedStream extends InputStream {
+        private byte[] buffer = new byte[0];
+        private int pos = 0;
+
+        private boolean fill() throws IOException {
+            while (pos == buffer.length) {
+                if (buffer == END_OF_STREAM) {
+                    return false;
+                }
+                try {
+                    buffer = await(inflatedBlocks.take());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+                pos = 0;
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return fill() ? buffer[pos++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.length - pos);
+            System.arraycopy(buffer, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+    }
+
+
+    /**
+     * Passes the failure of a stage on to the consumer. The failure is recorded before the consumer is woken up:
+     * if the queue is empty, the failed task wakes it up; if the queue is full, the consumer sees the failure
+     * when it takes the next batch. Batches after the failure are never delivered.
+     * @param e Failure
+     */
+    private void fail(Throwable e) {
+        synchronized (this) {
+            if (failure == null) {
+                failure = e;
+            }
+        }
+        decodedBatches.offer(CompletableFuture.failedFuture(e));
+    }
+
+
+    /**
+     * @return Number of records split from the inflated stream so far, bounded by the queue capacities
+     * while the consumer does not take records
+     */
+    long getSplitRecords() {
+        return splitRecords;
+    }
+
+
+    /**
+     * Rethrows the failure of a stage, if any
+     */
+    private void checkFailure() {
+        if (failure != null) {
+            throw new RuntimeException("Reading the BAM file failed: " + describe(failure), failure);
+        }
+    }
+
+
+    /**
+     * Takes the next element of a queue, rethrowing failures of other stages
+     */
+    private <T> T take(BlockingQueue<T> queue) {
+        try {
+            return queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+
+    /**
+     * Waits for a task of the pipeline and returns its result
+     */
+    private <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Reading the BAM file failed: " + describe(e.getCause()), e.getCause());
+        }
+    }
+
+
+    /**
+     * @param failure Failure of a stage
+     * @return Message of the failure, e.g. of a truncated file, which comes without one
+     */
+    private static String describe(Throwable failure) {
+        if (failure instanceof EOFException) {
+            return "unexpected end of file, the file is truncated";
+        }
+        return failure.getMessage() == null ? failure.toString() : failure.getMessage();
+    }
+}
@@ -0,0 +1,148 @@
+package utils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Split of a reference sequence into shards of equal size that are called by independent runs,
+ * e.g. on different cluster nodes, and merged afterwards. The plan is a small TSV file in the output
+ * directory shared by all runs:
+ * <pre>
+ * #bam       &lt;absolute paths of the alignment files, tab-separated&gt;
+ * #sequence  &lt;name&gt;  &lt;length&gt;
+ * #size      &lt;positions per shard&gt;
+ * #SHARD START END
+ * 1  1  &lt;size&gt;
+ * ...
+ * </pre>
+ *
+ * @author Meret Häusler
+ * @version 1.0
+ * @since 2024-10-03
+ */
+public class ShardPlan {
+    public static final String FILE_NAME = "shards.tsv";
+
+    private final List<String> bams;
+    private final String sequenceName;
+    private final int length;
+    private final int size;
+
+
+    /**
+     * @param bams          Absolute paths of the alignment files
+     * @param sequenceName  Name of the reconstructed reference sequence
+     * @param length        Length of the reconstructed reference sequence
+     * @param size          Number of positions per shard
+     */
+    private ShardPlan(List<String> bams, String sequenceName, int length, int size) {
+        this.bams = bams;
+        this.sequenceName = sequenceName;
+        this.length = length;
+        this.size = size;
+    }
+
+
+    /**
+     * Splits a reference sequence into shards of equal size; the last shard may be shorter
+     * @param bams          Absolute paths of the alignment files
+     * @param sequenceName  Name of the reconstructed reference sequence
+     * @param length        Length of the reconstructed reference sequence
+     * @param shards        Number of shards
+     * @return Shard plan
+     */
+    public static ShardPlan split(List<String> bams, String sequenceName, int length, int shards) {
+        return new ShardPlan(bams, sequenceName, length, (int) (((long) length + shards - 1) / shards));
+    }
+
+
+    /**
+     * Writes the plan to &lt;dir&gt;/shards.tsv
+     * @param dir   Output directory of the shard runs
+     * @throws IOException If the file cannot be written
+     */
+    public void write(Path dir) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("#bam\t").append(String.join("\t", bams)).append('\n');
+        sb.append("#sequence\t").append(sequenceName).append('\t').append(length).append('\n');
+        sb.append("#size\t").append(size).append('\n');
+        sb.append("#SHARD\tSTART\tEND\n");
+        for (int shard = 1; shard <= getShards(); shard++) {
+            sb.append(shard).append('\t').append(getStart(shard)).append('\t').append(getEnd(shard)).append('\n');
+        }
+        Files.writeString(dir.resolve(FILE_NAME), sb);
+    }
+
+
+    /**
+     * Reads the plan from &lt;dir&gt;/shards.tsv
+     * @param dir   Output directory of the shard runs
+     * @return Shard plan
+     * @throws IOException If the file cannot be read or is no shard plan
+     */
+    public static ShardPlan read(Path dir) throws IOException {
+        Path file = dir.resolve(FILE_NAME);
+        if (!Files.exists(file)) {
+            throw new IOException("No shard plan " + file + " found, run 'scatter' first.");
+        }
+        List<String> lines = Files.readAllLines(file);
+        try {
+            String[] bam = lines.get(0).split("\t");
+            String[] sequence = lines.get(1).split("\t");
+            String[] size = lines.get(2).split("\t");
+            if (!bam[0].equals("#bam") || !sequence[0].equals("#sequence") || !size[0].equals("#size")) {
+                throw new IllegalArgumentException();
+            }
+            if (bam.length < 2) {
+                throw new IllegalArgumentException();
+            }
+            return new ShardPlan(Arrays.asList(bam).subList(1, bam.length), sequence[1], Integer.parseInt(sequence[2]), Integer.parseInt(size[1]));
+        } catch (RuntimeException e) {
+            throw new IOException(file + " is not a shard plan.", e);
+        }
+    }
+
+
+    // Getters
+    public List<String> getBams() {
+        return bams;
+    }
+
+    public String getSequenceName() {
+        return sequenceName;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return Number of shards; fewer than requested if the sequence is shorter than the requested number
+     */
+    public int getShards() {
+        return (int) (((long) length + size - 1) / size);
+    }
+
+    /**
+     * @param shard 1-based index of a shard
+     * @return First 1-based position of the shard
+     */
+    public int getStart(int shard) {
+        return (shard - 1) * size + 1;
+    }
+
+    /**
+     * @param shard 1-based index of a shard
+     * @return Last 1-based position of the shard
+     */
+    public int getEnd(int shard) {
+        return (int) Math.min((long) shard * size, length);
+    }
+}
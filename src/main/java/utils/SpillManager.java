@@ -0,0 +1,176 @@
+package utils;
+
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFEncoder;
+import htsjdk.variant.vcf.VCFHeader;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Bounds the heap used by the variant calls of a reconstruction. Once the calls held in memory reach the share of the
+ * memory budget reserved for them, they are encoded and written to a gzip-compressed run in the spill directory and
+ * removed from the heap. Positions are called in order, so every run is sorted and the runs follow each other;
+ * merging them at write time is a concatenation. The spill directory is removed once the records are written; if
+ * writing fails, the runs are kept, as they hold the only copy of the spilled calls.
+ *
+ * @author Meret Häusler
+ * @version 1.0
+ * @since 2024-10-12
+ */
+public class SpillManager {
+    // Estimated heap of one variant call (VariantContext with alleles, genotype and likelihoods)
+    public static final long RECORD_BYTES = 512;
+    // Share of the memory budget for the variant calls; the rest is left for reference, pileups and consensus
+    public static final double RECORD_SHARE = 0.5;
+
+    private final Path dir;
+    private final VCFHeader vcfHeader;
+    private final int capacity;
+    private final List<Path> runs = new ArrayList<>();
+
+
+    /**
+     * @param dir           Spill directory, an existing directory is discarded
+     * @param vcfHeader     Header of the VCF output
+     * @param maxMemory     Memory budget of the reconstruction in bytes
+     * @throws IOException If the spill directory cannot be created
+     */
+    public SpillManager(Path dir, VCFHeader vcfHeader, long maxMemory) throws IOException {
+        this.dir = dir;
+        this.vcfHeader = vcfHeader;
+        long records = (long) (maxMemory * RECORD_SHARE) / RECORD_BYTES;
+        this.capacity = (int) Math.max(1, Math.min(Integer.MAX_VALUE - 8, records));
+        delete();
+        Files.createDirectories(dir);
+    }
+
+
+    /**
+     * @return Maximal number of variant calls held in memory
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+
+    /**
+     * @return Number of runs written to disk so far
+     */
+    public int getRuns() {
+        return runs.size();
+    }
+
+
+    /**
+     * Has to be called after each base call. If the variant calls in memory reach the capacity,
+     * they are written to a new run and cleared.
+     * @param variants  Variant calls held in memory
+     * @throws IOException If the run cannot be written
+     */
+    public void positionCalled(List<VariantContext> variants) throws IOException {
+        if (variants.size() >= capacity) {
+            spill(variants);
+        }
+    }
+
+
+    /**
+     * Writes the records of all runs followed by the variant calls in memory without header, e.g. as chunk of a
+     * checkpoint interval, and starts over with an empty spill directory
+     * @param out       Output file
+     * @param variants  Variant calls held in memory, cleared afterwards
+     * @throws IOException If a run cannot be read or the output file cannot be written
+     */
+    public void writeRecords(Path out, List<VariantContext> variants) throws IOException {
+        if (runs.isEmpty()) {
+            VCFFileWriter.writeVCFRecords(out, vcfHeader, variants);
+        } else {
+            spill(variants);
+            VCFFileWriter.concatRecords(out, runs);
+            clearRuns();
+        }
+        variants.clear();
+    }
+
+
+    /**
+     * Writes a VCF file of all runs followed by the variant calls in memory and removes the spill directory
+     * @param vcfOut    Path to VCF output file
+     * @param variants  Variant calls held in memory, cleared afterwards
+     * @throws IOException If a run cannot be read, the VCF file cannot be written or the spill directory cannot be
+     *                     removed; the runs are only removed after the VCF file is written
+     */
+    public void writeVCFFile(String vcfOut, List<VariantContext> variants) throws IOException {
+        if (runs.isEmpty()) {
+            VCFFileWriter.writeVCFFile(vcfOut, vcfHeader, variants);
+        } else {
+            spill(variants);
+            VCFFileWriter.concatVCFFile(vcfOut, vcfHeader, runs);
+        }
+        // Only reached if the VCF file is complete
+        variants.clear();
+        delete();
+    }
+
+
+    /**
+     * Removes the spill directory
+     * @throws IOException If a run cannot be deleted
+     */
+    public void delete() throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        clearRuns();
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+
+
+    /**
+     * Writes the variant calls in memory to the next run and clears them
+     * @param variants  Variant calls held in memory
+     * @throws IOException If the run cannot be written
+     */
+    private void spill(List<VariantContext> variants) throws IOException {
+        if (variants.isEmpty()) {
+            return;
+        }
+        Path run = dir.resolve(runs.size() + ".vcf.gz");
+        VCFEncoder encoder = new VCFEncoder(vcfHeader, true, true);
+        try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(
+                new GZIPOutputStream(Files.newOutputStream(run)), StandardCharsets.UTF_8))) {
+            for (VariantContext variant : variants) {
+                encoder.write(bw, variant);
+                bw.newLine();
+            }
+        }
+        runs.add(run);
+        variants.clear();
+    }
+
+
+    /**
+     * Deletes the runs written so far
+     * @throws IOException If a run cannot be deleted
+     */
+    private void clearRuns() throws IOException {
+        for (Path run : runs) {
+            Files.deleteIfExists(run);
+        }
+        runs.clear();
+    }
+}
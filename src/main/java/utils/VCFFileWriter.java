@@ -1,14 +1,20 @@
 package utils;
 
 import datastructure.Fasta;
-import dorian.dorian;
+import datastructure.ReconstructionConfig;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.vcf.*;
 
+import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.zip.GZIPInputStream;
 
 public class VCFFileWriter {
 
@@ -17,8 +23,10 @@ public class VCFFileWriter {
      * @param vcf_out       Path to VCF output file
      * @param vcfHeader     VCFHeader object for given sample
      * @param variant_calls List of variant contexts
+     * @throws IOException If the VCF file cannot be written
      */
-    public static void writeVCFFile(String vcf_out, VCFHeader vcfHeader, List<VariantContext> variant_calls) {
+    public static void writeVCFFile(String vcf_out, VCFHeader vcfHeader, List<VariantContext> variant_calls)
+            throws IOException {
         // Create vcf writer
         VCFEncoder vcf_writer = new VCFEncoder(vcfHeader, true, true);
 
@@ -27,25 +35,102 @@ public class VCFFileWriter {
             BufferedWriter bw = new BufferedWriter(writer);
 
             // Write VCF header to the file
-            for (VCFHeaderLine headerline : vcfHeader.getMetaDataInSortedOrder()) {
-                bw.write("##" + headerline);
+            writeHeader(bw, vcfHeader);
+
+            // Write each VariantContext to the VCF file
+            for (VariantContext variant : variant_calls) {
+                vcf_writer.write(bw, variant);
                 bw.newLine();
             }
 
-            // Write column identifiers
-            writeColumnHeader(bw, vcfHeader);
+            bw.close();
+        }
+    }
+
 
-            // Write each VariantContext to the VCF file
+    /**
+     * Writes a vcf file from chunks of already encoded VCF records
+     * @param vcf_out       Path to VCF output file
+     * @param vcfHeader     VCFHeader object for given sample
+     * @param chunks        Files with VCF records, written by writeVCFRecords or gzip-compressed (.gz)
+     * @throws IOException If a chunk cannot be read or the VCF file cannot be written; the chunks are then still
+     *                     needed and must not be removed
+     */
+    public static void concatVCFFile(String vcf_out, VCFHeader vcfHeader, List<Path> chunks) throws IOException {
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(vcf_out, false))) {
+            // Write VCF header to the file
+            writeHeader(bw, vcfHeader);
+
+            // Append records of each chunk
+            appendChunks(bw, chunks);
+        }
+    }
+
+
+    /**
+     * Concatenates chunks of already encoded VCF records without header
+     * @param out       Path to output file
+     * @param chunks    Files with VCF records, written by writeVCFRecords or gzip-compressed (.gz)
+     * @throws IOException Throws exception if fails
+     */
+    public static void concatRecords(Path out, List<Path> chunks) throws IOException {
+        try (BufferedWriter bw = Files.newBufferedWriter(out)) {
+            appendChunks(bw, chunks);
+        }
+    }
+
+
+    /**
+     * Appends the records of chunks in order
+     * @param bw        Writer for current file
+     * @param chunks    Files with VCF records, gzip-compressed if their name ends with .gz
+     * @throws IOException Throws exception if fails
+     */
+    private static void appendChunks(BufferedWriter bw, List<Path> chunks) throws IOException {
+        for (Path chunk : chunks) {
+            try (BufferedReader br = chunk.toString().endsWith(".gz")
+                    ? new BufferedReader(new InputStreamReader(new GZIPInputStream(Files.newInputStream(chunk)),
+                            StandardCharsets.UTF_8))
+                    : Files.newBufferedReader(chunk)) {
+                br.transferTo(bw);
+            }
+        }
+    }
+
+
+    /**
+     * Writes the records of a list of variant contexts without header
+     * @param out           Path to output file
+     * @param vcfHeader     VCFHeader object for given sample
+     * @param variant_calls List of variant contexts
+     * @throws IOException Throws exception if fails
+     */
+    public static void writeVCFRecords(Path out, VCFHeader vcfHeader, List<VariantContext> variant_calls)
+            throws IOException {
+        VCFEncoder vcf_writer = new VCFEncoder(vcfHeader, true, true);
+        try (BufferedWriter bw = Files.newBufferedWriter(out)) {
             for (VariantContext variant : variant_calls) {
                 vcf_writer.write(bw, variant);
                 bw.newLine();
             }
+        }
+    }
 
-            bw.close();
 
-        } catch (Exception e) {
-            dorian.logger.error(e.getMessage());
+    /**
+     * Writes the meta data lines and the column header
+     * @param bw        Writer for current file
+     * @param vcfHeader VCF header of output data
+     * @throws IOException Throws exception if fails
+     */
+    private static void writeHeader(BufferedWriter bw, VCFHeader vcfHeader) throws IOException {
+        for (VCFHeaderLine headerline : vcfHeader.getMetaDataInSortedOrder()) {
+            bw.write("##" + headerline);
+            bw.newLine();
         }
+
+        // Write column identifiers
+        writeColumnHeader(bw, vcfHeader);
     }
 
 
@@ -68,9 +153,10 @@ public class VCFFileWriter {
      * Creates a header for a VCF file using reference and sample information
      * @param ref           Reference as Fasta object
      * @param sample_name   Name of analysed sample
+     * @param config        Reconstruction parameters
      * @return  VCFHeader for given sample
      */
-    public static VCFHeader defaultHeader(Fasta ref, String sample_name){
+    public static VCFHeader defaultHeader(Fasta ref, String sample_name, ReconstructionConfig config){
 
         VCFHeaderVersion version = VCFHeaderVersion.valueOf("VCF4_2");
 
@@ -83,13 +169,31 @@ public class VCFFileWriter {
         VCFHeaderLine dp = new VCFFormatHeaderLine("DP", 1, VCFHeaderLineType.Integer,
                 "Approximate read depth (reads with MQ=255 or with bad mates are filtered)");
         VCFHeaderLine cor_mode_filter = new VCFInfoHeaderLine("COR_MODE", 1, VCFHeaderLineType.String,
-                "Used correction mode: " + dorian.cor_mode.getModeName());
+                "Used correction mode: " + config.getCorMode().getModeName());
         VCFHeaderLine cov_1_filter = new VCFInfoHeaderLine("MIN_COV_1", 2, VCFHeaderLineType.String,
-                "Minimal coverage filter (incl. N): " + dorian.cov);
+                "Minimal coverage filter (incl. N): " + config.getMinCov());
         VCFHeaderLine freq_filter = new VCFInfoHeaderLine("MIN_FREQ", 3, VCFHeaderLineType.String,
-                "Minimal base frequency filter: " + dorian.freq);
+                "Minimal base frequency filter: " + config.getMinFreq());
 
         Set<VCFHeaderLine> meta_data = new HashSet<>(Arrays.asList(contig, ad, dp, cor_mode_filter, cov_1_filter, freq_filter));
+        if (config.getMaxDepth() > 0) {
+            meta_data.add(new VCFInfoHeaderLine("MAX_DEPTH", 1, VCFHeaderLineType.Integer,
+                    "Positions downsampled to at most this many reads (AD and DP of kept reads): "
+                            + config.getMaxDepth()));
+        }
+        if (config.isMergeOverlaps()) {
+            meta_data.add(new VCFInfoHeaderLine("MERGE_OVERLAPS", 0, VCFHeaderLineType.Flag,
+                    "Overlapping mates of a pair counted once with the base of higher quality (AD and DP of fragments)"));
+        }
+        if (config.getLikelihoodPhred() > 0) {
+            meta_data.add(new VCFFormatHeaderLine("GL", VCFHeaderLineCount.G, VCFHeaderLineType.Float,
+                    "Haploid genotype likelihoods (log10) from the corrected base counts, base error rate of phred "
+                            + config.getLikelihoodPhred()));
+            meta_data.add(new VCFFormatHeaderLine("PL", VCFHeaderLineCount.G, VCFHeaderLineType.Integer,
+                    "Normalized, phred-scaled likelihoods of the haploid genotypes"));
+            meta_data.add(new VCFFormatHeaderLine("GQ", 1, VCFHeaderLineType.Integer,
+                    "Genotype quality: phred-scaled difference of the two most likely bases"));
+        }
 
         VCFHeader header = new VCFHeader(meta_data, new ArrayList<>(Collections.singleton(sample_name)));
 
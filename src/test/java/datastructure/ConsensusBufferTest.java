@@ -0,0 +1,56 @@
+package datastructure;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Storage types of the consensus buffer and the direct memory check of off-heap storage
+ *
+ * @author Meret Häusler
+ * @version 1.0
+ * @since 2024-10-02
+ */
+class ConsensusBufferTest {
+    // Spans two chunks
+    private static final int LENGTH = (1 << 22) + 100;
+
+    @TempDir
+    Path tmp;
+
+
+    @Test
+    void keepsBasesOfAllStorages() throws IOException {
+        for (ConsensusStorage storage : ConsensusStorage.values()) {
+            Path file = tmp.resolve(storage.getName() + ".consensus");
+            try (ConsensusBuffer buffer = new ConsensusBuffer(storage, file, LENGTH)) {
+                for (int i = 0; i < LENGTH; i++) {
+                    buffer.append("ACGTN".charAt(i % 5));
+                }
+                assertEquals(LENGTH, buffer.length(), storage.getName());
+                assertEquals('G', buffer.charAt(LENGTH - 2), storage.getName());
+                assertEquals("ACGTNACGTN", buffer.subSequence((1 << 22) - 4, (1 << 22) + 6).toString(),
+                        storage.getName());
+            }
+            assertFalse(Files.exists(file), storage.getName());
+        }
+    }
+
+
+    @Test
+    void rejectsOffHeapBeyondDirectMemoryLimit() throws IOException {
+        long tooLong = ConsensusBuffer.maxDirectMemory() + 1;
+        IOException e = assertThrows(IOException.class,
+                () -> new ConsensusBuffer(ConsensusStorage.OFF_HEAP, null, tooLong));
+        assertTrue(e.getMessage().contains("-cs mapped"), e.getMessage());
+
+        // Heap and mapped storage are not limited by direct memory
+        new ConsensusBuffer(ConsensusStorage.HEAP, null, tooLong).close();
+        new ConsensusBuffer(ConsensusStorage.MAPPED, tmp.resolve("mapped.consensus"), tooLong).close();
+    }
+}
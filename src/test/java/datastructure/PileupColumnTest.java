@@ -0,0 +1,74 @@
+package datastructure;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Downsampling of a pileup column
+ *
+ * @author Meret Häusler
+ * @version 1.0
+ * @since 2024-10-16
+ */
+class PileupColumnTest {
+
+
+    @Test
+    void keepsStrandsInProportion() {
+        PileupColumn column = new PileupColumn(1);
+        column.reset("ref", 0, 1);
+        // 30 forward reads with C, 10 reverse reads with T
+        for (int i = 0; i < 40; i++) {
+            boolean reverse = i % 4 == 3;
+            column.add((byte) (reverse ? 'T' : 'C'), i, 50, reverse);
+        }
+        column.downsample(8);
+
+        assertEquals(8, column.getDepth());
+        assertEquals(40, column.getFullDepth());
+        assertArrayEquals(new int[]{0, 30, 0, 10}, column.getFullCounts());
+        assertEquals(2, reverseReads(column));
+        // Evenly spaced: the last of every five reads on each strand, e.g. the fifth forward read
+        assertEquals(5, column.getReadIdx(0));
+        assertEquals(39, column.getReadIdx(7));
+    }
+
+
+    @Test
+    void splitsStrandsOfReplacedReads() {
+        PileupColumn column = new PileupColumn(4);
+        column.reset("ref", 0, 1);
+        for (int i = 0; i < 4; i++) {
+            column.add((byte) 'A', i, 50, false);
+        }
+        // The reverse mate replaces two forward reads
+        column.replace(0, (byte) 'A', 10, 50, true, null, (byte) -1);
+        column.replace(1, (byte) 'A', 11, 50, true, null, (byte) -1);
+        column.downsample(2);
+        assertEquals(1, reverseReads(column));
+
+        // A reset column starts without reverse reads
+        column.reset("ref", 0, 2);
+        for (int i = 0; i < 4; i++) {
+            column.add((byte) 'A', i, 50, false);
+        }
+        column.downsample(2);
+        assertEquals(0, reverseReads(column));
+    }
+
+
+    /**
+     * @param column    Pileup column
+     * @return Number of reverse reads in the column
+     */
+    private static int reverseReads(PileupColumn column) {
+        int reverse = 0;
+        for (int i = 0; i < column.getDepth(); i++) {
+            if (column.getIsReverse(i)) {
+                reverse++;
+            }
+        }
+        return reverse;
+    }
+}
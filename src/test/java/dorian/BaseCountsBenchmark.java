@@ -0,0 +1,108 @@
+package dorian;
+
+import cli.CLIParser;
+import datastructure.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import utils.DamageTypeGetter;
+import utils.LogWriter;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time per column of the list-based correction and of the single-pass counting with reference-free weighting,
+ * without and with base quality weighting. Columns hold C/T and G/A damage candidates with phred scores from 2 to
+ * 41 and have 10, 100 or 1000 reads. Run with scripts/benchmark_basecounts.sh.
+ *
+ * @author Meret Häusler
+ * @version 1.0
+ * @since 2024-09-30
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BaseCountsBenchmark {
+    private static final int COLUMNS = 64;
+
+    @Param({"10", "100", "1000"})
+    public int depth;
+
+    private List<Double> dp5;
+    private List<Double> dp3;
+    private PileupColumn[] columns;
+    private BaseCalling calling;
+    private final BaseCounts counts = new BaseCounts();
+    private int next = 0;
+
+
+    @Setup
+    public void setup() throws Exception {
+        dp5 = CLIParser.readDamageProfile(Path.of("data/5p_freq_misincorporations.txt"));
+        dp3 = CLIParser.readDamageProfile(Path.of("data/3p_freq_misincorporations.txt"));
+        DamageTable damage = new DamageTable(dp5, dp3);
+        Fasta ref = new Fasta(">ref", "A");
+        ReconstructionConfig config = ReconstructionConfig.builder().corMode(CorrectionMode.REFFREE_WEI)
+                .minCov(1).minFreq(0.5).damageProfiles(dp5, dp3).build();
+        calling = new BaseCalling(config, ref, "sample",
+                new LogWriter(config.getCorMode(), ref, line -> { }, line -> { }), null, null, null, null);
+
+        Random random = new Random(42);
+        String[] patterns = {"CTT", "GAA"};
+        columns = new PileupColumn[COLUMNS];
+        for (int c = 0; c < COLUMNS; c++) {
+            String bases = patterns[c % patterns.length];
+            columns[c] = new PileupColumn(depth);
+            columns[c].reset("ref", 0, 1);
+            for (int i = 0; i < depth; i++) {
+                int readLength = 20 + random.nextInt(131);
+                boolean isReverse = random.nextBoolean();
+                columns[c].add((byte) bases.charAt(random.nextInt(bases.length())), random.nextInt(readLength),
+                        readLength, isReverse, damage.row(readLength, isReverse), (byte) (2 + random.nextInt(40)));
+            }
+        }
+    }
+
+
+    private PileupColumn nextColumn() {
+        next = (next + 1) % COLUMNS;
+        return columns[next];
+    }
+
+
+    @Benchmark
+    public void listBased(Blackhole bh) {
+        PileupColumn column = nextColumn();
+        ArrayList<MappingPosition> reads = new ArrayList<>();
+        for (int i = 0; i < column.getDepth(); i++) {
+            reads.add(MappingPosition.createMappingPosition(column, i));
+        }
+        DamageType type = DamageTypeGetter.getDamageTypeReffree(reads);
+        ArrayList<MappingPosition> corrected = type.needsCorrection()
+                ? DamageCorrection.weightDamage(reads, type, dp5, dp3)
+                : reads;
+        bh.consume(BaseCalling.countBaseFrequencies(reads));
+        bh.consume(BaseCalling.countBaseFrequencies(corrected));
+    }
+
+
+    @Benchmark
+    public void singlePass(Blackhole bh) {
+        counts.count(nextColumn(), true, false);
+        bh.consume(calling.decideCounts('C', counts));
+    }
+
+
+    @Benchmark
+    public void singlePassQuality(Blackhole bh) {
+        counts.count(nextColumn(), true, true);
+        bh.consume(counts.qualityCounts);
+        bh.consume(counts.weightT + counts.weightA + counts.upvoteC + counts.upvoteG);
+    }
+}
@@ -0,0 +1,150 @@
+package dorian;
+
+import cli.CLIParser;
+import datastructure.*;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import utils.DamageTypeGetter;
+import utils.LogWriter;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Equivalence of the single-pass column counting (BaseCounts.count and BaseCalling.decideCounts) with the
+ * list-based correction on MappingPositions it replaced, which serves as the oracle: damage type detection,
+ * silencing, damage weighting and base counting of random columns at 10x, 100x and 1000x depth.
+ *
+ * @author Meret Häusler
+ * @version 1.0
+ * @since 2024-09-30
+ */
+class BaseCountsEquivalenceTest {
+    private static final int[] DEPTHS = {10, 100, 1000};
+    private static final int COLUMNS = 300;
+    private static final String REF_BASES = "ACGT";
+
+    private static List<Double> dp5;
+    private static List<Double> dp3;
+    private static DamageTable damage;
+
+
+    @BeforeAll
+    static void readProfiles() throws Exception {
+        dp5 = CLIParser.readDamageProfile(Path.of("data/5p_freq_misincorporations.txt"));
+        dp3 = CLIParser.readDamageProfile(Path.of("data/3p_freq_misincorporations.txt"));
+        damage = new DamageTable(dp5, dp3);
+    }
+
+
+    @Test
+    void referenceBasedSilencing() {
+        assertEquivalent(CorrectionMode.REFBASED_SIL, new Random(1));
+    }
+
+
+    @Test
+    void referenceFreeSilencing() {
+        assertEquivalent(CorrectionMode.REFFREE_SIL, new Random(2));
+    }
+
+
+    @Test
+    void referenceFreeWeighting() {
+        assertEquivalent(CorrectionMode.REFFREE_WEI, new Random(3));
+    }
+
+
+    @Test
+    void noCorrection() {
+        assertEquivalent(CorrectionMode.NO_COR, new Random(4));
+    }
+
+
+    /**
+     * Compares both implementations on random columns of all depths
+     * @param corMode   Correction mode
+     * @param random    Random source
+     */
+    private static void assertEquivalent(CorrectionMode corMode, Random random) {
+        ReconstructionConfig.Builder config = ReconstructionConfig.builder().corMode(corMode).minCov(1).minFreq(0.5);
+        if (corMode.needsDP()) {
+            config.damageProfiles(dp5, dp3);
+        }
+        Fasta ref = new Fasta(">ref", "A");
+        BaseCalling calling = new BaseCalling(config.build(), ref, "sample",
+                new LogWriter(corMode, ref, line -> { }, line -> { }), null, null, null, null);
+        BaseCounts counts = new BaseCounts();
+
+        for (int depth : DEPTHS) {
+            for (int c = 0; c < COLUMNS; c++) {
+                PileupColumn column = randomColumn(depth, random, corMode.needsDP());
+                char refBase = REF_BASES.charAt(random.nextInt(REF_BASES.length()));
+                String where = corMode.getModeName() + ", depth " + depth + ", column " + c;
+
+                // Oracle: list of MappingPositions
+                ArrayList<MappingPosition> reads = new ArrayList<>();
+                for (int i = 0; i < column.getDepth(); i++) {
+                    reads.add(MappingPosition.createMappingPosition(column, i));
+                }
+                DamageType expectedType = damageType(corMode, reads, refBase);
+                ArrayList<MappingPosition> corrected = !expectedType.needsCorrection() ? reads
+                        : corMode.needsDP() ? DamageCorrection.weightDamage(reads, expectedType, dp5, dp3)
+                        : DamageCorrection.silenceDamage(reads, expectedType);
+                Map<Character, Double> expectedCounts = BaseCalling.countBaseFrequencies(reads);
+                Map<Character, Double> expectedCorrected = BaseCalling.countBaseFrequencies(corrected);
+
+                // Single pass over the column
+                counts.count(column, corMode.needsDP(), false);
+                CallDecision decision = calling.decideCounts(refBase, counts);
+
+                assertEquals(expectedType, decision.getDamPos(), where);
+                assertEquals(expectedCounts, decision.getCntBases(), where);
+                assertEquals(expectedCorrected, decision.getCntBasesCor(), where);
+            }
+        }
+    }
+
+
+    /**
+     * @return Damage type of the list-based detection of the correction mode
+     */
+    private static DamageType damageType(CorrectionMode corMode, List<MappingPosition> reads, char refBase) {
+        switch (corMode) {
+            case NO_COR:
+                return DamageType.NONE;
+            case REFBASED_SIL:
+                return DamageTypeGetter.getDamageTypeRefbased(reads, refBase);
+            default:
+                return DamageTypeGetter.getDamageTypeReffree(reads);
+        }
+    }
+
+
+    /**
+     * Creates a column with random reads. Bases are drawn from one of the damage patterns (C/T or G/A) or all
+     * bases including N, so that damaged and undamaged positions of both patterns occur.
+     * @param depth     Number of reads
+     * @param random    Random source
+     * @param weighting If true, the damage of the reads is added
+     * @return Column
+     */
+    private static PileupColumn randomColumn(int depth, Random random, boolean weighting) {
+        String[] patterns = {"CT", "GA", "ACGT", "ACGTN"};
+        String bases = patterns[random.nextInt(patterns.length)];
+        PileupColumn column = new PileupColumn(depth);
+        column.reset("ref", 0, 1);
+        for (int i = 0; i < depth; i++) {
+            int readLength = 20 + random.nextInt(131);
+            boolean isReverse = random.nextBoolean();
+            column.add((byte) bases.charAt(random.nextInt(bases.length())), random.nextInt(readLength), readLength,
+                    isReverse, weighting ? damage.row(readLength, isReverse) : null, (byte) -1);
+        }
+        return column;
+    }
+}
@@ -0,0 +1,57 @@
+package dorian;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Jobs that were running when a server stopped: a starting server only queues the jobs of stopped servers on its
+ * host again, not those of live servers sharing the spool directory
+ *
+ * @author Meret Häusler
+ * @version 1.0
+ * @since 2024-09-23
+ */
+class DorianServerTest {
+
+    @TempDir
+    Path spool;
+
+
+    @Test
+    void queuesOnlyJobsOfStoppedServersAgain() throws Exception {
+        String host = InetAddress.getLocalHost().getHostName();
+        Process stopped = new ProcessBuilder("true").start();
+        stopped.waitFor();
+        running("stopped", host + ":" + stopped.pid());
+        running("live", host + ":" + ProcessHandle.current().parent().orElseThrow().pid());
+        running("remote", "other-host:1");
+        running("unknown", null);
+
+        // The server stops right after startup
+        Files.createFile(spool.resolve("STOP"));
+        new DorianServer(spool, 1, 1).serve();
+
+        assertTrue(Files.exists(spool.resolve("stopped.job")), "Job of the stopped server was not queued again");
+        assertTrue(Files.exists(spool.resolve("live.running")), "Job of a live server was queued again");
+        assertTrue(Files.exists(spool.resolve("remote.running")), "Job of another host was queued again");
+        assertTrue(Files.exists(spool.resolve("unknown.running")), "Job without owner was queued again");
+    }
+
+
+    /**
+     * Writes a running job and its status
+     * @param name      Job name
+     * @param server    Server running the job as host:pid, null for none
+     */
+    private void running(String name, String server) throws Exception {
+        Files.writeString(spool.resolve(name + ".running"), "bam=" + name + ".bam\n");
+        Files.writeString(spool.resolve(name + ".status"), "job=" + name + "\n"
+                + (server == null ? "" : "server=" + server + "\n") + "state=RUNNING\n");
+    }
+}
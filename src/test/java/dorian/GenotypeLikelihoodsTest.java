@@ -0,0 +1,73 @@
+package dorian;
+
+import datastructure.AlleleCount;
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.VariantContext;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Haploid genotype likelihoods, genotype quality and PL of variant calls
+ *
+ * @author Meret Häusler
+ * @version 1.0
+ * @since 2024-10-16
+ */
+class GenotypeLikelihoodsTest {
+    private static final Allele REF_A = Allele.create("A", true);
+    private static final Allele ALT_C = Allele.create("C", false);
+    // log10(1 - e) and log10(e / 3) at phred 20
+    private static final double MATCH = Math.log10(0.99);
+    private static final double MISMATCH = Math.log10(0.01 / 3);
+
+
+    @Test
+    void annotatesAllelesFromWeightedCounts() {
+        AlleleCount alleles = new AlleleCount(List.of(REF_A, ALT_C), new int[]{1, 2});
+        new GenotypeLikelihoods(20).annotate(alleles, Map.of('A', 0.5, 'C', 2.0, 'G', 0.0, 'T', 0.0));
+
+        // A damage candidate down-weighted to 0.5 counts half a read
+        assertArrayEquals(new double[]{0.5 * MATCH + 2.0 * MISMATCH, 2.0 * MATCH + 0.5 * MISMATCH},
+                alleles.getLikelihoods(), 1e-9);
+        assertEquals(Math.round(-10 * 1.5 * (MISMATCH - MATCH)), alleles.getQuality());
+    }
+
+
+    @Test
+    void comparesAllBasesForQuality() {
+        // T is as frequent as the only listed allele, so the call is uncertain
+        AlleleCount alleles = new AlleleCount(List.of(REF_A), new int[]{2});
+        new GenotypeLikelihoods(20).annotate(alleles, Map.of('A', 2.0, 'C', 0.0, 'G', 0.0, 'T', 2.0));
+        assertEquals(0, alleles.getQuality());
+
+        // Many reads cap the quality
+        new GenotypeLikelihoods(20).annotate(alleles, Map.of('A', 50.0, 'C', 0.0, 'G', 0.0, 'T', 0.0));
+        assertEquals(GenotypeLikelihoods.MAX_GQ, alleles.getQuality());
+    }
+
+
+    @Test
+    void callsMostLikelyAlleleInVCF() {
+        AlleleCount alleles = new AlleleCount(List.of(REF_A, ALT_C), new int[]{1, 3});
+        new GenotypeLikelihoods(20).annotate(alleles, Map.of('A', 1.0, 'C', 3.0, 'G', 0.0, 'T', 0.0));
+        VariantContext variant = VariantCalling.makeVariantCall(alleles, "ref", 5, "sample");
+
+        Genotype genotype = variant.getGenotype("sample");
+        assertEquals(List.of(ALT_C), genotype.getAlleles());
+        assertArrayEquals(new int[]{(int) Math.round(-20 * (MISMATCH - MATCH)), 0}, genotype.getPL());
+        assertEquals(alleles.getQuality(), genotype.getGQ());
+        assertArrayEquals(alleles.getLikelihoods(), (double[]) genotype.getExtendedAttribute("GL"));
+    }
+
+
+    @Test
+    void rejectsPhredOutOfRange() {
+        assertThrows(IllegalArgumentException.class, () -> new GenotypeLikelihoods(0));
+        assertThrows(IllegalArgumentException.class, () -> new GenotypeLikelihoods(GenotypeLikelihoods.MAX_PHRED + 1));
+    }
+}
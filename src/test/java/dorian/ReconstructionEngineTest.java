@@ -0,0 +1,204 @@
+package dorian;
+
+import cli.CLIParser;
+import datastructure.CorrectionMode;
+import datastructure.Fasta;
+import datastructure.ReconstructionConfig;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import utils.FastaIO;
+import utils.ShardPlan;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Result files of the ReconstructionEngine on the test data. Intermediate results (checkpoints, shards, spilled
+ * variant calls) hold the only copy of the calls and have to survive a failed write of the result files.
+ *
+ * @author Meret Häusler
+ * @version 1.0
+ * @since 2024-09-18
+ */
+class ReconstructionEngineTest {
+    private static final String SAMPLE = "test";
+    private static final List<File> READS = List.of(new File("data/test.bam"));
+    private static final Consumer<String> IGNORE = line -> {
+    };
+
+    private static Fasta ref;
+    private static List<Double> dp5;
+    private static List<Double> dp3;
+
+    @TempDir
+    Path tmp;
+
+
+    @BeforeAll
+    static void readInput() throws Exception {
+        ref = FastaIO.readFasta("data/mini.fasta").get(0);
+        dp5 = CLIParser.readDamageProfile(Path.of("data/5p_freq_misincorporations.txt"));
+        dp3 = CLIParser.readDamageProfile(Path.of("data/3p_freq_misincorporations.txt"));
+    }
+
+
+    @Test
+    void keepsCheckpointIfVCFCannotBeWritten() throws IOException {
+        String expected = referenceVCF();
+        Path out = Files.createDirectories(tmp.resolve("checkpoint"));
+        ReconstructionEngine engine = new ReconstructionEngine(config().checkpoint(10, false).build());
+        String outputName = engine.getOutputName(SAMPLE);
+
+        // A directory in place of the VCF file makes writing it fail
+        Path vcf = Files.createDirectory(out.resolve(outputName + ".vcf"));
+        assertThrows(IOException.class, () -> engine.reconstructToFiles(READS, ref, SAMPLE, out, IGNORE, IGNORE));
+        assertTrue(Files.isDirectory(out.resolve(outputName + "_checkpoint")), "Checkpoint was removed");
+
+        // Resuming writes the calls of the kept checkpoint
+        Files.delete(vcf);
+        new ReconstructionEngine(config().checkpoint(10, true).build())
+                .reconstructToFiles(READS, ref, SAMPLE, out, IGNORE, IGNORE);
+        assertEquals(expected, Files.readString(vcf));
+        assertFalse(Files.exists(out.resolve(outputName + "_checkpoint")));
+    }
+
+
+    @Test
+    void reportsDownsamplingOfFinishedIntervalsOnResume() throws IOException {
+        List<String> expected = new ArrayList<>();
+        Path reference = Files.createDirectories(tmp.resolve("downsampled"));
+        new ReconstructionEngine(config().maxDepth(2).build())
+                .reconstructToFiles(READS, ref, SAMPLE, reference, expected::add, IGNORE);
+        assertFalse(expected.contains("Downsampled positions:\t0"), "Test data is not downsampled");
+
+        // All intervals are finished before the failed write, the resumed run calls no position
+        Path out = Files.createDirectories(tmp.resolve("resumed"));
+        ReconstructionEngine engine = new ReconstructionEngine(config().maxDepth(2).checkpoint(10, false).build());
+        Path vcf = Files.createDirectory(out.resolve(engine.getOutputName(SAMPLE) + ".vcf"));
+        assertThrows(IOException.class, () -> engine.reconstructToFiles(READS, ref, SAMPLE, out, IGNORE, IGNORE));
+        Files.delete(vcf);
+        List<String> resumed = new ArrayList<>();
+        new ReconstructionEngine(config().maxDepth(2).checkpoint(10, true).build())
+                .reconstructToFiles(READS, ref, SAMPLE, out, resumed::add, IGNORE);
+        assertEquals(expected, resumed);
+    }
+
+
+    @Test
+    void gathersShardsLikeUnshardedRun() throws IOException {
+        Path reference = Files.createDirectories(tmp.resolve("unsharded"));
+        List<String> expectedLog = new ArrayList<>();
+        List<String> expectedRoi = new ArrayList<>();
+        ReconstructionEngine engine = new ReconstructionEngine(config().maxDepth(2).build());
+        engine.reconstructToFiles(READS, ref, SAMPLE, reference, expectedLog::add, expectedRoi::add);
+
+        // Shards end inside reads, the last shard is shorter
+        Path out = Files.createDirectories(tmp.resolve("sharded"));
+        ShardPlan plan = ShardPlan.split(List.of(READS.get(0).getAbsolutePath()), "ref",
+                ref.getSequence().length(), 3);
+        for (int shard = 1; shard < plan.getShards(); shard++) {
+            new ReconstructionEngine(config().maxDepth(2).shard(shard, plan.getSize()).build())
+                    .reconstructToFiles(READS, ref, SAMPLE, out, IGNORE, IGNORE);
+        }
+        IOException e = assertThrows(IOException.class,
+                () -> engine.gatherToFiles(READS, ref, SAMPLE, out, plan, IGNORE, IGNORE));
+        assertTrue(e.getMessage().contains("Shard " + plan.getShards()), e.getMessage());
+
+        new ReconstructionEngine(config().maxDepth(2).shard(plan.getShards(), plan.getSize()).build())
+                .reconstructToFiles(READS, ref, SAMPLE, out, IGNORE, IGNORE);
+        List<String> log = new ArrayList<>();
+        List<String> roi = new ArrayList<>();
+        engine.gatherToFiles(READS, ref, SAMPLE, out, plan, log::add, roi::add);
+        String outputName = engine.getOutputName(SAMPLE);
+        for (String file : List.of(outputName + ".fasta", outputName + ".vcf", outputName + "_qc.tsv")) {
+            assertEquals(Files.readString(reference.resolve(file)), Files.readString(out.resolve(file)), file);
+        }
+        assertEquals(expectedLog, log);
+        assertEquals(expectedRoi, roi);
+    }
+
+
+    @Test
+    void keepsShardsIfVCFCannotBeGathered() throws IOException {
+        String expected = referenceVCF();
+        Path out = Files.createDirectories(tmp.resolve("shards"));
+        ShardPlan plan = ShardPlan.split(List.of(READS.get(0).getAbsolutePath()), "ref",
+                ref.getSequence().length(), 2);
+        for (int shard = 1; shard <= plan.getShards(); shard++) {
+            new ReconstructionEngine(config().shard(shard, plan.getSize()).build())
+                    .reconstructToFiles(READS, ref, SAMPLE, out, IGNORE, IGNORE);
+        }
+        ReconstructionEngine engine = new ReconstructionEngine(config().build());
+        String outputName = engine.getOutputName(SAMPLE);
+        Path shards = out.resolve(outputName + "_shards");
+
+        // A directory in place of the VCF file makes gathering fail
+        Path vcf = Files.createDirectory(out.resolve(outputName + ".vcf"));
+        assertThrows(IOException.class, () -> engine.gatherToFiles(READS, ref, SAMPLE, out, plan, IGNORE, IGNORE));
+        assertTrue(Files.isDirectory(shards.resolve("1")) && Files.isDirectory(shards.resolve("2")),
+                "Shards were removed");
+
+        // Gathering again writes the calls of the kept shards, which are removed afterwards
+        Files.delete(vcf);
+        engine.gatherToFiles(READS, ref, SAMPLE, out, plan, IGNORE, IGNORE);
+        assertEquals(expected, Files.readString(vcf));
+        assertTrue(Files.isDirectory(shards), "Shards were removed before the log files were written");
+        engine.deleteShards(SAMPLE, out, plan);
+        assertFalse(Files.exists(shards));
+    }
+
+
+    @Test
+    void keepsSpilledCallsIfVCFCannotBeWritten() throws IOException {
+        String expected = referenceVCF();
+        Path out = Files.createDirectories(tmp.resolve("spill"));
+        // One call in memory at a time
+        ReconstructionEngine engine = new ReconstructionEngine(config().maxMemory(1).build());
+        String outputName = engine.getOutputName(SAMPLE);
+        Path spill = out.resolve(outputName + "_spill");
+
+        // A directory in place of the VCF file makes writing it fail
+        Path vcf = Files.createDirectory(out.resolve(outputName + ".vcf"));
+        assertThrows(IOException.class, () -> engine.reconstructToFiles(READS, ref, SAMPLE, out, IGNORE, IGNORE));
+        try (Stream<Path> runs = Files.list(spill)) {
+            assertTrue(runs.count() > 1, "Spilled calls were removed");
+        }
+
+        Files.delete(vcf);
+        engine.reconstructToFiles(READS, ref, SAMPLE, out, IGNORE, IGNORE);
+        assertEquals(expected, Files.readString(vcf));
+        assertFalse(Files.exists(spill));
+    }
+
+
+    /**
+     * @return Builder of the configuration of all runs: reference-free weighting, coverage 1, frequency 0.5
+     */
+    private static ReconstructionConfig.Builder config() {
+        return ReconstructionConfig.builder()
+                .corMode(CorrectionMode.REFFREE_WEI)
+                .minCov(1)
+                .minFreq(0.5)
+                .damageProfiles(dp5, dp3);
+    }
+
+
+    /**
+     * @return VCF file of a run without intermediate results
+     */
+    private String referenceVCF() throws IOException {
+        Path out = Files.createDirectories(tmp.resolve("reference"));
+        ReconstructionEngine engine = new ReconstructionEngine(config().build());
+        engine.reconstructToFiles(READS, ref, SAMPLE, out, IGNORE, IGNORE);
+        return Files.readString(out.resolve(engine.getOutputName(SAMPLE) + ".vcf"));
+    }
+}
@@ -0,0 +1,102 @@
+package dorian;
+
+import cli.CLIParser;
+import datastructure.CorrectionMode;
+import datastructure.Fasta;
+import datastructure.ReconstructionConfig;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import utils.FastaIO;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The streaming engine gives the same consensus sequence, variant calls and regions of interest as the
+ * pileup engine on the test data
+ *
+ * @author Meret Häusler
+ * @version 1.0
+ * @since 2024-10-16
+ */
+class StreamingBaseCallingTest {
+    private static final String SAMPLE = "test";
+    private static final List<File> READS = List.of(new File("data/test.bam"));
+    private static final Consumer<String> IGNORE = line -> {
+    };
+
+    private static Fasta ref;
+    private static List<Double> dp5;
+    private static List<Double> dp3;
+
+    @TempDir
+    Path tmp;
+
+
+    @BeforeAll
+    static void readInput() throws Exception {
+        ref = FastaIO.readFasta("data/mini.fasta").get(0);
+        dp5 = CLIParser.readDamageProfile(Path.of("data/5p_freq_misincorporations.txt"));
+        dp3 = CLIParser.readDamageProfile(Path.of("data/3p_freq_misincorporations.txt"));
+    }
+
+
+    @Test
+    void callsLikePileupInAllModes() throws IOException {
+        for (CorrectionMode mode : CorrectionMode.values()) {
+            assertSameResults(mode.getShortName(), config(mode));
+        }
+    }
+
+
+    @Test
+    void callsLikePileupWithQualityAndLikelihoods() throws IOException {
+        assertSameResults("quality", config(CorrectionMode.REFFREE_WEI).baseQuality(true).genotypeLikelihoods(30)
+                .threads(2));
+    }
+
+
+    /**
+     * Runs both engines and compares their FASTA and VCF files and ROI lines
+     * @param name      Name of the comparison, used for the output directories and messages
+     * @param config    Configuration of both runs, without the engine
+     */
+    private void assertSameResults(String name, ReconstructionConfig.Builder config) throws IOException {
+        Path pileupOut = Files.createDirectories(tmp.resolve(name + "_pileup"));
+        Path streamingOut = Files.createDirectories(tmp.resolve(name + "_streaming"));
+        List<String> pileupRoi = new ArrayList<>();
+        List<String> streamingRoi = new ArrayList<>();
+        ReconstructionEngine pileup = new ReconstructionEngine(config.streaming(false).build());
+        pileup.reconstructToFiles(READS, ref, SAMPLE, pileupOut, IGNORE, pileupRoi::add);
+        ReconstructionEngine streaming = new ReconstructionEngine(config.streaming(true).build());
+        streaming.reconstructToFiles(READS, ref, SAMPLE, streamingOut, IGNORE, streamingRoi::add);
+
+        String outputName = pileup.getOutputName(SAMPLE);
+        for (String file : List.of(outputName + ".fasta", outputName + ".vcf")) {
+            assertEquals(Files.readString(pileupOut.resolve(file)), Files.readString(streamingOut.resolve(file)),
+                    name + ": " + file);
+        }
+        assertEquals(pileupRoi, streamingRoi, name + ": ROI");
+    }
+
+
+    /**
+     * @param mode  Correction mode
+     * @return Builder of the configuration of a run with coverage 1 and frequency 0.5
+     */
+    private static ReconstructionConfig.Builder config(CorrectionMode mode) {
+        ReconstructionConfig.Builder config = ReconstructionConfig.builder()
+                .corMode(mode)
+                .minCov(1)
+                .minFreq(0.5);
+        return mode.needsDP() ? config.damageProfiles(dp5, dp3) : config;
+    }
+}
@@ -0,0 +1,102 @@
+package utils;
+
+import datastructure.CountMatrixSlice;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Writing and querying samples of a count matrix
+ *
+ * @author Meret Häusler
+ * @version 1.0
+ * @since 2024-10-14
+ */
+class CountMatrixTest {
+    private static final int LENGTH = 3 * CountMatrix.BLOCK_SIZE;
+    private static final Map<Character, Double> COUNTS = Map.of('A', 0.0, 'C', 1.5, 'G', 0.0, 'T', 2.0);
+
+    @TempDir
+    Path tmp;
+
+
+    @Test
+    void queriesCountsOfSamples() throws IOException {
+        CountMatrix matrix = CountMatrix.openOrCreate(tmp, "ref", LENGTH);
+        CountMatrixWriter first = new CountMatrixWriter(matrix, "first");
+        first.add(10, 4, COUNTS);
+        first.add(2 * CountMatrix.BLOCK_SIZE + 1, 2, COUNTS);
+        first.finish();
+        CountMatrixWriter second = new CountMatrixWriter(matrix, "second");
+        second.add(10, 1, COUNTS);
+        second.finish();
+
+        CountMatrix reopened = CountMatrix.open(tmp);
+        assertEquals(List.of("first", "second"), reopened.getSamples());
+        CountMatrixSlice slice = reopened.query(1, LENGTH, reopened.getSamples());
+        assertEquals(4, slice.getCoverage(0, 10));
+        assertEquals(2.0f, slice.getCount(0, 10, 3));
+        assertEquals(2, slice.getCoverage(0, 2 * CountMatrix.BLOCK_SIZE + 1));
+        assertEquals(1, slice.getCoverage(1, 10));
+        assertEquals(0, slice.getCoverage(1, 2 * CountMatrix.BLOCK_SIZE + 1));
+        assertThrows(IOException.class, () -> new CountMatrixWriter(reopened, "first"));
+    }
+
+
+    @Test
+    void ignoresChunksOfFailedRun() throws IOException {
+        CountMatrix matrix = CountMatrix.openOrCreate(tmp, "ref", LENGTH);
+        // A failed run writes the chunks of the first two blocks but never adds the sample
+        CountMatrixWriter failed = new CountMatrixWriter(matrix, "sample");
+        failed.add(10, 4, COUNTS);
+        failed.add(CountMatrix.BLOCK_SIZE + 10, 4, COUNTS);
+        failed.add(2 * CountMatrix.BLOCK_SIZE + 10, 4, COUNTS);
+        assertTrue(Files.exists(matrix.chunk(1, "sample")));
+
+        // The retry has no reads in the second block
+        CountMatrixWriter retry = new CountMatrixWriter(matrix, "sample");
+        retry.add(10, 3, COUNTS);
+        retry.add(2 * CountMatrix.BLOCK_SIZE + 10, 3, COUNTS);
+        retry.finish();
+
+        CountMatrix reopened = CountMatrix.open(tmp);
+        CountMatrixSlice slice = reopened.query(1, LENGTH, List.of("sample"));
+        assertEquals(3, slice.getCoverage(0, 10));
+        assertEquals(0, slice.getCoverage(0, CountMatrix.BLOCK_SIZE + 10), "Chunk of the failed run was read");
+        assertEquals(3, slice.getCoverage(0, 2 * CountMatrix.BLOCK_SIZE + 10));
+    }
+
+
+    @Test
+    void createsManifestOnceForConcurrentRuns() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Callable<CountMatrix>> runs = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                runs.add(() -> CountMatrix.openOrCreate(tmp, "ref", LENGTH));
+            }
+            for (Future<CountMatrix> run : pool.invokeAll(runs)) {
+                assertEquals(LENGTH, run.get().getLength());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        try (Stream<Path> files = Files.list(tmp)) {
+            assertEquals(List.of(tmp.resolve(CountMatrix.FILE_NAME)), files.toList(), "Temporary manifests left");
+        }
+        assertThrows(IOException.class, () -> CountMatrix.openOrCreate(tmp, "other", LENGTH));
+    }
+}
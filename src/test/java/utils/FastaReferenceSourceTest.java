@@ -0,0 +1,129 @@
+package utils;
+
+import datastructure.Fasta;
+import htsjdk.samtools.*;
+import htsjdk.samtools.cram.ref.CRAMReferenceSource;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Decoding CRAM files against the loaded reference, which is the first sequence of the reference file
+ *
+ * @author Meret Häusler
+ * @version 1.0
+ * @since 2024-10-16
+ */
+class FastaReferenceSourceTest {
+    private static final String OTHER = "ACGTTGCAACGTTGCAACGTTGCAACGTTGCAACGTTGCA";
+
+    private static Fasta ref;
+
+    @TempDir
+    File tmp;
+
+
+    @BeforeAll
+    static void readReference() throws Exception {
+        ref = FastaIO.readFasta("data/mini.fasta").get(0);
+    }
+
+
+    @Test
+    void decodesReadsOfLoadedSequence() throws IOException {
+        File cram = writeCram(false);
+        try (SamReader reader = AlignmentIO.openReader(cram, ref)) {
+            List<SAMRecord> records = new ArrayList<>();
+            reader.iterator().forEachRemaining(records::add);
+            assertEquals(2, records.size());
+            assertEquals(ref.getSequence().substring(4, 24), records.get(0).getReadString());
+        }
+    }
+
+
+    @Test
+    void rejectsReadsOfOtherSequences() throws IOException {
+        File cram = writeCram(true);
+        try (SamReader reader = AlignmentIO.openReader(cram, ref)) {
+            SAMException e = assertThrows(SAMException.class, () -> reader.iterator().forEachRemaining(r -> { }));
+            assertTrue(e.getMessage().contains("sequence other") && e.getMessage().contains("(mini-test)"),
+                    e.getMessage());
+        }
+    }
+
+
+    /**
+     * Writes a CRAM file with both sequences in its header and two reads on the loaded sequence
+     * @param otherReads    If true, also writes a read on the second sequence
+     * @return  CRAM file
+     */
+    private File writeCram(boolean otherReads) throws IOException {
+        SAMFileHeader header = new SAMFileHeader();
+        header.setSortOrder(SAMFileHeader.SortOrder.coordinate);
+        header.addSequence(new SAMSequenceRecord("mini-test", ref.getSequence().length()));
+        header.addSequence(new SAMSequenceRecord("other", OTHER.length()));
+        List<SAMRecord> records = new ArrayList<>();
+        records.add(read(header, "mini-test", 5, ref.getSequence().substring(4, 24)));
+        records.add(read(header, "mini-test", 30, ref.getSequence().substring(29, 49)));
+        if (otherReads) {
+            records.add(read(header, "other", 1, OTHER.substring(0, 20)));
+        }
+
+        File cram = new File(tmp, otherReads ? "other.cram" : "loaded.cram");
+        try (OutputStream out = new FileOutputStream(cram);
+             CRAMFileWriter writer = new CRAMFileWriter(out, new BothSequences(), header, cram.getName())) {
+            records.forEach(writer::addAlignment);
+        }
+        return cram;
+    }
+
+
+    /**
+     * @return  Forward read matching the reference
+     */
+    private static SAMRecord read(SAMFileHeader header, String contig, int start, String bases) {
+        SAMRecord record = new SAMRecord(header);
+        record.setReadName(contig + start);
+        record.setReferenceName(contig);
+        record.setAlignmentStart(start);
+        record.setCigarString(bases.length() + "M");
+        record.setMappingQuality(60);
+        record.setReadString(bases);
+        byte[] quals = new byte[bases.length()];
+        Arrays.fill(quals, (byte) 30);
+        record.setBaseQualities(quals);
+        return record;
+    }
+
+
+    /**
+     * Reference source of the writer, which knows both sequences
+     */
+    private static class BothSequences implements CRAMReferenceSource {
+
+        @Override
+        public byte[] getReferenceBases(SAMSequenceRecord sequenceRecord, boolean tryNameVariants) {
+            String bases = sequenceRecord.getSequenceName().equals("other") ? OTHER : ref.getSequence();
+            return bases.toUpperCase().getBytes(StandardCharsets.US_ASCII);
+        }
+
+        @Override
+        public byte[] getReferenceBasesByRegion(SAMSequenceRecord sequenceRecord, int zeroBasedStart,
+                                                int requestedRegionLength) {
+            byte[] bases = getReferenceBases(sequenceRecord, true);
+            return Arrays.copyOfRange(bases, zeroBasedStart,
+                    Math.min(bases.length, zeroBasedStart + requestedRegionLength));
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Reloading and eviction of the parsed file cache of the server mode
+ *
+ * @author Meret Häusler
+ * @version 1.0
+ * @since 2024-09-23
+ */
+class FileCacheTest {
+
+    @TempDir
+    Path tmp;
+
+
+    @Test
+    void reloadsChangedFile() throws IOException {
+        AtomicInteger loads = new AtomicInteger();
+        FileCache<String> cache = new FileCache<>(file -> {
+            loads.incrementAndGet();
+            return Files.readString(file);
+        }, 2);
+        Path file = Files.writeString(tmp.resolve("a.txt"), "first");
+
+        assertEquals("first", cache.get(file));
+        assertEquals("first", cache.get(file));
+        assertEquals(1, loads.get());
+
+        Files.writeString(file, "second");
+        assertEquals("second", cache.get(file));
+        assertEquals(2, loads.get());
+        assertEquals(1, cache.size());
+    }
+
+
+    @Test
+    void evictsLeastRecentlyUsedFile() throws IOException {
+        AtomicInteger loads = new AtomicInteger();
+        FileCache<String> cache = new FileCache<>(file -> {
+            loads.incrementAndGet();
+            return Files.readString(file);
+        }, 2);
+        Path a = Files.writeString(tmp.resolve("a.txt"), "a");
+        Path b = Files.writeString(tmp.resolve("b.txt"), "b");
+        Path c = Files.writeString(tmp.resolve("c.txt"), "c");
+
+        cache.get(a);
+        cache.get(b);
+        // Using a makes b the least recently used file
+        cache.get(a);
+        cache.get(c);
+        assertEquals(2, cache.size());
+        assertEquals(3, loads.get());
+
+        cache.get(a);
+        assertEquals(3, loads.get(), "Recently used file was evicted");
+        cache.get(b);
+        assertEquals(4, loads.get(), "Least recently used file was kept");
+    }
+
+
+    @Test
+    void rejectsEmptyCache() {
+        assertThrows(IllegalArgumentException.class, () -> new FileCache<>(Files::readString, 0));
+    }
+}
@@ -0,0 +1,77 @@
+package utils;
+
+import datastructure.CorrectionMode;
+import datastructure.DamageType;
+import datastructure.Fasta;
+import datastructure.ReconstructionConfig;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Header and records of pileup-count files
+ *
+ * @author Meret Häusler
+ * @version 1.0
+ * @since 2024-09-27
+ */
+class PileupCountFileTest {
+    private static final Fasta REF = new Fasta(">ref", "ACGT");
+
+    @TempDir
+    Path tmp;
+
+
+    @Test
+    void readsWrittenHeaderAndRecords() throws IOException {
+        Path file = tmp.resolve("test.counts");
+        List<Double> dp5 = List.of(0.3, 0.1, 0.05);
+        List<Double> dp3 = List.of(0.2, 0.08);
+        ReconstructionConfig config = ReconstructionConfig.builder().corMode(CorrectionMode.REFFREE_WEI)
+                .minCov(1).minFreq(0.5).damageProfiles(dp5, dp3).baseQuality(true).mergeOverlaps(true).build();
+        try (PileupCountWriter writer = new PileupCountWriter(file, REF, "test_ref-free_weighting", "ref", config)) {
+            writer.add(3, 4, DamageType.CT, Map.of('A', 0.0, 'C', 1.0, 'G', 0.0, 'T', 3.0),
+                    Map.of('A', 0.0, 'C', 1.0, 'G', 0.0, 'T', 0.5));
+        }
+
+        try (PileupCountReader reader = new PileupCountReader(file)) {
+            assertEquals("test_ref-free_weighting", reader.getOutputName());
+            assertEquals("ref", reader.getSequenceName());
+            assertEquals(REF.getSequence(), reader.getReference().getSequence());
+            assertEquals(CorrectionMode.REFFREE_WEI, reader.getCorMode());
+            assertEquals(dp5, reader.getDp5());
+            assertEquals(dp3, reader.getDp3());
+            assertTrue(reader.isBaseQuality());
+            assertTrue(reader.isMergeOverlaps());
+
+            assertTrue(reader.next());
+            assertEquals(3, reader.getPosition());
+            assertEquals(4, reader.getCoverage());
+            assertEquals(DamageType.CT, reader.getDamageType());
+            assertEquals(3.0, reader.getCounts().get('T'));
+            assertEquals(0.5, reader.getCorrectedCounts().get('T'));
+            assertFalse(reader.next());
+        }
+    }
+
+
+    @Test
+    void rejectsOtherFormatVersion() throws IOException {
+        Path file = tmp.resolve("old.counts");
+        try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(PileupCountWriter.MAGIC);
+            out.writeInt(PileupCountWriter.VERSION + 1);
+        }
+        IOException e = assertThrows(IOException.class, () -> new PileupCountReader(file));
+        assertTrue(e.getMessage().contains("-sc"), e.getMessage());
+    }
+}
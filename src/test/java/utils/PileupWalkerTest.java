@@ -0,0 +1,253 @@
+package utils;
+
+import htsjdk.samtools.*;
+import htsjdk.samtools.util.SamLocusIterator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Conformance of the PileupWalker with htsjdk's SamLocusIterator with default settings, which it replaced:
+ * both have to emit the same loci with the same bases, read offsets, strands and qualities in the same order.
+ * With merging of overlapping mates, every fragment has to be counted once with the base of higher quality.
+ *
+ * @author Meret Häusler
+ * @version 1.0
+ * @since 2024-09-02
+ */
+class PileupWalkerTest {
+    private static final String BASES = "ACGT";
+
+    @TempDir
+    Path tmp;
+
+
+    @Test
+    void matchesSamLocusIteratorOnTestData() throws IOException {
+        assertConforms(new File("data/test.bam"));
+    }
+
+
+    @Test
+    void matchesSamLocusIteratorOnSyntheticReads() throws IOException {
+        File bam = tmp.resolve("synthetic.bam").toFile();
+        writeSyntheticBam(bam, 2000, 3000, new Random(42));
+        assertConforms(bam);
+    }
+
+
+    @Test
+    void countsOverlappingMatesOnce() throws IOException {
+        // 8 pairs whose mates overlap at 20 loci (first mate, second mate or neither with the higher quality),
+        // a pair whose mates do not overlap and a single-end read
+        File sam = new File("src/test/resources/paired.sam");
+        List<SAMRecord> records = new ArrayList<>();
+        try (SamReader reader = SamReaderFactory.makeDefault().open(sam)) {
+            reader.iterator().forEachRemaining(records::add);
+        }
+
+        try (SamReader reader = SamReaderFactory.makeDefault().open(sam)) {
+            PileupWalker walker = new PileupWalker(reader.iterator(), reader.getFileHeader(), 0, 0, null, true);
+            walker.walk(column -> {
+                int pos = column.getPosition();
+                StringBuilder bases = new StringBuilder();
+                for (int i = 0; i < column.getDepth(); i++) {
+                    bases.append(describe(column.getBase(i), column.getReadIdx(i), column.getReadLength(i),
+                            column.getIsReverse(i), column.getQuality(i)));
+                }
+                assertEquals(fragmentBases(records, pos), bases.toString(), "Column at " + pos);
+            });
+            assertEquals(8 * 20, walker.getMergedBases());
+            assertEquals(3 * 20, walker.getReplacedBases());
+        }
+
+        // Without merging, both mates are counted
+        try (SamReader reader = SamReaderFactory.makeDefault().open(sam)) {
+            PileupWalker walker = new PileupWalker(reader.iterator(), reader.getFileHeader(), 0, 0, null, false);
+            walker.walk(column -> assertEquals(records.stream().filter(r -> covers(r, column.getPosition())).count(),
+                    column.getDepth()));
+            assertEquals(0, walker.getMergedBases());
+        }
+    }
+
+
+    /**
+     * Expected column of merged mates: one base per fragment in the order the fragments were admitted, taken
+     * from the mate of higher quality where both mates cover the locus (the first mate on ties)
+     * @param records   Reads without clips or indels in coordinate order
+     * @param pos       1-based locus
+     * @return Column as described by describe
+     */
+    private static String fragmentBases(List<SAMRecord> records, int pos) {
+        StringBuilder bases = new StringBuilder();
+        for (int r = 0; r < records.size(); r++) {
+            SAMRecord read = records.get(r);
+            if (!covers(read, pos)) {
+                continue;
+            }
+            // The mate covering the locus as well, if any; a second mate is counted with the first
+            int mateIdx = -1;
+            for (int m = 0; m < records.size(); m++) {
+                if (m != r && records.get(m).getReadName().equals(read.getReadName()) && covers(records.get(m), pos)) {
+                    mateIdx = m;
+                }
+            }
+            if (mateIdx >= 0 && mateIdx < r) {
+                continue;
+            }
+            SAMRecord mate = mateIdx < 0 ? null : records.get(mateIdx);
+            int offset = pos - read.getAlignmentStart();
+            if (mate != null && mate.getBaseQualities()[pos - mate.getAlignmentStart()]
+                    > read.getBaseQualities()[offset]) {
+                read = mate;
+                offset = pos - mate.getAlignmentStart();
+            }
+            bases.append(describe(read.getReadBases()[offset], offset, read.getReadLength(),
+                    read.getReadNegativeStrandFlag(), read.getBaseQualities()[offset]));
+        }
+        return bases.toString();
+    }
+
+
+    private static boolean covers(SAMRecord read, int pos) {
+        return read.getAlignmentStart() <= pos && read.getAlignmentEnd() >= pos;
+    }
+
+
+    /**
+     * Compares the columns of both pileup engines for the first reference sequence of an alignment file
+     * @param bam   Coordinate-sorted alignment file
+     */
+    private static void assertConforms(File bam) throws IOException {
+        List<String> walked = new ArrayList<>();
+        try (SamReader reader = SamReaderFactory.makeDefault().open(bam)) {
+            new PileupWalker(reader.iterator(), reader.getFileHeader(), 0).walk(column -> {
+                assertEquals(walked.size() + 1, column.getPosition(), "Loci have to be emitted without gaps");
+                StringBuilder bases = new StringBuilder();
+                for (int i = 0; i < column.getDepth(); i++) {
+                    bases.append(describe(column.getBase(i), column.getReadIdx(i), column.getReadLength(i),
+                            column.getIsReverse(i), column.getQuality(i)));
+                }
+                walked.add(bases.toString());
+            });
+        }
+        assertTrue(walked.size() > 0, "No loci walked");
+
+        int loci = 0;
+        try (SamReader reader = SamReaderFactory.makeDefault().open(bam)) {
+            for (SamLocusIterator.LocusInfo locus : new SamLocusIterator(reader)) {
+                if (locus.getSequenceIndex() != 0) {
+                    break;
+                }
+                StringBuilder bases = new StringBuilder();
+                for (SamLocusIterator.RecordAndOffset read : locus.getRecordAndOffsets()) {
+                    // The walker reports reads without base qualities with -1
+                    byte quality = read.getRecord().getBaseQualities().length == 0 ? -1 : read.getBaseQuality();
+                    bases.append(describe(read.getReadBase(), read.getOffset(), read.getRecord().getReadLength(),
+                            read.getRecord().getReadNegativeStrandFlag(), quality));
+                }
+                if (locus.getPosition() <= walked.size()) {
+                    assertEquals(bases.toString(), walked.get(locus.getPosition() - 1),
+                            "Column at " + locus.getPosition());
+                } else {
+                    assertEquals("", bases.toString(), "Locus " + locus.getPosition() + " behind the last read");
+                }
+                loci++;
+            }
+        }
+        assertTrue(loci >= walked.size(), "SamLocusIterator emitted fewer loci");
+    }
+
+
+    private static String describe(byte base, int readIdx, int readLength, boolean isReverse, byte quality) {
+        return (char) base + "/" + readIdx + "/" + readLength + "/" + (isReverse ? "-" : "+") + "/" + quality + ";";
+    }
+
+
+    /**
+     * Writes random reads with soft and hard clips, insertions, deletions and skips to a coordinate-sorted BAM file,
+     * among them secondary, supplementary, duplicate and unmapped reads, reads on a second sequence and reads
+     * without base qualities
+     * @param bam       Output file
+     * @param length    Length of the reference sequence
+     * @param reads     Number of reads
+     * @param random    Random source
+     */
+    static void writeSyntheticBam(File bam, int length, int reads, Random random) {
+        SAMFileHeader header = new SAMFileHeader();
+        header.setSortOrder(SAMFileHeader.SortOrder.coordinate);
+        header.addSequence(new SAMSequenceRecord("synthetic", length));
+        header.addSequence(new SAMSequenceRecord("second", length));
+
+        try (SAMFileWriter writer = new SAMFileWriterFactory().makeBAMWriter(header, false, bam)) {
+            List<SAMRecord> records = new ArrayList<>();
+            for (int r = 0; r < reads; r++) {
+                records.add(randomRecord(header, "read" + r, length, random));
+            }
+            records.sort(new SAMRecordCoordinateComparator());
+            records.forEach(writer::addAlignment);
+        }
+    }
+
+
+    private static SAMRecord randomRecord(SAMFileHeader header, String name, int length, Random random) {
+        SAMRecord record = new SAMRecord(header);
+        record.setReadName(name);
+
+        // CIGAR with clips at the ends and indels or skips between aligned blocks
+        List<CigarElement> elements = new ArrayList<>();
+        if (random.nextInt(4) == 0) {
+            elements.add(new CigarElement(1 + random.nextInt(5), CigarOperator.H));
+        }
+        if (random.nextInt(3) == 0) {
+            elements.add(new CigarElement(1 + random.nextInt(10), CigarOperator.S));
+        }
+        int blocks = 1 + random.nextInt(3);
+        for (int b = 0; b < blocks; b++) {
+            if (b > 0) {
+                CigarOperator[] gaps = {CigarOperator.I, CigarOperator.D, CigarOperator.N};
+                elements.add(new CigarElement(1 + random.nextInt(4), gaps[random.nextInt(gaps.length)]));
+            }
+            elements.add(new CigarElement(5 + random.nextInt(40), CigarOperator.M));
+        }
+        if (random.nextInt(3) == 0) {
+            elements.add(new CigarElement(1 + random.nextInt(10), CigarOperator.S));
+        }
+        if (random.nextInt(4) == 0) {
+            elements.add(new CigarElement(1 + random.nextInt(5), CigarOperator.H));
+        }
+        Cigar cigar = new Cigar(elements);
+
+        byte[] bases = new byte[cigar.getReadLength()];
+        byte[] quals = new byte[bases.length];
+        for (int i = 0; i < bases.length; i++) {
+            bases[i] = (byte) BASES.charAt(random.nextInt(BASES.length()));
+            quals[i] = (byte) random.nextInt(42);
+        }
+        record.setReadBases(bases);
+        record.setBaseQualities(random.nextInt(20) == 0 ? SAMRecord.NULL_QUALS : quals);
+
+        if (random.nextInt(30) == 0) {
+            record.setReadUnmappedFlag(true);
+            return record;
+        }
+        record.setReferenceIndex(random.nextInt(10) == 0 ? 1 : 0);
+        record.setAlignmentStart(1 + random.nextInt(length - cigar.getReferenceLength()));
+        record.setCigar(cigar);
+        record.setMappingQuality(random.nextInt(61));
+        record.setReadNegativeStrandFlag(random.nextBoolean());
+        record.setSecondaryAlignment(random.nextInt(15) == 0);
+        record.setSupplementaryAlignmentFlag(random.nextInt(15) == 0);
+        record.setDuplicateReadFlag(random.nextInt(10) == 0);
+        return record;
+    }
+}
@@ -0,0 +1,110 @@
+package utils;
+
+import cli.CLIParser;
+import datastructure.CorrectionMode;
+import datastructure.DamageTable;
+import datastructure.ReconstructionConfig;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMReadGroupRecord;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceRecord;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Damage of reads with and without read groups that have their own damage profiles
+ *
+ * @author Meret Häusler
+ * @version 1.0
+ * @since 2024-10-16
+ */
+class ReadGroupDamageTest {
+    // UDG-treated library without damage
+    private static final List<Double> UDG = Collections.nCopies(25, 0.0);
+
+    private static List<Double> dp5;
+    private static List<Double> dp3;
+
+
+    @BeforeAll
+    static void readProfiles() throws Exception {
+        dp5 = CLIParser.readDamageProfile(Path.of("data/5p_freq_misincorporations.txt"));
+        dp3 = CLIParser.readDamageProfile(Path.of("data/3p_freq_misincorporations.txt"));
+    }
+
+
+    @Test
+    void weightsReadGroupsWithTheirOwnProfiles() throws IOException {
+        SAMFileHeader header = header();
+        ReadGroupDamage damage = new ReadGroupDamage(config().readGroupProfiles("udg", UDG, UDG).build(), header);
+        DamageTable defaults = new DamageTable(dp5, dp3);
+
+        double[] udg = damage.resolve(read(header, "udg", false));
+        assertEquals(50, udg.length);
+        assertEquals(0.0, udg[0]);
+        assertEquals(0.0, udg[49]);
+        // Reads of other read groups and reads without read group use the default profiles
+        assertArrayEquals(defaults.row(50, false), damage.resolve(read(header, "untreated", false)));
+        assertArrayEquals(defaults.row(50, true), damage.resolve(read(header, null, true)));
+        assertTrue(damage.resolve(read(header, "untreated", false))[0] > 0.0);
+    }
+
+
+    @Test
+    void rejectsProfilesOfUnknownReadGroup() {
+        ReconstructionConfig config = config().readGroupProfiles("missing", UDG, UDG).build();
+        IOException e = assertThrows(IOException.class, () -> new ReadGroupDamage(config, header()));
+        assertTrue(e.getMessage().contains("missing"), e.getMessage());
+    }
+
+
+    /**
+     * @return Builder of a configuration with damage weighting and the default profiles
+     */
+    private static ReconstructionConfig.Builder config() {
+        return ReconstructionConfig.builder()
+                .corMode(CorrectionMode.REFFREE_WEI)
+                .minCov(1)
+                .minFreq(0.5)
+                .damageProfiles(dp5, dp3);
+    }
+
+
+    /**
+     * @return Header with the read groups udg and untreated
+     */
+    private static SAMFileHeader header() {
+        SAMFileHeader header = new SAMFileHeader();
+        header.addSequence(new SAMSequenceRecord("ref", 1000));
+        header.addReadGroup(new SAMReadGroupRecord("udg"));
+        header.addReadGroup(new SAMReadGroupRecord("untreated"));
+        return header;
+    }
+
+
+    /**
+     * @param header    Header of the read
+     * @param readGroup Read group ID, null for none
+     * @param isReverse True if the read is reverse mapping
+     * @return Mapped read of length 50
+     */
+    private static SAMRecord read(SAMFileHeader header, String readGroup, boolean isReverse) {
+        SAMRecord record = new SAMRecord(header);
+        record.setReferenceName("ref");
+        record.setAlignmentStart(100);
+        record.setCigarString("50M");
+        record.setReadString("A".repeat(50));
+        record.setReadNegativeStrandFlag(isReverse);
+        if (readGroup != null) {
+            record.setAttribute("RG", readGroup);
+        }
+        return record;
+    }
+}
@@ -0,0 +1,169 @@
+package utils;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Ordering, backpressure and failure handling of the multithreaded BAM input pipeline
+ *
+ * @author Meret Häusler
+ * @version 1.0
+ * @since 2024-09-05
+ */
+class RecordPipelineTest {
+    private static final int READS = 5000;
+
+    @TempDir
+    static Path tmp;
+
+    private static File bam;
+    private static SAMFileHeader header;
+    private static List<String> expected;
+
+
+    @BeforeAll
+    static void writeBam() throws IOException {
+        bam = tmp.resolve("pipeline.bam").toFile();
+        PileupWalkerTest.writeSyntheticBam(bam, 5000, READS, new Random(7));
+        expected = new ArrayList<>();
+        try (SamReader reader = SamReaderFactory.makeDefault().open(bam)) {
+            header = reader.getFileHeader();
+            reader.iterator().forEachRemaining(record -> expected.add(record.getSAMString()));
+        }
+    }
+
+
+    @Test
+    void deliversRecordsInFileOrder() {
+        int[][] settings = {{1, 1, 1, 1}, {4, 1, 7, 2}, {8, 2, 64, 4}, {3, 16, 1024, 32}};
+        for (int[] setting : settings) {
+            try (RecordPipeline pipeline = new RecordPipeline(bam, header, setting[0], setting[1], setting[2],
+                    setting[3])) {
+                assertEquals(expected, read(pipeline), "Records with settings " + Arrays.toString(setting));
+            }
+        }
+    }
+
+
+    @Test
+    void deliversRecordsOfTestDataInFileOrder() throws IOException {
+        File testBam = new File("data/test.bam");
+        List<String> records = new ArrayList<>();
+        try (SamReader reader = SamReaderFactory.makeDefault().open(testBam)) {
+            reader.iterator().forEachRemaining(record -> records.add(record.getSAMString()));
+            try (RecordPipeline pipeline = new RecordPipeline(testBam, reader.getFileHeader(), 4, 1, 3, 2)) {
+                assertEquals(records, read(pipeline));
+            }
+        }
+    }
+
+
+    @Test
+    void boundsRecordsInFlightWhileConsumerStalls() throws InterruptedException {
+        int batchSize = 10;
+        int queueCapacity = 2;
+        try (RecordPipeline pipeline = new RecordPipeline(bam, header, 4, 1, batchSize, queueCapacity)) {
+            // Take one record, then let the stages run into the full queues
+            assertTrue(pipeline.hasNext());
+            pipeline.next();
+            long split = -1;
+            while (split != pipeline.getSplitRecords()) {
+                split = pipeline.getSplitRecords();
+                Thread.sleep(200);
+            }
+            // Batch of the consumer, full queue, batch waiting to be queued and batch being split
+            assertTrue(split <= (long) (queueCapacity + 3) * batchSize, split + " records split");
+            assertTrue(split < READS);
+
+            int records = 1;
+            while (pipeline.hasNext()) {
+                pipeline.next();
+                records++;
+            }
+            assertEquals(expected.size(), records);
+        }
+    }
+
+
+    @Test
+    void reportsTruncatedFileInsteadOfEndingEarly() throws IOException {
+        byte[] content = Files.readAllBytes(bam.toPath());
+        File truncated = tmp.resolve("truncated.bam").toFile();
+        Files.write(truncated.toPath(), Arrays.copyOf(content, content.length / 2));
+
+        for (int queueCapacity : new int[]{1, 2, 8}) {
+            assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+                try (RecordPipeline pipeline = new RecordPipeline(truncated, header, 2, 1, 1, queueCapacity)) {
+                    RuntimeException e = assertThrows(RuntimeException.class, () -> read(pipeline));
+                    assertTrue(e.getMessage().startsWith("Reading the BAM file failed: unexpected end of file"),
+                            e.getMessage());
+                    // The failure is reported again instead of an early end
+                    assertThrows(RuntimeException.class, pipeline::hasNext);
+                }
+            });
+        }
+    }
+
+
+    @Test
+    void reportsCorruptBlock() throws IOException {
+        byte[] content = Files.readAllBytes(bam.toPath());
+        // Overwrite compressed data in the middle of the file, keeping the block structure intact
+        int blockStart = findBlockStart(content, content.length / 2);
+        for (int i = blockStart + 30; i < blockStart + 60; i++) {
+            content[i] = (byte) 0xff;
+        }
+        File corrupt = tmp.resolve("corrupt.bam").toFile();
+        Files.write(corrupt.toPath(), content);
+
+        assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            try (RecordPipeline pipeline = new RecordPipeline(corrupt, header, 4, 1, 16, 2)) {
+                assertThrows(RuntimeException.class, () -> read(pipeline));
+            }
+        });
+    }
+
+
+    private static List<String> read(RecordPipeline pipeline) {
+        List<String> records = new ArrayList<>();
+        while (pipeline.hasNext()) {
+            SAMRecord record = pipeline.next();
+            records.add(record.getSAMString());
+        }
+        return records;
+    }
+
+
+    /**
+     * @param content   BGZF compressed file
+     * @param from      Offset to search from
+     * @return Offset of the first block header at or behind the offset
+     */
+    private static int findBlockStart(byte[] content, int from) {
+        int pos = 0;
+        while (pos < content.length) {
+            if (pos >= from) {
+                return pos;
+            }
+            pos += ((content[pos + 16] & 0xff) | (content[pos + 17] & 0xff) << 8) + 1;
+        }
+        throw new IllegalStateException("No block behind " + from);
+    }
+}